@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.io.IOException;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+import android.content.Context;
+
+
+/**
+ * An {@link AccountStore} that's backed by the {@link AccountManager}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AccountManagerAccountStore implements AccountStore
+{
+	private final AccountManager mAccountManager;
+
+
+	/**
+	 * Create an {@link AccountStore} for the {@link AccountManager} of the given {@link Context}.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 */
+	public AccountManagerAccountStore(Context context)
+	{
+		mAccountManager = AccountManager.get(context);
+	}
+
+
+	@Override
+	public String getPassword(Account account)
+	{
+		return mAccountManager.getPassword(account);
+	}
+
+
+	@Override
+	public void setPassword(Account account, String password)
+	{
+		mAccountManager.setPassword(account, password);
+	}
+
+
+	@Override
+	public String blockingGetAuthToken(Account account, String authTokenType, boolean notifyAuthFailure) throws OperationCanceledException, IOException,
+		AuthenticatorException
+	{
+		return mAccountManager.blockingGetAuthToken(account, authTokenType, notifyAuthFailure);
+	}
+
+
+	@Override
+	public void invalidateAuthToken(String accountType, String authToken)
+	{
+		mAccountManager.invalidateAuthToken(accountType, authToken);
+	}
+}
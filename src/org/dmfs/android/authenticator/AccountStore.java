@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.io.IOException;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+
+
+/**
+ * A store of account secrets and auth tokens. All account database access of this framework goes through an {@link AccountStore}. By default that's the
+ * {@link AccountManager} (see {@link AccountManagerAccountStore}), but you can replace it using {@link AccountStores#set(AccountStore)}, e.g. by an
+ * {@link InMemoryAccountStore} for testing and benchmarking.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface AccountStore
+{
+	/**
+	 * Return the stored secret of the given account.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 * @return The protected secret or <code>null</code> if no secret is stored.
+	 * @see AccountManager#getPassword(Account)
+	 */
+	public String getPassword(Account account);
+
+
+	/**
+	 * Store a secret for the given account.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 * @param password
+	 *            The protected secret or <code>null</code> to remove the secret.
+	 * @see AccountManager#setPassword(Account, String)
+	 */
+	public void setPassword(Account account, String password);
+
+
+	/**
+	 * Get an auth token of the given type for the given account, blocking until it's available.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @param notifyAuthFailure
+	 *            Whether to notify the user if the authentication fails.
+	 * @return The auth token or <code>null</code> if no auth token could be retrieved.
+	 * @throws OperationCanceledException
+	 * @throws IOException
+	 * @throws AuthenticatorException
+	 * @see AccountManager#blockingGetAuthToken(Account, String, boolean)
+	 */
+	public String blockingGetAuthToken(Account account, String authTokenType, boolean notifyAuthFailure) throws OperationCanceledException, IOException,
+		AuthenticatorException;
+
+
+	/**
+	 * Remove an auth token from the cache of auth tokens.
+	 * 
+	 * @param accountType
+	 *            The account type of the auth token.
+	 * @param authToken
+	 *            The auth token to invalidate.
+	 * @see AccountManager#invalidateAuthToken(String, String)
+	 */
+	public void invalidateAuthToken(String accountType, String authToken);
+}
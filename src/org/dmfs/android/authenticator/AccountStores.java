@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import android.content.Context;
+
+
+/**
+ * Provides the {@link AccountStore} used by this framework.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AccountStores
+{
+	/**
+	 * The {@link AccountStore} that has been set via {@link #set(AccountStore)} or <code>null</code> to use the {@link AccountManagerAccountStore}.
+	 */
+	private static volatile AccountStore STORE;
+
+	/**
+	 * The default {@link AccountManagerAccountStore}. It's created on the first call to {@link #get(Context)} that doesn't return {@link #STORE}.
+	 */
+	private static volatile AccountStore DEFAULT_STORE;
+
+	/**
+	 * A lock to synchronize the creation of {@link #DEFAULT_STORE}.
+	 */
+	private final static Object INIT_LOCK = new Object();
+
+
+	private AccountStores()
+	{
+	}
+
+
+	/**
+	 * Return the current {@link AccountStore}.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return The {@link AccountStore} that has been set via {@link #set(AccountStore)} or the shared {@link AccountManagerAccountStore}.
+	 */
+	public static AccountStore get(Context context)
+	{
+		AccountStore store = STORE;
+		if (store != null)
+		{
+			return store;
+		}
+
+		store = DEFAULT_STORE;
+		if (store == null)
+		{
+			synchronized (INIT_LOCK)
+			{
+				store = DEFAULT_STORE;
+				if (store == null)
+				{
+					// use the application context, so we don't leak any activity or service
+					store = DEFAULT_STORE = new AccountManagerAccountStore(context.getApplicationContext());
+				}
+			}
+		}
+		return store;
+	}
+
+
+	/**
+	 * Set the {@link AccountStore} to use. This is meant for tests and benchmarks that should run without the {@link android.accounts.AccountManager}.
+	 * 
+	 * @param store
+	 *            The {@link AccountStore} to use or <code>null</code> to use the {@link AccountManagerAccountStore}.
+	 */
+	public static void set(AccountStore store)
+	{
+		STORE = store;
+	}
+}
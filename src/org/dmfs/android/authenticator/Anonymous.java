@@ -41,6 +41,19 @@ public class Anonymous extends AuthSchemeHandler
 	 */
 	public final static String SCHEME = "anonymous";
 
+	/**
+	 * An {@link AuthSchemeHandlerFactory} that creates {@link Anonymous} handlers without any reflection. Use it with
+	 * {@link AuthSchemeHandler#register(String, AuthSchemeHandlerFactory)} to register this handler for {@link #SCHEME}.
+	 */
+	public final static AuthSchemeHandlerFactory FACTORY = new AuthSchemeHandlerFactory()
+	{
+		@Override
+		public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+		{
+			return new Anonymous(context, authTokenType);
+		}
+	};
+
 	/**
 	 * The auth token type this class support.
 	 */
@@ -68,6 +81,20 @@ public class Anonymous extends AuthSchemeHandler
 	}
 
 
+	/*
+	 * This handler doesn't have any mutable state, so it can be shared.
+	 * 
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.AuthSchemeHandler#isImmutable()
+	 */
+	@Override
+	protected boolean isImmutable()
+	{
+		return true;
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -144,4 +171,17 @@ public class Anonymous extends AuthSchemeHandler
 		// just return a new secret
 		return new AnonymousSecret(context);
 	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.AuthSchemeHandler#getSecret(android.content.Context, android.accounts.Account, java.lang.String)
+	 */
+	@Override
+	public StoredSecret getSecret(Context context, Account account, String protectedSecret)
+	{
+		// just return a new secret
+		return new AnonymousSecret(context);
+	}
 }
@@ -20,14 +20,19 @@
 package org.dmfs.android.authenticator;
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
 import org.dmfs.android.authenticator.secrets.AuthToken;
+import org.dmfs.android.authenticator.secrets.SecretCache;
 import org.dmfs.android.authenticator.secrets.StoredSecret;
 
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.accounts.AuthenticatorException;
 import android.content.Context;
 import android.content.res.Resources;
@@ -54,20 +59,60 @@ import android.net.Uri;
  *     &lt;/string-array>
  * </pre>
  * 
+ * Alternatively you can register an {@link AuthSchemeHandlerFactory} for each scheme using {@link #register(String, AuthSchemeHandlerFactory)}. Registered
+ * factories don't need any reflection to create handlers, so they are faster and allow the handler classes to be shrunk. Schemes that have not been
+ * registered are looked up in the resource arrays.
+ * 
  * @author Marten Gajda <marten@dmfs.org>
  */
 public abstract class AuthSchemeHandler
 {
 	/**
-	 * An array of auth schemes. This will be initialized on the first call to {@link #get(Context, String)}.
+	 * The registry of auth scheme handlers. This will be initialized on the first call to {@link #get(Context, String)}.
+	 */
+	private static volatile AuthSchemeRegistry REGISTRY;
+
+	/**
+	 * A lock to ensure the lazily initialized static members are initialized only once.
+	 */
+	private final static Object INIT_LOCK = new Object();
+
+	/**
+	 * The {@link AuthSchemeHandlerFactory}s that have been registered via {@link #register(String, AuthSchemeHandlerFactory)}.
+	 */
+	private final static Map<String, AuthSchemeHandlerFactory> REGISTERED_FACTORIES = new ConcurrentHashMap<String, AuthSchemeHandlerFactory>(8);
+
+	/**
+	 * The maximum number of {@link AuthSchemeHandler} instances to cache.
+	 */
+	private final static int MAX_CACHED_HANDLERS = 32;
+
+	/**
+	 * A cache of immutable {@link AuthSchemeHandler}s by auth token type.
+	 */
+	private final static AuthSchemeHandlerCache HANDLER_CACHE = new AuthSchemeHandlerCache(MAX_CACHED_HANDLERS);
+
+	/**
+	 * The maximum number of unknown auth token types to remember.
+	 */
+	private final static int MAX_UNKNOWN_AUTH_TOKEN_TYPES = 64;
+
+	/**
+	 * The time in milliseconds to remember an unknown auth token type.
 	 */
-	private static String[] AUTH_SCHEMES;
+	private final static long UNKNOWN_AUTH_TOKEN_TYPE_TTL = 10000;
 
 	/**
-	 * An array of handler class names for the auth schemes in {@link #AUTH_SCHEMES}. This will be initialized on the first call to
-	 * {@link #get(Context, String)}.
+	 * Auth token types without a handler. Repeated lookups of these are answered without consulting the factories. This is cleared by
+	 * {@link #register(String, AuthSchemeHandlerFactory)}.
 	 */
-	private static String[] AUTH_SCHEME_CLASSES;
+	private final static NegativeCache<AuthTokenType> UNKNOWN_AUTH_TOKEN_TYPES = new NegativeCache<AuthTokenType>(MAX_UNKNOWN_AUTH_TOKEN_TYPES,
+		UNKNOWN_AUTH_TOKEN_TYPE_TTL);
+
+	/**
+	 * The cache of unprotected secrets. This will be initialized on the first call to {@link #getSecretCache(Context)}.
+	 */
+	private static volatile SecretCache SECRET_CACHE;
 
 	/**
 	 * The auth token type this handler was created for.
@@ -99,7 +144,7 @@ public abstract class AuthSchemeHandler
 	 */
 	public static AuthSchemeHandler get(Context context, String authTokenType)
 	{
-		return get(context, Uri.parse(authTokenType));
+		return get(context, AuthTokenType.get(authTokenType));
 	}
 
 
@@ -114,53 +159,142 @@ public abstract class AuthSchemeHandler
 	 */
 	public static AuthSchemeHandler get(Context context, Uri authTokenType)
 	{
-		Resources res = context.getResources();
-		if (AUTH_SCHEMES == null)
+		return get(context, AuthTokenType.get(authTokenType));
+	}
+
+
+	/**
+	 * Returns an {@link AuthSchemeHandler} for a specific authentication scheme.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param authTokenType
+	 *            The {@link AuthTokenType}.
+	 * @return A specific {@link AuthSchemeHandler} instance or <code>null</code> if no handler has been specified for this auth token type.
+	 */
+	public static AuthSchemeHandler get(Context context, AuthTokenType authTokenType)
+	{
+		AuthSchemeHandler handler = HANDLER_CACHE.get(authTokenType);
+		Metrics.cacheAccess(Cache.HANDLER, handler != null);
+		if (handler != null)
+		{
+			return handler;
+		}
+
+		boolean unknown = UNKNOWN_AUTH_TOKEN_TYPES.contains(authTokenType);
+		Metrics.cacheAccess(Cache.NEGATIVE, unknown);
+		if (unknown)
+		{
+			return null;
+		}
+
+		// take the generation before the factory, so the handler is not cached if the factory is replaced in the meantime
+		int generation = HANDLER_CACHE.getGeneration();
+		String scheme = authTokenType.getScheme();
+		AuthSchemeHandlerFactory factory = scheme == null ? null : REGISTERED_FACTORIES.get(scheme);
+		if (factory == null)
 		{
-			// cache arrays, there is no need to synchronize since the expected result is always the same
-			AUTH_SCHEMES = res.getStringArray(R.array.org_dmfs_android_authenticator_auth_schemes);
-			AUTH_SCHEME_CLASSES = res.getStringArray(R.array.org_dmfs_android_authenticator_auth_scheme_handlers);
+			// fall back to the handlers in the resources
+			factory = getRegistry(context).get(scheme);
 		}
 
-		for (int i = 0, count = AUTH_SCHEMES.length; i < count; ++i)
+		if (factory == null)
 		{
-			if (AUTH_SCHEMES[i].equals(authTokenType.getScheme()))
+			UNKNOWN_AUTH_TOKEN_TYPES.put(authTokenType);
+			if (HANDLER_CACHE.getGeneration() != generation)
 			{
-				String className = AUTH_SCHEME_CLASSES[i];
-				try
-				{
-					Constructor<?> constructor = Class.forName(className).getConstructor(Context.class, Uri.class);
-					AuthSchemeHandler result = (AuthSchemeHandler) constructor.newInstance(context, authTokenType);
+				// a factory has been registered in the meantime, it might know this type
+				UNKNOWN_AUTH_TOKEN_TYPES.remove(authTokenType);
+			}
+			return null;
+		}
 
-					return result;
-				}
-				catch (InstantiationException e)
-				{
-					throw new RuntimeException("can't instanciate " + className, e);
-				}
-				catch (IllegalAccessException e)
-				{
-					throw new RuntimeException("can't instanciate " + className, e);
-				}
-				catch (ClassNotFoundException e)
-				{
-					throw new RuntimeException("can't instanciate " + className, e);
-				}
-				catch (NoSuchMethodException e)
-				{
-					throw new RuntimeException("can't instanciate " + className, e);
-				}
-				catch (IllegalArgumentException e)
-				{
-					throw new RuntimeException("can't instanciate " + className, e);
-				}
-				catch (InvocationTargetException e)
+		handler = factory.newInstance(context, authTokenType.getUri());
+		if (handler.isImmutable())
+		{
+			HANDLER_CACHE.put(authTokenType, handler, generation);
+		}
+		return handler;
+	}
+
+
+	/**
+	 * Initialize the registry of auth schemes and the secret cache and create the handlers for the given auth token types. Call this to move the cost of the
+	 * initialization off the critical path.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param authTokenTypes
+	 *            The auth token types to preload the handlers for.
+	 */
+	public static void preload(Context context, String... authTokenTypes)
+	{
+		getRegistry(context);
+		getSecretCache(context);
+		for (String authTokenType : authTokenTypes)
+		{
+			get(context, authTokenType);
+		}
+	}
+
+
+	/**
+	 * Return the {@link AuthSchemeRegistry}, initializing it on the first call. The registry is built exactly once, even if this is called from multiple
+	 * threads concurrently. Once it has been initialized no lock is taken.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return The {@link AuthSchemeRegistry}.
+	 */
+	private static AuthSchemeRegistry getRegistry(Context context)
+	{
+		AuthSchemeRegistry registry = REGISTRY;
+		if (registry == null)
+		{
+			synchronized (INIT_LOCK)
+			{
+				registry = REGISTRY;
+				if (registry == null)
 				{
-					throw new RuntimeException("can't instanciate " + className, e);
+					registry = REGISTRY = new AuthSchemeRegistry(context.getResources());
 				}
 			}
 		}
-		return null;
+		return registry;
+	}
+
+
+	/**
+	 * Register an {@link AuthSchemeHandlerFactory} for the given scheme. Registered factories take precedence over the handlers specified in the resources.
+	 * You should register all factories before the first call to {@link #get(Context, Uri)}, e.g. in {@link android.app.Application#onCreate()}.
+	 * 
+	 * @param scheme
+	 *            The auth scheme.
+	 * @param factory
+	 *            The {@link AuthSchemeHandlerFactory} that creates the handlers for this scheme.
+	 */
+	public static void register(String scheme, AuthSchemeHandlerFactory factory)
+	{
+		REGISTERED_FACTORIES.put(scheme, factory);
+		// drop handlers that might have been created by a previous factory, this also drops handlers that are currently being created
+		HANDLER_CACHE.clear();
+		// the new factory might handle auth token types that were unknown so far
+		UNKNOWN_AUTH_TOKEN_TYPES.clear();
+	}
+
+
+	/**
+	 * Returns whether this handler is immutable. Immutable handlers are cached and shared by all callers that request the same auth token type, so they must
+	 * not depend on the {@link Context} they have been created with (other than for resources that don't change at runtime) and must be thread safe.
+	 * <p>
+	 * The default implementation returns <code>false</code>.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if instances of this handler can be shared, <code>false</code> otherwise.
+	 */
+	protected boolean isImmutable()
+	{
+		return false;
 	}
 
 
@@ -216,6 +350,9 @@ public abstract class AuthSchemeHandler
 	 * <strong>Note:</strong> For some auth schemes this method will have to make a network connection to get an authToken of none is stored yet or it has
 	 * expired, so don't call it from the main thread!
 	 * </p>
+	 * <p>
+	 * Implementations should call {@link AuthenticationProvider#startBackgroundRefresh(Context, Account)} on a new provider before returning it.
+	 * </p>
 	 * 
 	 * @param context
 	 *            A {@link Context}.
@@ -253,6 +390,56 @@ public abstract class AuthSchemeHandler
 		IOException, AuthenticationException;
 
 
+	/**
+	 * Return an {@link AuthenticationProvider} for a specific {@link Account} without blocking the calling thread. The provider is obtained by calling
+	 * {@link #getAuthenticationProvider(Context, Account)} on a shared thread pool. Failed attempts to get the auth token are retried on a scheduler, so no
+	 * thread is blocked while waiting for the next attempt.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account}.
+	 * @param callback
+	 *            An {@link AuthenticationCallback} to notify when the provider is available or the operation failed. May be <code>null</code>.
+	 * @return A {@link Future} of the {@link AuthenticationProvider}.
+	 */
+	public Future<AuthenticationProvider<? extends AuthToken>> getAuthenticationProviderAsync(Context context, Account account,
+		AuthenticationCallback<AuthenticationProvider<? extends AuthToken>> callback)
+	{
+		return getAuthenticationProviderAsync(context, account, callback, AuthenticatorExecutors.getExecutor());
+	}
+
+
+	/**
+	 * Return an {@link AuthenticationProvider} for a specific {@link Account} without blocking the calling thread. The provider is obtained by calling
+	 * {@link #getAuthenticationProvider(Context, Account)} on the given {@link Executor}. Failed attempts to get the auth token are retried according to the
+	 * {@link RetryPolicy} and guarded by the {@link CircuitBreaker} of the provider, but instead of sleeping between two attempts the next attempt is
+	 * scheduled on a shared scheduler, so the executor's thread is free to do other work in the meantime.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account}.
+	 * @param callback
+	 *            An {@link AuthenticationCallback} to notify when the provider is available or the operation failed. May be <code>null</code>.
+	 * @param executor
+	 *            The {@link Executor} to run the attempts on. It must not run them on the calling thread.
+	 * @return A {@link Future} of the {@link AuthenticationProvider}.
+	 */
+	public Future<AuthenticationProvider<? extends AuthToken>> getAuthenticationProviderAsync(final Context context, final Account account,
+		AuthenticationCallback<AuthenticationProvider<? extends AuthToken>> callback, Executor executor)
+	{
+		return AuthenticationProvider.acquireScheduled(new Callable<AuthenticationProvider<? extends AuthToken>>()
+		{
+			@Override
+			public AuthenticationProvider<? extends AuthToken> call() throws Exception
+			{
+				return getAuthenticationProvider(context, account);
+			}
+		}, executor, callback);
+	}
+
+
 	/**
 	 * Return the {@link StoredSecret} instance for the given account. The returned {@link StoredSecret} is already unprotected, so there is no need to call the
 	 * <code>unprotect</code> method again.
@@ -269,6 +456,59 @@ public abstract class AuthSchemeHandler
 	public abstract StoredSecret getSecret(Context context, Account account);
 
 
+	/**
+	 * Return the {@link StoredSecret} instance for the given account from a protected secret that has already been loaded from the account database (e.g.
+	 * using {@link #getProtectedSecret(Context, Account)}). Like {@link #getSecret(Context, Account)} the returned {@link StoredSecret} is already unprotected.
+	 * <p>
+	 * The default implementation ignores <code>protectedSecret</code> and calls {@link #getSecret(Context, Account)}, which loads the secret again. Subclasses
+	 * should override this to avoid the additional account database access.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account} the secret belongs to.
+	 * @param protectedSecret
+	 *            The protected secret String of the account.
+	 * @return An instance of a subclass of {@link StoredSecret}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the type of the stored secret is not supported by this handler.
+	 */
+	public StoredSecret getSecret(Context context, Account account, String protectedSecret)
+	{
+		return getSecret(context, account);
+	}
+
+
+	/**
+	 * Return the {@link SecretCache} that handlers use to cache unprotected secrets. Its size and TTL are taken from the integer resources
+	 * <code>org_dmfs_android_authenticator_secret_cache_size</code> and <code>org_dmfs_android_authenticator_secret_cache_ttl</code>.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return The {@link SecretCache}.
+	 */
+	protected static SecretCache getSecretCache(Context context)
+	{
+		SecretCache cache = SECRET_CACHE;
+		if (cache == null)
+		{
+			synchronized (INIT_LOCK)
+			{
+				cache = SECRET_CACHE;
+				if (cache == null)
+				{
+					Resources res = context.getResources();
+					cache = SECRET_CACHE = new SecretCache(res.getInteger(R.integer.org_dmfs_android_authenticator_secret_cache_size),
+						res.getInteger(R.integer.org_dmfs_android_authenticator_secret_cache_ttl) * 1000L);
+				}
+			}
+		}
+		return cache;
+	}
+
+
 	/**
 	 * Return the secret string that's stored in the account database.
 	 * 
@@ -280,7 +520,6 @@ public abstract class AuthSchemeHandler
 	 */
 	protected String getProtectedSecret(Context context, Account account)
 	{
-		AccountManager am = AccountManager.get(context);
-		return am.getPassword(account);
+		return AccountStores.get(context).getPassword(account);
 	}
 }
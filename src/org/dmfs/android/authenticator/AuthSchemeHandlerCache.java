@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+package org.dmfs.android.authenticator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A bounded cache of {@link AuthSchemeHandler} instances by auth token type. Only handlers that return <code>true</code> in
+ * {@link AuthSchemeHandler#isImmutable()} should be put into this cache.
+ * <p>
+ * Lookups don't take any lock. If the cache is full, a handler that has not been used recently is evicted (see {@link ClockCache}), so a burst of unused
+ * auth token types can't keep the handlers of the types that are actually used out of the cache.
+ * </p>
+ * <p>
+ * Each {@link #clear()} starts a new generation. Callers take the generation before they look up the factory of a handler and pass it to
+ * {@link #put(AuthTokenType, AuthSchemeHandler, int)}, so a handler that has been created by a factory that has been replaced in the meantime is never cached.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class AuthSchemeHandlerCache
+{
+	/**
+	 * The cached handlers.
+	 */
+	private final ClockCache<AuthTokenType, AuthSchemeHandler> mHandlers;
+
+	/**
+	 * The current generation, incremented by {@link #clear()}.
+	 */
+	private final AtomicInteger mGeneration = new AtomicInteger();
+
+
+	/**
+	 * Create a new cache that holds up to <code>maxSize</code> handlers.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of handlers to cache.
+	 */
+	public AuthSchemeHandlerCache(int maxSize)
+	{
+		mHandlers = new ClockCache<AuthTokenType, AuthSchemeHandler>(maxSize);
+	}
+
+
+	/**
+	 * Return the cached handler for the given auth token type.
+	 * 
+	 * @param authTokenType
+	 *            The {@link AuthTokenType}.
+	 * @return The {@link AuthSchemeHandler} or <code>null</code> if there is no cached handler for this auth token type.
+	 */
+	public AuthSchemeHandler get(AuthTokenType authTokenType)
+	{
+		return mHandlers.get(authTokenType);
+	}
+
+
+	/**
+	 * Return the current generation of the cache. Take it before looking up the factory of a handler you want to put into the cache.
+	 * 
+	 * @return The current generation.
+	 */
+	public int getGeneration()
+	{
+		return mGeneration.get();
+	}
+
+
+	/**
+	 * Put a handler into the cache, unless the cache has been cleared since the given generation has been taken. If the cache is full, a handler that has not
+	 * been used recently is evicted.
+	 * 
+	 * @param authTokenType
+	 *            The {@link AuthTokenType}.
+	 * @param handler
+	 *            The {@link AuthSchemeHandler} for this auth token type.
+	 * @param generation
+	 *            The generation returned by {@link #getGeneration()} before the factory of the handler has been looked up.
+	 */
+	public void put(AuthTokenType authTokenType, AuthSchemeHandler handler, int generation)
+	{
+		if (generation != mGeneration.get())
+		{
+			return;
+		}
+
+		mHandlers.put(authTokenType, handler);
+
+		if (generation != mGeneration.get())
+		{
+			// the cache has been cleared concurrently, the clear may have missed our handler
+			mHandlers.remove(authTokenType, handler);
+		}
+	}
+
+
+	/**
+	 * Remove all handlers from the cache and start a new generation.
+	 */
+	public void clear()
+	{
+		mGeneration.incrementAndGet();
+		mHandlers.clear();
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import android.content.Context;
+import android.net.Uri;
+
+
+/**
+ * A factory that creates {@link AuthSchemeHandler} instances for a specific authentication scheme.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface AuthSchemeHandlerFactory
+{
+	/**
+	 * Create a new {@link AuthSchemeHandler} for the given auth token type.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param authTokenType
+	 *            The auth token type {@link Uri}.
+	 * @return An {@link AuthSchemeHandler} instance.
+	 * @throws RuntimeException
+	 *             if the handler could not be instantiated.
+	 */
+	public AuthSchemeHandler newInstance(Context context, Uri authTokenType);
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+
+
+/**
+ * A registry that maps auth schemes to {@link AuthSchemeHandlerFactory}s. It's built once from the resource arrays
+ * <code>org_dmfs_android_authenticator_auth_schemes</code> and <code>org_dmfs_android_authenticator_auth_scheme_handlers</code>, so looking up the handler
+ * of a scheme takes a single hash map lookup.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class AuthSchemeRegistry
+{
+	/**
+	 * The factories by scheme.
+	 */
+	private final Map<String, AuthSchemeHandlerFactory> mFactories;
+
+
+	/**
+	 * Build a new registry from the auth scheme resources.
+	 * 
+	 * @param resources
+	 *            The {@link Resources} that contain the auth scheme arrays.
+	 * @throws IllegalStateException
+	 *             if the number of schemes and handler classes doesn't match.
+	 */
+	public AuthSchemeRegistry(Resources resources)
+	{
+		String[] schemes = resources.getStringArray(R.array.org_dmfs_android_authenticator_auth_schemes);
+		String[] classes = resources.getStringArray(R.array.org_dmfs_android_authenticator_auth_scheme_handlers);
+
+		if (schemes.length != classes.length)
+		{
+			throw new IllegalStateException("number of auth schemes (" + schemes.length + ") doesn't match number of auth scheme handlers (" + classes.length
+				+ ")");
+		}
+
+		Map<String, AuthSchemeHandlerFactory> factories = new HashMap<String, AuthSchemeHandlerFactory>(schemes.length * 2);
+		for (int i = 0, count = schemes.length; i < count; ++i)
+		{
+			// the first entry of a scheme wins, just like it did when we iterated the arrays
+			if (!factories.containsKey(schemes[i]))
+			{
+				factories.put(schemes[i], new ReflectiveFactory(classes[i]));
+			}
+		}
+		mFactories = factories;
+	}
+
+
+	/**
+	 * Return the {@link AuthSchemeHandlerFactory} for the given scheme.
+	 * 
+	 * @param scheme
+	 *            The auth scheme.
+	 * @return The {@link AuthSchemeHandlerFactory} or <code>null</code> if the scheme is not supported.
+	 */
+	public AuthSchemeHandlerFactory get(String scheme)
+	{
+		return mFactories.get(scheme);
+	}
+
+	/**
+	 * An {@link AuthSchemeHandlerFactory} that instantiates a handler class by its name. The constructor is resolved on first use and cached afterwards.
+	 */
+	private final static class ReflectiveFactory implements AuthSchemeHandlerFactory
+	{
+		/**
+		 * The fully qualified name of the handler class.
+		 */
+		private final String mClassName;
+
+		/**
+		 * The resolved constructor of the handler class.
+		 */
+		private volatile Constructor<? extends AuthSchemeHandler> mConstructor;
+
+
+		public ReflectiveFactory(String className)
+		{
+			mClassName = className;
+		}
+
+
+		@Override
+		public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+		{
+			try
+			{
+				return getConstructor().newInstance(context, authTokenType);
+			}
+			catch (InstantiationException e)
+			{
+				throw new RuntimeException("can't instanciate " + mClassName, e);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new RuntimeException("can't instanciate " + mClassName, e);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new RuntimeException("can't instanciate " + mClassName, e);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw new RuntimeException("can't instanciate " + mClassName, e);
+			}
+		}
+
+
+		/**
+		 * Return the constructor of the handler class. The constructor is resolved only once, even if this is called from multiple threads concurrently.
+		 * 
+		 * @return The {@link Constructor} that takes a {@link Context} and a {@link Uri}.
+		 */
+		private Constructor<? extends AuthSchemeHandler> getConstructor()
+		{
+			Constructor<? extends AuthSchemeHandler> constructor = mConstructor;
+			if (constructor == null)
+			{
+				synchronized (this)
+				{
+					constructor = mConstructor;
+					if (constructor == null)
+					{
+						try
+						{
+							constructor = Class.forName(mClassName).asSubclass(AuthSchemeHandler.class).getConstructor(Context.class, Uri.class);
+						}
+						catch (ClassNotFoundException e)
+						{
+							throw new RuntimeException("can't instanciate " + mClassName, e);
+						}
+						catch (NoSuchMethodException e)
+						{
+							throw new RuntimeException("can't instanciate " + mClassName, e);
+						}
+						catch (ClassCastException e)
+						{
+							throw new RuntimeException("can't instanciate " + mClassName, e);
+						}
+						mConstructor = constructor;
+					}
+				}
+			}
+			return constructor;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.net.Uri;
+
+
+/**
+ * A parsed auth token type. Instances are interned, so parsing an auth token type String happens only once per distinct auth token type. Use
+ * {@link #get(String)} or {@link #get(Uri)} to get an instance.
+ * <p>
+ * Two instances are equal if their auth token type strings are equal.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AuthTokenType
+{
+	/**
+	 * The maximum number of auth token types to intern. Auth token types are provided by other apps, so we don't want this to grow without limits. Once the
+	 * limit has been reached an auth token type that has not been used recently is evicted, so a flood of junk types can't push out the ones that are actually
+	 * used.
+	 */
+	private final static int MAX_INTERNED_AUTH_TOKEN_TYPES = 256;
+
+	/**
+	 * The interned auth token types. Lookups don't take a lock.
+	 */
+	private final static ClockCache<String, AuthTokenType> INTERNED = new ClockCache<String, AuthTokenType>(MAX_INTERNED_AUTH_TOKEN_TYPES);
+
+	/**
+	 * The auth token type string.
+	 */
+	private final String mAuthTokenType;
+
+	/**
+	 * The auth token type {@link Uri}.
+	 */
+	private final Uri mUri;
+
+	/**
+	 * The scheme of the auth token type.
+	 */
+	private final String mScheme;
+
+	/**
+	 * The decoded path of the auth token type. Might be <code>null</code>.
+	 */
+	private final String mPath;
+
+	/**
+	 * The decoded query parameters of the auth token type.
+	 */
+	private final Map<String, String> mQueryParameters;
+
+
+	/**
+	 * Return the {@link AuthTokenType} for the given auth token type String.
+	 * 
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @return An {@link AuthTokenType} instance.
+	 */
+	public static AuthTokenType get(String authTokenType)
+	{
+		AuthTokenType result = getInterned(authTokenType);
+		if (result == null)
+		{
+			result = intern(new AuthTokenType(authTokenType, Uri.parse(authTokenType)));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Return the {@link AuthTokenType} for the given auth token type {@link Uri}.
+	 * 
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @return An {@link AuthTokenType} instance.
+	 */
+	public static AuthTokenType get(Uri authTokenType)
+	{
+		String authTokenTypeString = authTokenType.toString();
+		AuthTokenType result = getInterned(authTokenTypeString);
+		if (result == null)
+		{
+			result = intern(new AuthTokenType(authTokenTypeString, authTokenType));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Return the interned instance of the given auth token type.
+	 * 
+	 * @param authTokenType
+	 *            The auth token type string.
+	 * @return The interned {@link AuthTokenType} or <code>null</code> if there is none.
+	 */
+	private static AuthTokenType getInterned(String authTokenType)
+	{
+		return INTERNED.get(authTokenType);
+	}
+
+
+	/**
+	 * Intern the given auth token type, unless another thread was faster.
+	 * 
+	 * @param authTokenType
+	 *            The parsed {@link AuthTokenType}.
+	 * @return The interned {@link AuthTokenType}.
+	 */
+	private static AuthTokenType intern(AuthTokenType authTokenType)
+	{
+		AuthTokenType existing = INTERNED.putIfAbsent(authTokenType.mAuthTokenType, authTokenType);
+		return existing == null ? authTokenType : existing;
+	}
+
+
+	private AuthTokenType(String authTokenType, Uri uri)
+	{
+		mAuthTokenType = authTokenType;
+		mUri = uri;
+		mScheme = uri.getScheme();
+		mPath = uri.getPath();
+		mQueryParameters = parseQuery(authTokenType);
+	}
+
+
+	/**
+	 * Return the auth token type {@link Uri}.
+	 * 
+	 * @return The {@link Uri}.
+	 */
+	public Uri getUri()
+	{
+		return mUri;
+	}
+
+
+	/**
+	 * Return the scheme of the auth token type.
+	 * 
+	 * @return The scheme or <code>null</code> if the auth token type has no scheme.
+	 */
+	public String getScheme()
+	{
+		return mScheme;
+	}
+
+
+	/**
+	 * Return the decoded path of the auth token type.
+	 * 
+	 * @return The path or <code>null</code> if the auth token type has no path.
+	 */
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	/**
+	 * Return the decoded value of the first query parameter with the given name.
+	 * 
+	 * @param name
+	 *            The name of the query parameter.
+	 * @return The value or <code>null</code> if there is no such parameter.
+	 */
+	public String getQueryParameter(String name)
+	{
+		return mQueryParameters.get(name);
+	}
+
+
+	/**
+	 * Return the names of all query parameters.
+	 * 
+	 * @return An unmodifiable {@link Set} of query parameter names.
+	 */
+	public Set<String> getQueryParameterNames()
+	{
+		return mQueryParameters.keySet();
+	}
+
+
+	/**
+	 * Parse the query of the given auth token type. We can't use {@link Uri#getQueryParameter(String)}, because it doesn't support opaque Uris like
+	 * <code>password:?realm=example</code>.
+	 * 
+	 * @param authTokenType
+	 *            The auth token type string.
+	 * @return An unmodifiable {@link Map} of the decoded query parameters.
+	 */
+	private static Map<String, String> parseQuery(String authTokenType)
+	{
+		int queryStart = authTokenType.indexOf('?');
+		if (queryStart < 0)
+		{
+			return Collections.emptyMap();
+		}
+
+		int queryEnd = authTokenType.indexOf('#', queryStart);
+		if (queryEnd < 0)
+		{
+			queryEnd = authTokenType.length();
+		}
+
+		Map<String, String> result = new LinkedHashMap<String, String>(4);
+		int start = queryStart + 1;
+		while (start < queryEnd)
+		{
+			int end = authTokenType.indexOf('&', start);
+			if (end < 0 || end > queryEnd)
+			{
+				end = queryEnd;
+			}
+
+			if (end > start)
+			{
+				int equals = authTokenType.indexOf('=', start);
+				String name;
+				String value;
+				if (equals < 0 || equals > end)
+				{
+					name = Uri.decode(authTokenType.substring(start, end));
+					value = "";
+				}
+				else
+				{
+					name = Uri.decode(authTokenType.substring(start, equals));
+					value = Uri.decode(authTokenType.substring(equals + 1, end));
+				}
+
+				if (!result.containsKey(name))
+				{
+					result.put(name, value);
+				}
+			}
+			start = end + 1;
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		return mAuthTokenType.hashCode();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		return o == this || o instanceof AuthTokenType && mAuthTokenType.equals(((AuthTokenType) o).mAuthTokenType);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return mAuthTokenType;
+	}
+}
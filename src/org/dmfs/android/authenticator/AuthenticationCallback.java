@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+/**
+ * A callback that receives the result of an asynchronous authentication operation. The callback is called on the thread that executed the operation, so
+ * don't do any long running work in it.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ * 
+ * @param <V>
+ *            The type of the result.
+ */
+public interface AuthenticationCallback<V>
+{
+	/**
+	 * Called when the operation completed successfully.
+	 * 
+	 * @param result
+	 *            The result of the operation.
+	 */
+	public void onResult(V result);
+
+
+	/**
+	 * Called when the operation failed.
+	 * 
+	 * @param error
+	 *            The {@link Exception} that caused the failure.
+	 */
+	public void onError(Exception error);
+}
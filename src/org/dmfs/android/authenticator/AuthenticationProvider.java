@@ -20,11 +20,16 @@
 package org.dmfs.android.authenticator;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
 import org.dmfs.android.authenticator.secrets.AuthToken;
 
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.accounts.AuthenticatorException;
 import android.accounts.OperationCanceledException;
 import android.content.Context;
@@ -45,19 +50,20 @@ import android.os.SystemClock;
 public abstract class AuthenticationProvider<T extends AuthToken>
 {
 	/**
-	 * Maximum number of attempts to retrieve the auth token.
+	 * Coalesces concurrent auth token fetches for the same account and auth token type.
 	 */
-	private final static int MAX_AUTH_TOKEN_GET_ATTEMPTS = 3;
+	private final static SingleFlight<FetchKey, String> AUTH_TOKEN_FETCHES = new SingleFlight<FetchKey, String>();
 
 	/**
-	 * The time in milliseconds to wait between two attempts to get the auth token.
+	 * The {@link ScheduledAttempt} of the current thread if it executes an attempt of {@link #acquireScheduled(Callable, Executor, AuthenticationCallback)}.
 	 */
-	private final static int MAX_AUTH_TOKEN_ERROR_WAIT_TIME = 200;
+	private final static ThreadLocal<ScheduledAttempt> SCHEDULED_ATTEMPT = new ThreadLocal<ScheduledAttempt>();
 
 	/**
-	 * The auth token.
+	 * The auth token. A background refresh (see {@link #startBackgroundRefresh(Context, Account)}) replaces it with the new auth token, so read it only once per
+	 * request.
 	 */
-	protected final T mAuthToken;
+	protected volatile T mAuthToken;
 
 	/**
 	 * The type of the auth token.
@@ -108,6 +114,54 @@ public abstract class AuthenticationProvider<T extends AuthToken>
 	}
 
 
+	/**
+	 * Start refreshing the auth token of this provider in the background before it expires. This does nothing if the auth token can't be refreshed (see
+	 * {@link #canRefresh()}). The auth token is refreshed as long as this provider is reachable and each refresh replaces {@link #mAuthToken} of this provider
+	 * with the new auth token.
+	 * <p>
+	 * The auth tokens of the built-in schemes {@link Password} and {@link Anonymous} don't expire, so their providers are never refreshed in the background.
+	 * Handlers of schemes with expiring auth tokens have to return <code>true</code> from {@link #canRefresh()} to opt in.
+	 * </p>
+	 * <p>
+	 * Call this once the provider has been constructed completely, never from a constructor, since the provider is handed over to a background thread.
+	 * {@link AuthSchemeHandler#getAuthenticationProvider(Context, Account)} implementations should call this before returning a new provider.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account} of the auth token.
+	 */
+	public final void startBackgroundRefresh(Context context, Account account)
+	{
+		if (mAuthToken != null && canRefresh())
+		{
+			RefreshScheduler.get(context).track(context, account, mAuthTokenType, this, mAuthToken);
+		}
+	}
+
+
+	/**
+	 * Get a new auth token and make it the auth token of this provider. This is called by the {@link RefreshScheduler} after the old auth token has been
+	 * invalidated.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account}.
+	 * @return The new auth token.
+	 * @throws AuthenticatorException
+	 * @throws IOException
+	 * @throws AuthenticationException
+	 */
+	final T reloadAuthToken(Context context, Account account) throws AuthenticatorException, IOException, AuthenticationException
+	{
+		T authToken = getAuthToken(context, account);
+		mAuthToken = authToken;
+		return authToken;
+	}
+
+
 	/**
 	 * Return whether the auth token can be refreshed.
 	 * 
@@ -122,10 +176,30 @@ public abstract class AuthenticationProvider<T extends AuthToken>
 	 * @param authToken
 	 *            An {@link AuthToken}.
 	 * @return <code>true</code> if the token should be refreshed, <code>false</code> if it doesn't need a refresh or it's unknown if it should be refreshed.
+	 * @see AuthToken#isExpired(long)
 	 */
 	protected abstract boolean needsRefresh(T authToken);
 
 
+	/**
+	 * Return the time when the given auth token should be refreshed. The auth token is refreshed in the background shortly before that time (see the integer
+	 * resources <code>org_dmfs_android_authenticator_refresh_ahead</code> and <code>org_dmfs_android_authenticator_refresh_spread</code>). If the time is
+	 * unknown, {@link #needsRefresh(AuthToken)} is checked periodically instead.
+	 * <p>
+	 * The default implementation returns the expiration time of the auth token (see {@link AuthToken#getExpiresAt()}), so it doesn't need to unprotect the auth
+	 * token.
+	 * </p>
+	 * 
+	 * @param authToken
+	 *            An {@link AuthToken}.
+	 * @return The time in milliseconds since the epoch or <code>-1</code> if it's unknown.
+	 */
+	protected long getRefreshTime(T authToken)
+	{
+		return authToken.getExpiresAt();
+	}
+
+
 	/**
 	 * Refresh the given auth token.
 	 * 
@@ -140,8 +214,7 @@ public abstract class AuthenticationProvider<T extends AuthToken>
 	 */
 	protected void refreshAuthToken(Context context, Account account, T authToken) throws AuthenticatorException, IOException
 	{
-		AccountManager accountManager = AccountManager.get(context);
-		accountManager.invalidateAuthToken(account.type, authToken.toString());
+		AccountStores.get(context).invalidateAuthToken(account.type, authToken.toString());
 	}
 
 
@@ -194,48 +267,414 @@ public abstract class AuthenticationProvider<T extends AuthToken>
 	 * @throws AuthenticationException
 	 *             if no valid auth token was received.
 	 */
-	protected final String getProtectedAuthToken(Context context, Account account) throws AuthenticatorException, IOException, AuthenticationException
+	protected final String getProtectedAuthToken(final Context context, final Account account) throws AuthenticatorException, IOException,
+		AuthenticationException
 	{
-		AccountManager am = AccountManager.get(context);
-		int i = MAX_AUTH_TOKEN_GET_ATTEMPTS;
-		while (true)
+		// the scheduled attempt of this thread, callers that join the fetch of another thread have their own
+		final ScheduledAttempt scheduledAttempt = SCHEDULED_ATTEMPT.get();
+		try
 		{
-			try
+			// if another thread is fetching the same auth token, just wait for its result
+			final boolean singleAttempt = scheduledAttempt != null;
+			return AUTH_TOKEN_FETCHES.execute(new FetchKey(account, mAuthTokenType, singleAttempt), new Callable<String>()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					return fetchProtectedAuthToken(context, account, singleAttempt);
+				}
+			});
+		}
+		catch (CircuitOpenException e)
+		{
+			// fail fast, there is no point in waiting for another attempt
+			throw e;
+		}
+		catch (AuthenticatorException e)
+		{
+			scheduleRetry(scheduledAttempt);
+			throw e;
+		}
+		catch (IOException e)
+		{
+			scheduleRetry(scheduledAttempt);
+			throw e;
+		}
+		catch (AuthenticationException e)
+		{
+			scheduleRetry(scheduledAttempt);
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for auth token");
+		}
+		catch (Exception e)
+		{
+			// can't happen, fetchProtectedAuthToken doesn't throw any other checked exceptions
+			throw new AuthenticationException("get auth token failed", e);
+		}
+	}
+
+
+	/**
+	 * Let the scheduler retry the failed attempt of a scheduled acquisition with the {@link RetryPolicy} of this provider. This is called on the thread of the
+	 * attempt, so each of the acquisitions that shared a failed fetch is retried, not just the one that ran it.
+	 * 
+	 * @param scheduledAttempt
+	 *            The {@link ScheduledAttempt} of the current thread or <code>null</code> if the fetch has already been retried on this thread.
+	 */
+	private void scheduleRetry(ScheduledAttempt scheduledAttempt)
+	{
+		if (scheduledAttempt != null)
+		{
+			scheduledAttempt.setRetryPolicy(getRetryPolicy());
+		}
+	}
+
+
+	/**
+	 * Acquire a value, usually an {@link AuthenticationProvider}, without blocking any thread between two attempts to get the auth token. While the given
+	 * acquisition runs, {@link #getProtectedAuthToken(Context, Account)} makes only a single attempt using the {@link CircuitBreaker} of the provider. If that
+	 * attempt fails, the acquisition is retried on the shared scheduler according to the {@link RetryPolicy} of the provider (see {@link #getRetryPolicy()}).
+	 * 
+	 * @param acquisition
+	 *            The {@link Callable} that acquires the value.
+	 * @param executor
+	 *            The {@link Executor} to run the attempts on.
+	 * @param callback
+	 *            An {@link AuthenticationCallback} to notify when the value has been acquired or the operation failed. May be <code>null</code>.
+	 * @return A {@link Future} of the value.
+	 */
+	static <V> Future<V> acquireScheduled(final Callable<V> acquisition, Executor executor, AuthenticationCallback<V> callback)
+	{
+		final ScheduledAttempt attempt = new ScheduledAttempt();
+		return ScheduledRetry.start(new Callable<V>()
+		{
+			@Override
+			public V call() throws Exception
 			{
-				String authToken = am.blockingGetAuthToken(account, mAuthTokenType.toString(), true /* we handle auth failures ourselves */);
-				if (authToken == null && --i == 0)
+				SCHEDULED_ATTEMPT.set(attempt);
+				try
 				{
-					throw new AuthenticationException("auth token was null");
+					return acquisition.call();
 				}
-				else if (authToken != null)
+				finally
 				{
-					return authToken;
+					SCHEDULED_ATTEMPT.remove();
 				}
 			}
+		}, attempt, AuthenticatorExecutors.getScheduler(), executor, callback);
+	}
+
+
+	/**
+	 * Get the auth token string from the account manager, retrying failed attempts according to the {@link RetryPolicy} returned by
+	 * {@link #getRetryPolicy()}. If this is an attempt of a scheduled acquisition, only a single attempt is made and the retry is left to the scheduler.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The account.
+	 * @param singleAttempt
+	 *            <code>true</code> to make a single attempt for a scheduled acquisition, <code>false</code> to retry on this thread.
+	 * @return A String containing the obfuscated auth token.
+	 * @throws AuthenticatorException
+	 * @throws IOException
+	 *             if an I/O Error occurred, most likely due to a connection issue.
+	 * @throws AuthenticationException
+	 *             if no valid auth token was received.
+	 */
+	private String fetchProtectedAuthToken(Context context, Account account, boolean singleAttempt) throws AuthenticatorException, IOException, AuthenticationException
+	{
+		AccountStore store = AccountStores.get(context);
+		RetryPolicy retryPolicy = getRetryPolicy();
+		CircuitBreaker circuitBreaker = getCircuitBreaker(account);
+		long start = SystemClock.elapsedRealtime();
+		int failedAttempts = 0;
+		while (true)
+		{
+			Exception error;
+			try
+			{
+				return attemptAuthToken(store, account, mAuthTokenType, circuitBreaker);
+			}
+			catch (CircuitOpenException e)
+			{
+				// fail fast, there is no point in waiting for another attempt
+				throw e;
+			}
+			catch (AuthenticationException e)
+			{
+				error = e;
+			}
 			catch (OperationCanceledException e)
 			{
-				if (--i == 0)
-				{
-					throw new AuthenticationException("get auth token failed", e);
-				}
+				error = e;
 			}
 			catch (AuthenticatorException e)
 			{
-				if (--i == 0)
-				{
-					throw e;
-				}
+				error = e;
 			}
 			catch (IOException e)
 			{
-				if (--i == 0)
+				error = e;
+			}
+
+			if (singleAttempt)
+			{
+				// don't block this thread, each caller lets the scheduler retry with our policy
+				throwAuthTokenError(error);
+			}
+
+			long delay = retryPolicy.getRetryDelay(++failedAttempts, SystemClock.elapsedRealtime() - start, error);
+			if (delay < 0)
+			{
+				throwAuthTokenError(error);
+			}
+
+			// give the authenticator a break
+			Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+			SystemClock.sleep(delay);
+		}
+	}
+
+
+	/**
+	 * Make a single attempt to get the auth token string from the account manager, guarded by the given {@link CircuitBreaker}. A <code>null</code> auth token
+	 * doesn't count as a failure of the authenticator, since it answered.
+	 * 
+	 * @param store
+	 *            The {@link AccountStore} to get the auth token from.
+	 * @param account
+	 *            The account.
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @param circuitBreaker
+	 *            The {@link CircuitBreaker} to guard the attempt or <code>null</code>.
+	 * @return A String containing the obfuscated auth token.
+	 * @throws CircuitOpenException
+	 *             if the circuit breaker rejected the attempt.
+	 * @throws AuthenticationException
+	 *             if the auth token was <code>null</code>.
+	 */
+	static String attemptAuthToken(AccountStore store, Account account, Uri authTokenType, CircuitBreaker circuitBreaker)
+		throws OperationCanceledException, AuthenticatorException, IOException, AuthenticationException
+	{
+		if (circuitBreaker != null && !circuitBreaker.tryAcquire())
+		{
+			throw new CircuitOpenException("the authenticator failed too often recently");
+		}
+
+		boolean success = false;
+		long start = Metrics.start();
+		try
+		{
+			String authToken = store.blockingGetAuthToken(account, authTokenType.toString(), true /* we handle auth failures ourselves */);
+			success = true;
+			if (authToken == null)
+			{
+				throw new AuthenticationException("auth token was null");
+			}
+			return authToken;
+		}
+		catch (OperationCanceledException e)
+		{
+			Metrics.failure(Stage.FETCH_AUTH_TOKEN, e);
+			throw e;
+		}
+		catch (AuthenticatorException e)
+		{
+			Metrics.failure(Stage.FETCH_AUTH_TOKEN, e);
+			throw e;
+		}
+		catch (IOException e)
+		{
+			Metrics.failure(Stage.FETCH_AUTH_TOKEN, e);
+			throw e;
+		}
+		catch (AuthenticationException e)
+		{
+			Metrics.failure(Stage.FETCH_AUTH_TOKEN, e);
+			throw e;
+		}
+		finally
+		{
+			Metrics.stage(Stage.FETCH_AUTH_TOKEN, start);
+			if (circuitBreaker != null)
+			{
+				if (success)
 				{
-					throw e;
+					circuitBreaker.onSuccess();
+				}
+				else
+				{
+					circuitBreaker.onFailure();
 				}
 			}
-			// give the authenticator a break
-			SystemClock.sleep(MAX_AUTH_TOKEN_ERROR_WAIT_TIME);
 		}
 	}
 
+
+	/**
+	 * Throw the error of a failed attempt to get the auth token.
+	 * 
+	 * @param error
+	 *            The error.
+	 * @throws AuthenticatorException
+	 * @throws IOException
+	 * @throws AuthenticationException
+	 */
+	static void throwAuthTokenError(Exception error) throws AuthenticatorException, IOException, AuthenticationException
+	{
+		if (error instanceof AuthenticatorException)
+		{
+			throw (AuthenticatorException) error;
+		}
+		if (error instanceof IOException)
+		{
+			throw (IOException) error;
+		}
+		if (error instanceof AuthenticationException)
+		{
+			throw (AuthenticationException) error;
+		}
+		if (error instanceof RuntimeException)
+		{
+			throw (RuntimeException) error;
+		}
+		throw new AuthenticationException("get auth token failed", error);
+	}
+
+
+	/**
+	 * Return the {@link RetryPolicy} to use when getting the auth token fails. Override this to use a custom policy for a specific scheme.
+	 * <p>
+	 * <strong>Note:</strong> This is called from the constructor, so it must not depend on any fields of the subclass.
+	 * </p>
+	 * 
+	 * @return A {@link RetryPolicy}.
+	 */
+	protected RetryPolicy getRetryPolicy()
+	{
+		return RetryPolicy.DEFAULT;
+	}
+
+
+	/**
+	 * Return the {@link CircuitBreaker} that guards the auth token fetches of the given account. While it's open, getting an auth token fails fast with a
+	 * {@link CircuitOpenException}. Override this to return {@link CircuitBreakers#forAccount(Account)} for a circuit breaker per account or <code>null</code>
+	 * to disable it.
+	 * <p>
+	 * The default implementation returns the circuit breaker of the account type (see {@link CircuitBreakers#forAccountType(String)}).
+	 * </p>
+	 * <p>
+	 * <strong>Note:</strong> This is called from the constructor, so it must not depend on any fields of the subclass.
+	 * </p>
+	 * 
+	 * @param account
+	 *            The account.
+	 * @return A {@link CircuitBreaker} or <code>null</code>.
+	 */
+	protected CircuitBreaker getCircuitBreaker(Account account)
+	{
+		return CircuitBreakers.forAccountType(account.type);
+	}
+
+	/**
+	 * The {@link RetryPolicy} of a scheduled acquisition. It applies the policy of the provider whose auth token fetch failed in the last attempt. Failures
+	 * that didn't happen while fetching the auth token are not retried, just like in the blocking case.
+	 */
+	private final static class ScheduledAttempt extends RetryPolicy
+	{
+		/**
+		 * The policy of the provider that failed in the last attempt or <code>null</code>.
+		 */
+		private volatile RetryPolicy mRetryPolicy;
+
+
+		public ScheduledAttempt()
+		{
+			super(1, 0, 0, 1f, 0f, 0);
+		}
+
+
+		/**
+		 * Set the {@link RetryPolicy} to apply to the failure of the current attempt.
+		 * 
+		 * @param retryPolicy
+		 *            The {@link RetryPolicy} of the provider.
+		 */
+		public void setRetryPolicy(RetryPolicy retryPolicy)
+		{
+			mRetryPolicy = retryPolicy;
+		}
+
+
+		@Override
+		public long getRetryDelay(int failedAttempts, long elapsed, Exception error)
+		{
+			RetryPolicy retryPolicy = mRetryPolicy;
+			mRetryPolicy = null;
+			if (retryPolicy == null)
+			{
+				return -1;
+			}
+
+			long delay = retryPolicy.getRetryDelay(failedAttempts, elapsed, error);
+			if (delay >= 0)
+			{
+				Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+			}
+			return delay;
+		}
+	}
+
+	/**
+	 * The key of an auth token fetch.
+	 */
+	final static class FetchKey
+	{
+		private final Account mAccount;
+
+		private final Uri mAuthTokenType;
+
+		/**
+		 * Whether the fetch makes a single attempt for a scheduled acquisition. Blocking fetches retry on their own, so they are never coalesced with
+		 * single attempts.
+		 */
+		private final boolean mScheduled;
+
+
+		public FetchKey(Account account, Uri authTokenType, boolean scheduled)
+		{
+			mAccount = account;
+			mAuthTokenType = authTokenType;
+			mScheduled = scheduled;
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return (mAccount.hashCode() * 31 + mAuthTokenType.hashCode()) * 2 + (mScheduled ? 1 : 0);
+		}
+
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof FetchKey))
+			{
+				return false;
+			}
+			FetchKey other = (FetchKey) o;
+			return mScheduled == other.mScheduled && mAccount.equals(other.mAccount) && mAuthTokenType.equals(other.mAuthTokenType);
+		}
+	}
 }
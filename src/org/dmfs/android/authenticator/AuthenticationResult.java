@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.accounts.Account;
+
+
+/**
+ * The result of getting an {@link AuthenticationProvider} for a single account of a batch (see {@link BatchAuthentication}). It contains either the
+ * {@link AuthenticationProvider} or the error that occurred.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AuthenticationResult
+{
+	private final Account mAccount;
+
+	private final AuthenticationProvider<? extends AuthToken> mProvider;
+
+	private final Exception mError;
+
+
+	AuthenticationResult(Account account, AuthenticationProvider<? extends AuthToken> provider, Exception error)
+	{
+		mAccount = account;
+		mProvider = provider;
+		mError = error;
+	}
+
+
+	/**
+	 * Return the {@link Account} this result belongs to.
+	 * 
+	 * @return The {@link Account}.
+	 */
+	public Account getAccount()
+	{
+		return mAccount;
+	}
+
+
+	/**
+	 * Returns whether the {@link AuthenticationProvider} has been retrieved successfully.
+	 * 
+	 * @return <code>true</code> if {@link #getProvider()} returns an {@link AuthenticationProvider}, <code>false</code> if an error occurred.
+	 */
+	public boolean isSuccess()
+	{
+		return mError == null;
+	}
+
+
+	/**
+	 * Return the {@link AuthenticationProvider} of the account.
+	 * 
+	 * @return The {@link AuthenticationProvider} or <code>null</code> if an error occurred.
+	 */
+	public AuthenticationProvider<? extends AuthToken> getProvider()
+	{
+		return mProvider;
+	}
+
+
+	/**
+	 * Return the error that occurred when getting the {@link AuthenticationProvider}.
+	 * 
+	 * @return The {@link Exception} or <code>null</code> if the {@link AuthenticationProvider} has been retrieved successfully.
+	 */
+	public Exception getError()
+	{
+		return mError;
+	}
+}
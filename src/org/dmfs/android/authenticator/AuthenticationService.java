@@ -19,9 +19,14 @@
 
 package org.dmfs.android.authenticator;
 
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+
+import android.accounts.Account;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
+import android.util.Log;
 
 
 /**
@@ -46,10 +51,19 @@ import android.os.IBinder;
  * 
  * You may have to adjust this to your needs (e.g. add <code>android:process</code>, adjust the authenticator resource name).
  * 
+ * <p>
+ * If the boolean resource <code>org_dmfs_android_authenticator_warm_up</code> is <code>true</code>, the service preloads the auth scheme handlers and the
+ * obfuscater in the background when it's created. It also loads the secrets and prefetches the auth tokens of the auth token types in
+ * <code>org_dmfs_android_authenticator_warm_up_auth_token_types</code> for all accounts returned by {@link #getWarmUpAccounts()}. That takes the cost of the
+ * initialization off the critical path of the first requests after a cold start.
+ * </p>
+ * 
  * @author Marten Gajda <marten@dmfs.org>
  */
 public class AuthenticationService extends Service
 {
+	private final static String TAG = "org.dmfs.android.authenticator.AuthenticationService";
+
 	private Authenticator mAuthenticator;
 
 
@@ -64,6 +78,91 @@ public class AuthenticationService extends Service
 		super.onCreate();
 		// get a new authenticator
 		mAuthenticator = new Authenticator(this);
+
+		if (getResources().getBoolean(R.bool.org_dmfs_android_authenticator_warm_up))
+		{
+			final Context context = getApplicationContext();
+			final String[] authTokenTypes = getResources().getStringArray(R.array.org_dmfs_android_authenticator_warm_up_auth_token_types);
+			final Account[] accounts = getWarmUpAccounts();
+			AuthenticatorExecutors.getExecutor().execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					warmUp(context, authTokenTypes, accounts);
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Return the accounts to warm up when the service is created. The secrets of these accounts are loaded and their auth tokens are prefetched in the
+	 * background. This is only called if warm-up is enabled.
+	 * <p>
+	 * The default implementation returns an empty array.
+	 * </p>
+	 * 
+	 * @return An array of {@link Account}s.
+	 */
+	protected Account[] getWarmUpAccounts()
+	{
+		return new Account[0];
+	}
+
+
+	/**
+	 * Preload the framework and prefetch the auth tokens of the given accounts. This blocks until all accounts have been processed, so don't call it from the
+	 * main thread. Apps that don't use this service can call this to get the same effect.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param authTokenTypes
+	 *            The auth token types to warm up.
+	 * @param accounts
+	 *            The accounts to warm up.
+	 */
+	public static void warmUp(Context context, String[] authTokenTypes, Account[] accounts)
+	{
+		try
+		{
+			AuthSchemeHandler.preload(context, authTokenTypes);
+			Obfuscater.INSTANCE.preload(context);
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "warm-up failed", e);
+			return;
+		}
+
+		AccountStore store = AccountStores.get(context);
+		for (String authTokenType : authTokenTypes)
+		{
+			AuthSchemeHandler handler = AuthSchemeHandler.get(context, authTokenType);
+			if (handler == null)
+			{
+				Log.w(TAG, "unknown warm-up auth token type: '" + authTokenType + "'");
+				continue;
+			}
+
+			for (Account account : accounts)
+			{
+				try
+				{
+					// load the secret into the secret cache and let the account store cache the auth token
+					String protectedSecret = handler.getProtectedSecret(context, account);
+					if (protectedSecret != null)
+					{
+						handler.getSecret(context, account, protectedSecret);
+						store.blockingGetAuthToken(account, authTokenType, false);
+					}
+				}
+				catch (Exception e)
+				{
+					Log.w(TAG, "could not warm up account " + account.name, e);
+				}
+			}
+		}
 	}
 
 
@@ -21,14 +21,19 @@ package org.dmfs.android.authenticator;
 
 import java.io.IOException;
 
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
+
 import android.accounts.AbstractAccountAuthenticator;
 import android.accounts.Account;
 import android.accounts.AccountAuthenticatorResponse;
 import android.accounts.AccountManager;
 import android.accounts.NetworkErrorException;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.util.Log;
 
@@ -36,6 +41,11 @@ import android.util.Log;
 /**
  * A modular authenticator. It acts mostly as a switch. The actual authentication is handled by {@link AuthSchemeHandler} instances.
  * <p>
+ * Requests for unknown auth token types and for accounts without a stored secret are remembered for a short time, so repeated requests that will fail anyway
+ * are answered right away. Unknown auth token types are forgotten when a new auth scheme is registered (see
+ * {@link AuthSchemeHandler#register(String, AuthSchemeHandlerFactory)}), accounts without a secret are forgotten when the accounts change.
+ * </p>
+ * <p>
  * TODO: populate all methods and return some reasonable results instead of just <code>null</code>.
  * </p>
  * 
@@ -50,6 +60,27 @@ public class Authenticator extends AbstractAccountAuthenticator
 	 */
 	public final static String ACTION_ADD_ACCOUNT = "org.dmfs.android.authenticator.action.ADD_ACCOUNT";
 
+	/**
+	 * The time in milliseconds to remember a request that failed.
+	 */
+	private final static long NEGATIVE_CACHE_TTL = 10000;
+
+	/**
+	 * The maximum number of failed requests to remember.
+	 */
+	private final static int NEGATIVE_CACHE_SIZE = 64;
+
+	/**
+	 * A lock to ensure {@link #MISSING_SECRETS} is initialized only once.
+	 */
+	private final static Object INIT_LOCK = new Object();
+
+	/**
+	 * Accounts without a stored secret. It's shared by all instances and created by {@link #getMissingSecrets(Context)} when the first account without a
+	 * secret is found.
+	 */
+	private static volatile NegativeCache<Account> MISSING_SECRETS;
+
 	/**
 	 * The application context we're living in.
 	 */
@@ -69,6 +100,41 @@ public class Authenticator extends AbstractAccountAuthenticator
 	}
 
 
+	/**
+	 * Return the cache of accounts without a stored secret, creating it on the first call. The cache is cleared whenever the accounts change. The receiver
+	 * that clears it is registered only once per process with the application context, so it lives as long as the process.
+	 * 
+	 * @param context
+	 *            The application {@link Context}.
+	 * @return The {@link NegativeCache} of accounts without a stored secret.
+	 */
+	private static NegativeCache<Account> getMissingSecrets(Context context)
+	{
+		NegativeCache<Account> missingSecrets = MISSING_SECRETS;
+		if (missingSecrets == null)
+		{
+			synchronized (INIT_LOCK)
+			{
+				missingSecrets = MISSING_SECRETS;
+				if (missingSecrets == null)
+				{
+					final NegativeCache<Account> cache = new NegativeCache<Account>(NEGATIVE_CACHE_SIZE, NEGATIVE_CACHE_TTL);
+					context.registerReceiver(new BroadcastReceiver()
+					{
+						@Override
+						public void onReceive(Context context, Intent intent)
+						{
+							cache.clear();
+						}
+					}, new IntentFilter(AccountManager.LOGIN_ACCOUNTS_CHANGED_ACTION));
+					missingSecrets = MISSING_SECRETS = cache;
+				}
+			}
+		}
+		return missingSecrets;
+	}
+
+
 	/*
 	 * This basically returns an intent for the action ACTION_ADD_ACCOUNT. The package should have at least one Activity that listens for this action without
 	 * any filters.
@@ -87,7 +153,7 @@ public class Authenticator extends AbstractAccountAuthenticator
 		intent.setPackage(mContext.getPackageName());
 		if (authTokenType != null)
 		{
-			intent.setData(Uri.parse(authTokenType));
+			intent.setData(AuthTokenType.get(authTokenType).getUri());
 		}
 		intent.putExtra(AccountManager.KEY_ACCOUNT_AUTHENTICATOR_RESPONSE, response);
 
@@ -138,7 +204,10 @@ public class Authenticator extends AbstractAccountAuthenticator
 	@Override
 	public Bundle getAuthToken(AccountAuthenticatorResponse response, Account account, String authTokenType, Bundle options) throws NetworkErrorException
 	{
+		// unknown auth token types are remembered by AuthSchemeHandler
+		long start = Metrics.start();
 		AuthSchemeHandler authSchemeHandler = AuthSchemeHandler.get(mContext, authTokenType);
+		Metrics.stage(Stage.HANDLER_LOOKUP, start);
 
 		if (authSchemeHandler == null)
 		{
@@ -148,22 +217,30 @@ public class Authenticator extends AbstractAccountAuthenticator
 			return result;
 		}
 
-		final AccountManager am = AccountManager.get(mContext);
-		String secret = am.getPassword(account);
+		// load the secret only once and pass it to the handler
+		start = Metrics.start();
+		NegativeCache<Account> missingSecrets = MISSING_SECRETS;
+		boolean knownToFail = missingSecrets != null && missingSecrets.contains(account);
+		Metrics.cacheAccess(Cache.NEGATIVE, knownToFail);
+		String secret = knownToFail ? null : authSchemeHandler.getProtectedSecret(mContext, account);
+		Metrics.stage(Stage.SECRET_READ, start);
 		if (secret != null)
 		{
 			// we do have a secret
+			start = Metrics.start();
 			try
 			{
 				final Bundle result = new Bundle();
 				result.putString(AccountManager.KEY_ACCOUNT_NAME, account.name);
 				result.putString(AccountManager.KEY_ACCOUNT_TYPE, account.type);
-				result.putString(AccountManager.KEY_AUTHTOKEN, authSchemeHandler.getAuthToken(mContext, account).toString());
+				result.putString(AccountManager.KEY_AUTHTOKEN,
+					authSchemeHandler.getAuthToken(mContext, authSchemeHandler.getSecret(mContext, account, secret)).toString());
 				return result;
 			}
 			catch (AuthenticationException e)
 			{
 				Log.e(TAG, "could not retrieve auth token", e);
+				Metrics.failure(Stage.ISSUE_AUTH_TOKEN, e);
 
 				final Bundle result = new Bundle();
 
@@ -176,6 +253,7 @@ public class Authenticator extends AbstractAccountAuthenticator
 			catch (IllegalArgumentException e)
 			{
 				Log.e(TAG, "could not retrieve auth token", e);
+				Metrics.failure(Stage.ISSUE_AUTH_TOKEN, e);
 				// the secret was of an unexpected format
 				final Bundle result = new Bundle();
 
@@ -187,12 +265,18 @@ public class Authenticator extends AbstractAccountAuthenticator
 			catch (IOException e)
 			{
 				Log.e(TAG, "could not retrieve auth token", e);
+				Metrics.failure(Stage.ISSUE_AUTH_TOKEN, e);
 				// this should return an OperationCancelledException to the caller
 				throw new NetworkErrorException("could not get auth token", e);
 			}
+			finally
+			{
+				Metrics.stage(Stage.ISSUE_AUTH_TOKEN, start);
+			}
 		}
 		else
 		{
+			getMissingSecrets(mContext).put(account);
 			final Bundle result = new Bundle();
 
 			result.putString(AccountManager.KEY_ERROR_MESSAGE, "no stored secret found");
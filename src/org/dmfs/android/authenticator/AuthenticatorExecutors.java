@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Provides the shared thread pools that execute the asynchronous operations of this framework.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class AuthenticatorExecutors
+{
+	/**
+	 * The number of threads of the default executor.
+	 */
+	private final static int THREAD_COUNT = 4;
+
+	/**
+	 * The number of threads of the batch executor.
+	 */
+	private final static int BATCH_THREAD_COUNT = 4;
+
+
+	private AuthenticatorExecutors()
+	{
+	}
+
+
+	/**
+	 * Return the default {@link ExecutorService}. It's created on first use.
+	 * 
+	 * @return The {@link ExecutorService}.
+	 */
+	public static ExecutorService getExecutor()
+	{
+		return ExecutorHolder.EXECUTOR;
+	}
+
+	/**
+	 * Return the {@link ExecutorService} for batch operations. It's separate from the default executor, so a large batch can't starve callbacks, warm-up and
+	 * background refreshes. It's created on first use.
+	 * 
+	 * @return The {@link ExecutorService}.
+	 */
+	public static ExecutorService getBatchExecutor()
+	{
+		return BatchExecutorHolder.EXECUTOR;
+	}
+
+	/**
+	 * Return the shared {@link ScheduledExecutorService}. It's created on first use.
+	 * 
+	 * @return The {@link ScheduledExecutorService}.
+	 */
+	public static ScheduledExecutorService getScheduler()
+	{
+		return SchedulerHolder.SCHEDULER;
+	}
+
+	/**
+	 * Holder of the default executor. The class loader ensures it's initialized only once.
+	 */
+	private final static class ExecutorHolder
+	{
+		final static ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT, new DaemonThreadFactory("authenticator-worker-"));
+	}
+
+	/**
+	 * Holder of the batch executor. The class loader ensures it's initialized only once.
+	 */
+	private final static class BatchExecutorHolder
+	{
+		final static ExecutorService EXECUTOR = Executors.newFixedThreadPool(BATCH_THREAD_COUNT, new DaemonThreadFactory("authenticator-batch-"));
+	}
+
+	/**
+	 * Holder of the shared scheduler. The class loader ensures it's initialized only once.
+	 */
+	private final static class SchedulerHolder
+	{
+		final static ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(THREAD_COUNT, new DaemonThreadFactory("authenticator-scheduler-"));
+	}
+
+	/**
+	 * A {@link ThreadFactory} that creates named daemon threads.
+	 */
+	final static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String mNamePrefix;
+
+		private final AtomicInteger mThreadCount = new AtomicInteger();
+
+
+		public DaemonThreadFactory(String namePrefix)
+		{
+			mNamePrefix = namePrefix;
+		}
+
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, mNamePrefix + mThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
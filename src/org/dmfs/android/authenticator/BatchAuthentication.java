@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.accounts.Account;
+import android.content.Context;
+
+
+/**
+ * Gets {@link AuthenticationProvider}s for many accounts at once. The work is spread over a bounded thread pool and failures are reported per account, so a
+ * single failing account doesn't fail the whole batch. Failed attempts are retried on a scheduler (see
+ * {@link AuthSchemeHandler#getAuthenticationProviderAsync(Context, Account, AuthenticationCallback, Executor)}), so the pool threads are not blocked while
+ * waiting for a retry.
+ * <p>
+ * <strong>Note:</strong> The methods of this class block until all accounts have been processed, so don't call them from the main thread.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class BatchAuthentication
+{
+	private BatchAuthentication()
+	{
+	}
+
+
+	/**
+	 * Get {@link AuthenticationProvider}s of the given auth token type for all of the given accounts using a dedicated thread pool for batch operations. It
+	 * doesn't share its threads with the other asynchronous operations of this framework, so a large batch can't starve them.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param accounts
+	 *            The {@link Account}s to get {@link AuthenticationProvider}s for.
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @return A {@link Map} of an {@link AuthenticationResult} for each account, in the iteration order of <code>accounts</code>.
+	 * @throws IllegalArgumentException
+	 *             if the auth token type is not supported.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting for the results.
+	 */
+	public static Map<Account, AuthenticationResult> getAuthenticationProviders(Context context, Collection<Account> accounts, String authTokenType)
+		throws InterruptedException
+	{
+		return getAuthenticationProviders(context, accounts, authTokenType, AuthenticatorExecutors.getBatchExecutor());
+	}
+
+
+	/**
+	 * Get {@link AuthenticationProvider}s of the given auth token type for all of the given accounts using the given {@link Executor}. Use an executor with a
+	 * bounded number of threads to limit the number of concurrent operations. The executor must not run the operations on the calling thread. Don't use an
+	 * executor that runs the callbacks of the operations you're waiting for, since this might deadlock.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param accounts
+	 *            The {@link Account}s to get {@link AuthenticationProvider}s for.
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @param executor
+	 *            The {@link Executor} to run the operations on.
+	 * @return A {@link Map} of an {@link AuthenticationResult} for each account, in the iteration order of <code>accounts</code>.
+	 * @throws IllegalArgumentException
+	 *             if the auth token type is not supported.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting for the results.
+	 */
+	public static Map<Account, AuthenticationResult> getAuthenticationProviders(Context context, Collection<Account> accounts, String authTokenType,
+		Executor executor) throws InterruptedException
+	{
+		AuthSchemeHandler handler = AuthSchemeHandler.get(context, authTokenType);
+		if (handler == null)
+		{
+			throw new IllegalArgumentException("unknown auth token type: " + authTokenType);
+		}
+
+		// start all operations first, then collect the results
+		List<Future<AuthenticationProvider<? extends AuthToken>>> futures = new ArrayList<Future<AuthenticationProvider<? extends AuthToken>>>(accounts.size());
+		for (Account account : accounts)
+		{
+			futures.add(handler.getAuthenticationProviderAsync(context, account, null, executor));
+		}
+
+		Map<Account, AuthenticationResult> result = new LinkedHashMap<Account, AuthenticationResult>(accounts.size() * 4 / 3 + 1);
+		int i = 0;
+		for (Account account : accounts)
+		{
+			Future<AuthenticationProvider<? extends AuthToken>> future = futures.get(i++);
+			try
+			{
+				result.put(account, new AuthenticationResult(account, future.get(), null));
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+				{
+					throw (Error) cause;
+				}
+				result.put(account, new AuthenticationResult(account, null, (Exception) cause));
+			}
+			catch (InterruptedException e)
+			{
+				// don't leave any work behind, this also interrupts running attempts
+				for (Future<AuthenticationProvider<? extends AuthToken>> pending : futures)
+				{
+					pending.cancel(true);
+				}
+				throw e;
+			}
+		}
+		return result;
+	}
+}
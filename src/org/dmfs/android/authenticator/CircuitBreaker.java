@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import android.os.SystemClock;
+
+
+/**
+ * A circuit breaker that stops calls to an unhealthy component. It opens after a number of consecutive failures and rejects all calls while it's open. After
+ * a while it lets a limited number of probe calls pass (half-open). If a probe succeeds the circuit breaker closes again, if it fails the circuit breaker
+ * opens again.
+ * <p>
+ * Every call that has been admitted by {@link #tryAcquire()} must be completed with either {@link #onSuccess()} or {@link #onFailure()}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class CircuitBreaker
+{
+	/**
+	 * The states of a {@link CircuitBreaker}.
+	 */
+	public enum State
+	{
+		/**
+		 * All calls pass.
+		 */
+		CLOSED,
+
+		/**
+		 * All calls are rejected.
+		 */
+		OPEN,
+
+		/**
+		 * A limited number of probe calls pass.
+		 */
+		HALF_OPEN;
+	}
+
+	/**
+	 * The number of consecutive failures that open the circuit breaker.
+	 */
+	private final int mFailureThreshold;
+
+	/**
+	 * The time in milliseconds to stay open before probing.
+	 */
+	private final long mOpenDuration;
+
+	/**
+	 * The maximum number of concurrent probe calls when half-open.
+	 */
+	private final int mMaxProbes;
+
+	private State mState = State.CLOSED;
+
+	private int mConsecutiveFailures;
+
+	private int mProbes;
+
+	private long mOpenedAt;
+
+	private long mRejectedCalls;
+
+
+	/**
+	 * Create a new CircuitBreaker.
+	 * 
+	 * @param failureThreshold
+	 *            The number of consecutive failures that open the circuit breaker.
+	 * @param openDuration
+	 *            The time in milliseconds to stay open before probing.
+	 * @param maxProbes
+	 *            The maximum number of concurrent probe calls when half-open.
+	 */
+	public CircuitBreaker(int failureThreshold, long openDuration, int maxProbes)
+	{
+		if (failureThreshold < 1)
+		{
+			throw new IllegalArgumentException("failureThreshold must be at least 1");
+		}
+		if (maxProbes < 1)
+		{
+			throw new IllegalArgumentException("maxProbes must be at least 1");
+		}
+		mFailureThreshold = failureThreshold;
+		mOpenDuration = openDuration;
+		mMaxProbes = maxProbes;
+	}
+
+
+	/**
+	 * Ask for permission to make a call.
+	 * 
+	 * @return <code>true</code> if the call may be made, <code>false</code> if it must be rejected.
+	 */
+	public synchronized boolean tryAcquire()
+	{
+		if (mState == State.OPEN && SystemClock.elapsedRealtime() - mOpenedAt >= mOpenDuration)
+		{
+			mState = State.HALF_OPEN;
+			mProbes = 0;
+		}
+
+		switch (mState)
+		{
+			case CLOSED:
+				return true;
+			case HALF_OPEN:
+				if (mProbes < mMaxProbes)
+				{
+					++mProbes;
+					return true;
+				}
+				// fall through
+			default:
+				++mRejectedCalls;
+				return false;
+		}
+	}
+
+
+	/**
+	 * Report the success of an admitted call.
+	 */
+	public synchronized void onSuccess()
+	{
+		mConsecutiveFailures = 0;
+		mState = State.CLOSED;
+	}
+
+
+	/**
+	 * Report the failure of an admitted call.
+	 */
+	public synchronized void onFailure()
+	{
+		++mConsecutiveFailures;
+		if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold)
+		{
+			mState = State.OPEN;
+			mOpenedAt = SystemClock.elapsedRealtime();
+		}
+	}
+
+
+	/**
+	 * Return the current state. Note that an open circuit breaker becomes half-open only with the next call to {@link #tryAcquire()}.
+	 * 
+	 * @return The {@link State}.
+	 */
+	public synchronized State getState()
+	{
+		return mState;
+	}
+
+
+	/**
+	 * Return the number of consecutive failures.
+	 * 
+	 * @return The number of failures since the last success.
+	 */
+	public synchronized int getConsecutiveFailures()
+	{
+		return mConsecutiveFailures;
+	}
+
+
+	/**
+	 * Return the number of calls that have been rejected so far.
+	 * 
+	 * @return The number of rejected calls.
+	 */
+	public synchronized long getRejectedCalls()
+	{
+		return mRejectedCalls;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		return "CircuitBreaker[" + mState + ", failures=" + mConsecutiveFailures + ", rejected=" + mRejectedCalls + "]";
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.accounts.Account;
+
+
+/**
+ * Provides the shared {@link CircuitBreaker}s that guard the auth token fetches, either per account type or per account. Use {@link #getAll()} to monitor
+ * their states.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class CircuitBreakers
+{
+	/**
+	 * The number of consecutive failures that open a circuit breaker.
+	 */
+	private final static int FAILURE_THRESHOLD = 5;
+
+	/**
+	 * The time in milliseconds a circuit breaker stays open before probing.
+	 */
+	private final static long OPEN_DURATION = 30000;
+
+	/**
+	 * The maximum number of concurrent probes of a half-open circuit breaker.
+	 */
+	private final static int MAX_PROBES = 1;
+
+	/**
+	 * The circuit breakers by key.
+	 */
+	private final static ConcurrentHashMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>(8);
+
+
+	private CircuitBreakers()
+	{
+	}
+
+
+	/**
+	 * Return the {@link CircuitBreaker} of the given account type.
+	 * 
+	 * @param accountType
+	 *            The account type.
+	 * @return The {@link CircuitBreaker}.
+	 */
+	public static CircuitBreaker forAccountType(String accountType)
+	{
+		return get(accountType);
+	}
+
+
+	/**
+	 * Return the {@link CircuitBreaker} of the given account.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 * @return The {@link CircuitBreaker}.
+	 */
+	public static CircuitBreaker forAccount(Account account)
+	{
+		return get(account.type + "/" + account.name);
+	}
+
+
+	/**
+	 * Return a snapshot of all circuit breakers that have been used so far. The keys are the account types and, for circuit breakers per account,
+	 * <code>&lt;account type>/&lt;account name></code>.
+	 * 
+	 * @return A {@link Map} of keys to {@link CircuitBreaker}s.
+	 */
+	public static Map<String, CircuitBreaker> getAll()
+	{
+		return new HashMap<String, CircuitBreaker>(BREAKERS);
+	}
+
+
+	private static CircuitBreaker get(String key)
+	{
+		CircuitBreaker breaker = BREAKERS.get(key);
+		if (breaker == null)
+		{
+			CircuitBreaker newBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_DURATION, MAX_PROBES);
+			breaker = BREAKERS.putIfAbsent(key, newBreaker);
+			if (breaker == null)
+			{
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import android.accounts.AuthenticatorException;
+
+
+/**
+ * Thrown when a call has been rejected by an open {@link CircuitBreaker}, i.e. the authenticator has failed too often recently.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class CircuitOpenException extends AuthenticatorException
+{
+	/**
+	 * Generated serial ID.
+	 */
+	private static final long serialVersionUID = 3861529747210648326L;
+
+
+	public CircuitOpenException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+/**
+ * A source of the current time. Time dependent components take a Clock, so tests can control the time instead of waiting for it to pass.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface Clock
+{
+	/**
+	 * The system clock, see {@link System#currentTimeMillis()}.
+	 */
+	public final static Clock SYSTEM = new Clock()
+	{
+		@Override
+		public long currentTimeMillis()
+		{
+			return System.currentTimeMillis();
+		}
+	};
+
+
+	/**
+	 * Return the current time.
+	 * 
+	 * @return The current time in milliseconds since the epoch.
+	 */
+	public long currentTimeMillis();
+}
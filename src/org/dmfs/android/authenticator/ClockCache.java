@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A bounded map with an approximated least recently used eviction (the CLOCK algorithm). Lookups don't take any lock, they just mark the entry as referenced.
+ * Evictions only happen when a new entry pushes the map over its limit. They sweep the entries, clear the reference marks and evict the first entry that has
+ * not been referenced since the last sweep.
+ * <p>
+ * New entries start out marked, so they survive at least one sweep, even if they are not looked up right away. Entries that are looked up regularly are
+ * marked again before the next sweep reaches them, so a flood of keys that are used only once evicts these keys rather than the ones that are actually used.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ * 
+ * @param <K>
+ *            The type of the keys.
+ * @param <V>
+ *            The type of the values.
+ */
+final class ClockCache<K, V>
+{
+	/**
+	 * The cached entries.
+	 */
+	private final ConcurrentMap<K, Entry<V>> mEntries;
+
+	/**
+	 * The maximum number of entries.
+	 */
+	private final int mMaxSize;
+
+	/**
+	 * The position of the clock hand. Guarded by the instance lock.
+	 */
+	private Iterator<Entry<V>> mHand;
+
+
+	/**
+	 * Create a new cache that holds up to <code>maxSize</code> entries.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of entries.
+	 */
+	public ClockCache(int maxSize)
+	{
+		if (maxSize <= 0)
+		{
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		mMaxSize = maxSize;
+		mEntries = new ConcurrentHashMap<K, Entry<V>>(maxSize * 4 / 3 + 1);
+	}
+
+
+	/**
+	 * Return the value of the given key and mark it as referenced. This doesn't take a lock.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return The value or <code>null</code> if the key is not in the cache.
+	 */
+	public V get(K key)
+	{
+		Entry<V> entry = mEntries.get(key);
+		if (entry == null)
+		{
+			return null;
+		}
+		if (!entry.referenced)
+		{
+			// don't write to the entry if it's marked already
+			entry.referenced = true;
+		}
+		return entry.value;
+	}
+
+
+	/**
+	 * Put a value into the cache, replacing any value of the same key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 */
+	public void put(K key, V value)
+	{
+		mEntries.put(key, new Entry<V>(value));
+		evict();
+	}
+
+
+	/**
+	 * Put a value into the cache, unless there already is a value for the given key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 * @return The value that was in the cache already or <code>null</code> if the given value has been put into the cache.
+	 */
+	public V putIfAbsent(K key, V value)
+	{
+		Entry<V> existing = mEntries.putIfAbsent(key, new Entry<V>(value));
+		if (existing != null)
+		{
+			existing.referenced = true;
+			return existing.value;
+		}
+		evict();
+		return null;
+	}
+
+
+	/**
+	 * Remove the given key if it's mapped to the given value.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 */
+	public void remove(K key, V value)
+	{
+		Entry<V> entry = mEntries.get(key);
+		if (entry != null && entry.value == value)
+		{
+			mEntries.remove(key, entry);
+		}
+	}
+
+
+	/**
+	 * Return the number of entries in the cache.
+	 * 
+	 * @return The number of entries.
+	 */
+	public int size()
+	{
+		return mEntries.size();
+	}
+
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear()
+	{
+		mEntries.clear();
+	}
+
+
+	/**
+	 * Evict entries until the cache is within its limits again. Only one thread sweeps at a time, lookups are not blocked.
+	 */
+	private synchronized void evict()
+	{
+		while (mEntries.size() > mMaxSize)
+		{
+			if (mHand == null || !mHand.hasNext())
+			{
+				// start the next round, the iterators of ConcurrentHashMap never throw a ConcurrentModificationException
+				mHand = mEntries.values().iterator();
+				if (!mHand.hasNext())
+				{
+					return;
+				}
+			}
+
+			Entry<V> entry = mHand.next();
+			if (entry.referenced)
+			{
+				// give it another chance
+				entry.referenced = false;
+			}
+			else
+			{
+				mHand.remove();
+			}
+		}
+	}
+
+	/**
+	 * A cached value with its reference mark.
+	 */
+	private final static class Entry<V>
+	{
+		public final V value;
+
+		public volatile boolean referenced = true;
+
+
+		public Entry(V value)
+		{
+			this.value = value;
+		}
+	}
+}
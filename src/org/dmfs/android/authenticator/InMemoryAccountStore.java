@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.accounts.Account;
+import android.accounts.AuthenticatorException;
+import android.content.Context;
+
+
+/**
+ * An {@link AccountStore} that keeps all secrets and auth tokens in memory. Auth tokens are issued by the {@link AuthSchemeHandler}s just like the
+ * {@link Authenticator} does and are cached until they are invalidated.
+ * <p>
+ * This store doesn't need any binder calls, so it's a local stand-in for the {@link android.accounts.AccountManager} in load tests and benchmarks. It's safe
+ * to use it from multiple threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class InMemoryAccountStore implements AccountStore
+{
+	private final Context mContext;
+
+	/**
+	 * The secrets by account.
+	 */
+	private final Map<Account, String> mPasswords = new ConcurrentHashMap<Account, String>(16);
+
+	/**
+	 * The cached auth tokens.
+	 */
+	private final Map<TokenKey, String> mAuthTokens = new ConcurrentHashMap<TokenKey, String>(16);
+
+
+	/**
+	 * Create a new, empty store.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 */
+	public InMemoryAccountStore(Context context)
+	{
+		mContext = context.getApplicationContext();
+	}
+
+
+	@Override
+	public String getPassword(Account account)
+	{
+		return mPasswords.get(account);
+	}
+
+
+	@Override
+	public void setPassword(Account account, String password)
+	{
+		if (password == null)
+		{
+			mPasswords.remove(account);
+		}
+		else
+		{
+			mPasswords.put(account, password);
+		}
+
+		// like the AccountManager we drop all auth tokens of the account when the secret changes
+		Iterator<TokenKey> iterator = mAuthTokens.keySet().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().mAccount.equals(account))
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+
+	@Override
+	public String blockingGetAuthToken(Account account, String authTokenType, boolean notifyAuthFailure) throws IOException, AuthenticatorException
+	{
+		TokenKey key = new TokenKey(account, authTokenType);
+		String authToken = mAuthTokens.get(key);
+		if (authToken != null)
+		{
+			long expiresAt = AuthToken.getExpiresAt(authToken);
+			if (expiresAt < 0 || expiresAt > System.currentTimeMillis())
+			{
+				return authToken;
+			}
+			// the cached auth token has expired, issue a new one
+			mAuthTokens.remove(key, authToken);
+		}
+
+		AuthSchemeHandler handler = AuthSchemeHandler.get(mContext, authTokenType);
+		if (handler == null)
+		{
+			throw new AuthenticatorException("unknown auth token type");
+		}
+
+		String secret = mPasswords.get(account);
+		if (secret == null)
+		{
+			// no stored secret, that's a null auth token
+			return null;
+		}
+
+		try
+		{
+			AuthToken token = handler.getAuthToken(mContext, handler.getSecret(mContext, account, secret));
+			authToken = token.toString();
+		}
+		catch (AuthenticationException e)
+		{
+			return null;
+		}
+		catch (IllegalArgumentException e)
+		{
+			// the secret was of an unexpected format
+			return null;
+		}
+
+		mAuthTokens.put(key, authToken);
+		return authToken;
+	}
+
+
+	@Override
+	public void invalidateAuthToken(String accountType, String authToken)
+	{
+		Iterator<Map.Entry<TokenKey, String>> iterator = mAuthTokens.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<TokenKey, String> entry = iterator.next();
+			if (entry.getKey().mAccount.type.equals(accountType) && entry.getValue().equals(authToken))
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * The key of a cached auth token.
+	 */
+	private final static class TokenKey
+	{
+		private final Account mAccount;
+
+		private final String mAuthTokenType;
+
+
+		public TokenKey(Account account, String authTokenType)
+		{
+			mAccount = account;
+			mAuthTokenType = authTokenType;
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return mAccount.hashCode() * 31 + mAuthTokenType.hashCode();
+		}
+
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof TokenKey))
+			{
+				return false;
+			}
+			TokenKey other = (TokenKey) o;
+			return mAccount.equals(other.mAccount) && mAuthTokenType.equals(other.mAuthTokenType);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.SystemClock;
+
+
+/**
+ * A bounded, short-lived cache of keys that are known to fail, so repeated requests that will fail anyway can be answered without doing the actual work. Each
+ * key expires after a fixed time. If the cache is full, the least recently used key is evicted.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ * 
+ * @param <K>
+ *            The type of the keys.
+ */
+final class NegativeCache<K>
+{
+	/**
+	 * The time in milliseconds to keep a key.
+	 */
+	private final long mTtl;
+
+	/**
+	 * The expiration times of the cached keys in the order of their last access.
+	 */
+	private final LinkedHashMap<K, Long> mEntries;
+
+
+	/**
+	 * Create a new cache that holds up to <code>maxSize</code> keys.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of keys to cache.
+	 * @param ttl
+	 *            The time in milliseconds to keep a key.
+	 */
+	public NegativeCache(final int maxSize, long ttl)
+	{
+		mTtl = ttl;
+		mEntries = new LinkedHashMap<K, Long>(maxSize * 4 / 3 + 1, 0.75f, true /* access order */)
+		{
+			/**
+			 * Generated serial ID.
+			 */
+			private static final long serialVersionUID = 6403757212962212706L;
+
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Long> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * Return whether the given key is known to fail.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return <code>true</code> if the key has been added recently, <code>false</code> otherwise.
+	 */
+	public synchronized boolean contains(K key)
+	{
+		Long expiresAt = mEntries.get(key);
+		if (expiresAt == null)
+		{
+			return false;
+		}
+		if (expiresAt <= SystemClock.elapsedRealtime())
+		{
+			mEntries.remove(key);
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Remember that the given key fails.
+	 * 
+	 * @param key
+	 *            The key.
+	 */
+	public synchronized void put(K key)
+	{
+		mEntries.put(key, SystemClock.elapsedRealtime() + mTtl);
+	}
+
+
+	/**
+	 * Forget that the given key fails.
+	 * 
+	 * @param key
+	 *            The key.
+	 */
+	public synchronized void remove(K key)
+	{
+		mEntries.remove(key);
+	}
+
+
+	/**
+	 * Remove all keys from the cache.
+	 */
+	public synchronized void clear()
+	{
+		mEntries.clear();
+	}
+}
@@ -22,6 +22,7 @@ package org.dmfs.android.authenticator;
 import java.io.IOException;
 
 import org.dmfs.android.authenticator.secrets.AuthToken;
+import org.dmfs.android.authenticator.secrets.SecretCache;
 import org.dmfs.android.authenticator.secrets.StoredSecret;
 import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
 import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
@@ -44,6 +45,19 @@ public class Password extends AuthSchemeHandler
 	 */
 	public final static String SCHEME = "password";
 
+	/**
+	 * An {@link AuthSchemeHandlerFactory} that creates {@link Password} handlers without any reflection. Use it with
+	 * {@link AuthSchemeHandler#register(String, AuthSchemeHandlerFactory)} to register this handler for {@link #SCHEME}.
+	 */
+	public final static AuthSchemeHandlerFactory FACTORY = new AuthSchemeHandlerFactory()
+	{
+		@Override
+		public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+		{
+			return new Password(context, authTokenType);
+		}
+	};
+
 	private final String mLabel;
 
 
@@ -67,6 +81,20 @@ public class Password extends AuthSchemeHandler
 	}
 
 
+	/*
+	 * This handler doesn't have any mutable state, so it can be shared.
+	 * 
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.AuthSchemeHandler#isImmutable()
+	 */
+	@Override
+	protected boolean isImmutable()
+	{
+		return true;
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -118,7 +146,9 @@ public class Password extends AuthSchemeHandler
 	public AuthenticationProvider<? extends AuthToken> getAuthenticationProvider(Context context, Account account) throws AuthenticatorException, IOException,
 		AuthenticationException
 	{
-		return new PasswordAuthenticationProvider(context, account, mAuthTokenType);
+		AuthenticationProvider<? extends AuthToken> provider = new PasswordAuthenticationProvider(context, account, mAuthTokenType);
+		provider.startBackgroundRefresh(context, account);
+		return provider;
 	}
 
 
@@ -143,10 +173,36 @@ public class Password extends AuthSchemeHandler
 	@Override
 	public UserCredentialsSecret getSecret(Context context, Account account)
 	{
+		return getSecret(context, account, getProtectedSecret(context, account));
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.AuthSchemeHandler#getSecret(android.content.Context, android.accounts.Account, java.lang.String)
+	 */
+	@Override
+	public UserCredentialsSecret getSecret(Context context, Account account, String protectedSecret)
+	{
+		SecretCache cache = getSecretCache(context);
+		StoredSecret cached = cache.get(account, protectedSecret);
+		if (cached instanceof UserCredentialsSecret)
+		{
+			return (UserCredentialsSecret) cached;
+		}
+
 		UserCredentialsSecret result;
-		// de-obfuscate the stored user credentials
-		result = new UserCredentialsSecret(getProtectedSecret(context, account));
-		result.unprotect(context);
+		// de-obfuscate the stored user credentials and migrate outdated formats, we store the migrated secret below
+		result = new UserCredentialsSecret(protectedSecret);
+		cache.unprotect(context, account, result, true);
+
+		String migratedSecret = result.getMigratedSecret();
+		if (migratedSecret != null)
+		{
+			// the secret was stored in an outdated obfuscation format, replace it with the migrated one
+			AccountStores.get(context).setPassword(account, migratedSecret);
+		}
 
 		return result;
 	}
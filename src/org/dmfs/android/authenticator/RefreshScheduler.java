@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dmfs.android.authenticator.AuthenticationProvider.FetchKey;
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Refreshes the auth tokens of live {@link AuthenticationProvider}s in the background, so requests rarely have to wait for a synchronous refresh. After a
+ * refresh all live providers of the account and auth token type get the new auth token (see {@link AuthenticationProvider#mAuthToken}).
+ * <p>
+ * Only providers that return <code>true</code> from {@link AuthenticationProvider#canRefresh()} are refreshed. The providers of the built-in schemes don't,
+ * since their auth tokens don't expire.
+ * </p>
+ * <p>
+ * There is at most one scheduled refresh per account and auth token type. It's scheduled <code>refresh ahead</code> milliseconds before the time returned by
+ * {@link AuthenticationProvider#getRefreshTime(AuthToken)} minus a random amount of up to <code>spread</code> milliseconds, so refreshes of many tokens that
+ * expire at the same time don't stampede the server. If the refresh time is unknown, {@link AuthenticationProvider#needsRefresh(AuthToken)} is checked
+ * periodically instead.
+ * </p>
+ * <p>
+ * A token is never refreshed earlier than halfway through the lifetime it had left when it was tracked, so short lived tokens are not refreshed right after
+ * they have been issued. Also there are at least {@link #MIN_REFRESH_DELAY} milliseconds between two refresh checks of the same token, even if a provider
+ * keeps returning tokens that are due.
+ * </p>
+ * <p>
+ * Providers are only referenced weakly. Once the last provider of an account and auth token type has been garbage collected its auth token is no longer
+ * refreshed.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class RefreshScheduler
+{
+	private final static String TAG = "org.dmfs.android.authenticator.RefreshScheduler";
+
+	/**
+	 * The lock to synchronize the initialization of the default instance.
+	 */
+	private final static Object INIT_LOCK = new Object();
+
+	/**
+	 * The minimum time in milliseconds between two refresh checks of the same auth token.
+	 */
+	final static long MIN_REFRESH_DELAY = 1000;
+
+	/**
+	 * The maximum fraction of the remaining lifetime of an auth token to refresh it ahead.
+	 */
+	private final static float MAX_REFRESH_AHEAD_FRACTION = 0.5f;
+
+	/**
+	 * The default instance, created on first use.
+	 */
+	private static volatile RefreshScheduler INSTANCE;
+
+	/**
+	 * The tracked auth tokens.
+	 */
+	private final ConcurrentHashMap<FetchKey, Entry> mEntries = new ConcurrentHashMap<FetchKey, Entry>();
+
+	/**
+	 * The time in milliseconds to refresh an auth token before its refresh time.
+	 */
+	private final long mRefreshAhead;
+
+	/**
+	 * The maximum random time in milliseconds to add to the refresh ahead time.
+	 */
+	private final long mSpread;
+
+	/**
+	 * The interval in milliseconds to check auth tokens with an unknown refresh time.
+	 */
+	private final long mCheckInterval;
+
+	/**
+	 * The scheduler that triggers the refreshes.
+	 */
+	private final ScheduledExecutorService mScheduler;
+
+	/**
+	 * The {@link Executor} that executes the refreshes.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * The {@link Clock} to compare the refresh times with.
+	 */
+	private final Clock mClock;
+
+
+	/**
+	 * Create a new RefreshScheduler.
+	 * 
+	 * @param refreshAhead
+	 *            The time in milliseconds to refresh an auth token before its refresh time.
+	 * @param spread
+	 *            The maximum random time in milliseconds to add to the refresh ahead time.
+	 * @param checkInterval
+	 *            The interval in milliseconds to check auth tokens with an unknown refresh time.
+	 * @param scheduler
+	 *            The scheduler that triggers the refreshes.
+	 * @param executor
+	 *            The {@link Executor} that executes the refreshes. Refreshes block, so this should not be the scheduler.
+	 * @param clock
+	 *            The {@link Clock} to compare the refresh times with. The delays passed to the scheduler are based on this clock.
+	 */
+	RefreshScheduler(long refreshAhead, long spread, long checkInterval, ScheduledExecutorService scheduler, Executor executor, Clock clock)
+	{
+		mRefreshAhead = refreshAhead;
+		mSpread = spread;
+		mCheckInterval = checkInterval;
+		mScheduler = scheduler;
+		mExecutor = executor;
+		mClock = clock;
+	}
+
+
+	/**
+	 * Return the default RefreshScheduler. It's configured by the integer resources <code>org_dmfs_android_authenticator_refresh_ahead</code>,
+	 * <code>org_dmfs_android_authenticator_refresh_spread</code> and <code>org_dmfs_android_authenticator_refresh_check_interval</code> on first use.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return The {@link RefreshScheduler}.
+	 */
+	public static RefreshScheduler get(Context context)
+	{
+		RefreshScheduler scheduler = INSTANCE;
+		if (scheduler == null)
+		{
+			synchronized (INIT_LOCK)
+			{
+				scheduler = INSTANCE;
+				if (scheduler == null)
+				{
+					Resources res = context.getResources();
+					scheduler = INSTANCE = new RefreshScheduler(res.getInteger(R.integer.org_dmfs_android_authenticator_refresh_ahead) * 1000L,
+						res.getInteger(R.integer.org_dmfs_android_authenticator_refresh_spread) * 1000L,
+						res.getInteger(R.integer.org_dmfs_android_authenticator_refresh_check_interval) * 1000L, AuthenticatorExecutors.getScheduler(),
+						AuthenticatorExecutors.getExecutor(), Clock.SYSTEM);
+				}
+			}
+		}
+		return scheduler;
+	}
+
+
+	/**
+	 * Start refreshing the auth token of the given provider in the background. If the auth token of the same account and auth token type is already tracked,
+	 * the existing schedule is kept, the provider is added to the providers that get the new auth token and the auth token is updated.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account} of the auth token.
+	 * @param authTokenType
+	 *            The auth token type.
+	 * @param provider
+	 *            The {@link AuthenticationProvider} that owns the auth token.
+	 * @param authToken
+	 *            The current auth token.
+	 */
+	public <T extends AuthToken> void track(Context context, Account account, Uri authTokenType, AuthenticationProvider<T> provider, T authToken)
+	{
+		FetchKey key = new FetchKey(account, authTokenType, false);
+		long dueTime = getDueTime(getRefreshTime(provider, authToken));
+		Entry entry = new Entry(context.getApplicationContext(), account, key, provider, authToken, dueTime);
+		while (true)
+		{
+			Entry existing = mEntries.putIfAbsent(key, entry);
+			if (existing == null)
+			{
+				schedule(entry, dueTime);
+				return;
+			}
+			if (existing.update(provider, authToken, dueTime))
+			{
+				return;
+			}
+			// the existing entry has just been dropped, try again
+		}
+	}
+
+
+	/**
+	 * Return the time when an auth token with the given refresh time is due for a background refresh. The auth token is refreshed <code>refresh ahead</code>
+	 * plus a random <code>spread</code> milliseconds before its refresh time, but never earlier than halfway through its remaining lifetime.
+	 * 
+	 * @param refreshTime
+	 *            The time in milliseconds since the epoch when the auth token should be refreshed or <code>-1</code> if that's unknown.
+	 * @return The time in milliseconds since the epoch when the auth token is due or <code>-1</code> if that's unknown.
+	 */
+	private long getDueTime(long refreshTime)
+	{
+		if (refreshTime < 0)
+		{
+			return -1;
+		}
+		long ahead = mRefreshAhead + (long) (mSpread * Math.random());
+		long maxAhead = (long) ((refreshTime - mClock.currentTimeMillis()) * MAX_REFRESH_AHEAD_FRACTION);
+		return refreshTime - Math.max(Math.min(ahead, maxAhead), 0);
+	}
+
+
+	/**
+	 * Schedule the next refresh check of the given entry.
+	 * 
+	 * @param entry
+	 *            The {@link Entry} to check.
+	 * @param dueTime
+	 *            The time in milliseconds since the epoch when the auth token is due or <code>-1</code> if that's unknown.
+	 */
+	private void schedule(final Entry entry, long dueTime)
+	{
+		long delay;
+		if (dueTime < 0)
+		{
+			delay = mCheckInterval + (long) (mSpread * Math.random());
+		}
+		else
+		{
+			delay = Math.max(dueTime - mClock.currentTimeMillis(), MIN_REFRESH_DELAY);
+		}
+
+		mScheduler.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// the refresh blocks, don't run it on the scheduler
+				mExecutor.execute(entry);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Refresh the auth token of the given provider if it's due and hand the new auth token to all live providers.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account} of the auth token.
+	 * @param provider
+	 *            The {@link AuthenticationProvider} that owns the auth token.
+	 * @param providers
+	 *            All live {@link AuthenticationProvider}s of the account and auth token type, including <code>provider</code>.
+	 * @param currentAuthToken
+	 *            The current auth token.
+	 * @param dueTime
+	 *            The time in milliseconds since the epoch when the current auth token is due or <code>-1</code> if that's unknown.
+	 * @return The new auth token or <code>currentAuthToken</code> if no refresh was due.
+	 * @throws Exception
+	 *             if the refresh failed.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends AuthToken> T refresh(Context context, Account account, AuthenticationProvider<T> provider,
+		List<AuthenticationProvider<? extends AuthToken>> providers, AuthToken currentAuthToken, long dueTime) throws Exception
+	{
+		T authToken = (T) currentAuthToken;
+		if (provider.needsRefresh(authToken) || dueTime >= 0 && dueTime <= mClock.currentTimeMillis())
+		{
+			provider.refreshAuthToken(context, account, authToken);
+			// the old auth token has been invalidated, so every live provider needs the new one
+			for (AuthenticationProvider<? extends AuthToken> other : providers)
+			{
+				if (other != provider)
+				{
+					other.reloadAuthToken(context, account);
+				}
+			}
+			authToken = provider.reloadAuthToken(context, account);
+		}
+		return authToken;
+	}
+
+
+	/**
+	 * Return the refresh time of an auth token of the given provider.
+	 * 
+	 * @param provider
+	 *            The {@link AuthenticationProvider} that owns the auth token.
+	 * @param authToken
+	 *            The auth token.
+	 * @return The time in milliseconds since the epoch when the auth token should be refreshed or <code>-1</code> if that's unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends AuthToken> long getRefreshTime(AuthenticationProvider<T> provider, AuthToken authToken)
+	{
+		return provider.getRefreshTime((T) authToken);
+	}
+
+	/**
+	 * The refresh state of an account and auth token type.
+	 */
+	private final class Entry implements Runnable
+	{
+		private final Context mContext;
+
+		private final Account mAccount;
+
+		private final FetchKey mKey;
+
+		/**
+		 * The providers of the auth token. The last one owns {@link #mAuthToken}.
+		 */
+		private final List<WeakReference<AuthenticationProvider<? extends AuthToken>>> mProviders;
+
+		private AuthToken mAuthToken;
+
+		/**
+		 * The time in milliseconds since the epoch when {@link #mAuthToken} is due or <code>-1</code> if that's unknown.
+		 */
+		private long mDueTime;
+
+		private boolean mDropped;
+
+
+		public Entry(Context context, Account account, FetchKey key, AuthenticationProvider<? extends AuthToken> provider, AuthToken authToken, long dueTime)
+		{
+			mContext = context;
+			mAccount = account;
+			mKey = key;
+			mProviders = new ArrayList<WeakReference<AuthenticationProvider<? extends AuthToken>>>(2);
+			mProviders.add(new WeakReference<AuthenticationProvider<? extends AuthToken>>(provider));
+			mAuthToken = authToken;
+			mDueTime = dueTime;
+		}
+
+
+		/**
+		 * Add a provider to this entry and make its auth token the current one.
+		 * 
+		 * @return <code>false</code> if this entry has been dropped and must not be updated anymore.
+		 */
+		public synchronized boolean update(AuthenticationProvider<? extends AuthToken> provider, AuthToken authToken, long dueTime)
+		{
+			if (mDropped)
+			{
+				return false;
+			}
+			Iterator<WeakReference<AuthenticationProvider<? extends AuthToken>>> iterator = mProviders.iterator();
+			while (iterator.hasNext())
+			{
+				AuthenticationProvider<? extends AuthToken> tracked = iterator.next().get();
+				if (tracked == null || tracked == provider)
+				{
+					iterator.remove();
+				}
+			}
+			mProviders.add(new WeakReference<AuthenticationProvider<? extends AuthToken>>(provider));
+			mAuthToken = authToken;
+			mDueTime = dueTime;
+			return true;
+		}
+
+
+		@Override
+		public void run()
+		{
+			List<AuthenticationProvider<? extends AuthToken>> providers;
+			AuthenticationProvider<? extends AuthToken> provider;
+			AuthToken authToken;
+			long dueTime;
+			synchronized (this)
+			{
+				providers = new ArrayList<AuthenticationProvider<? extends AuthToken>>(mProviders.size());
+				Iterator<WeakReference<AuthenticationProvider<? extends AuthToken>>> iterator = mProviders.iterator();
+				while (iterator.hasNext())
+				{
+					AuthenticationProvider<? extends AuthToken> tracked = iterator.next().get();
+					if (tracked == null)
+					{
+						iterator.remove();
+					}
+					else
+					{
+						providers.add(tracked);
+					}
+				}
+
+				if (providers.isEmpty())
+				{
+					// nobody uses this auth token anymore
+					mDropped = true;
+					mEntries.remove(mKey, this);
+					return;
+				}
+
+				provider = providers.get(providers.size() - 1);
+				authToken = provider.mAuthToken;
+				if (authToken == mAuthToken)
+				{
+					dueTime = mDueTime;
+				}
+				else
+				{
+					// the owner of the tracked auth token is gone, continue with the auth token of the last remaining provider
+					dueTime = mDueTime = getDueTime(getRefreshTime(provider, authToken));
+					mAuthToken = authToken;
+				}
+			}
+
+			try
+			{
+				AuthToken newAuthToken = refresh(mContext, mAccount, provider, providers, authToken, dueTime);
+				long newDueTime = newAuthToken == authToken ? dueTime : getDueTime(getRefreshTime(provider, newAuthToken));
+				synchronized (this)
+				{
+					if (mAuthToken == authToken)
+					{
+						mAuthToken = newAuthToken;
+						mDueTime = newDueTime;
+					}
+					dueTime = mDueTime;
+				}
+			}
+			catch (Exception e)
+			{
+				// try again after the check interval
+				Log.w(TAG, "background refresh failed", e);
+				dueTime = -1;
+			}
+			schedule(this, dueTime);
+		}
+	}
+
+}
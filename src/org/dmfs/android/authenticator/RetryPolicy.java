@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.io.IOException;
+
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+
+
+/**
+ * A policy that determines if and when a failed attempt to get an auth token is retried. It supports a maximum number of attempts, exponential backoff with
+ * random jitter and an overall deadline. Override {@link #isRetryable(Exception)} to control which errors are worth a retry.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class RetryPolicy
+{
+	/**
+	 * The default policy. It makes up to three attempts, waiting about 200 and 400 milliseconds between them.
+	 */
+	public final static RetryPolicy DEFAULT = new RetryPolicy(3, 200, 2000, 2f, 0.5f, 0);
+
+	/**
+	 * A policy that doesn't retry at all.
+	 */
+	public final static RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0, 1f, 0f, 0);
+
+	/**
+	 * The maximum number of attempts.
+	 */
+	private final int mMaxAttempts;
+
+	/**
+	 * The delay in milliseconds after the first failed attempt.
+	 */
+	private final long mInitialDelay;
+
+	/**
+	 * The maximum delay in milliseconds between two attempts.
+	 */
+	private final long mMaxDelay;
+
+	/**
+	 * The factor to multiply the delay with after each failed attempt.
+	 */
+	private final float mMultiplier;
+
+	/**
+	 * The fraction of the delay that's randomized.
+	 */
+	private final float mJitter;
+
+	/**
+	 * The maximum time in milliseconds to spend on all attempts or <code>0</code> for no deadline.
+	 */
+	private final long mDeadline;
+
+
+	/**
+	 * Create a new retry policy.
+	 * 
+	 * @param maxAttempts
+	 *            The maximum number of attempts, including the first one.
+	 * @param initialDelay
+	 *            The delay in milliseconds after the first failed attempt.
+	 * @param maxDelay
+	 *            The maximum delay in milliseconds between two attempts.
+	 * @param multiplier
+	 *            The factor to multiply the delay with after each failed attempt. Use <code>1</code> for a constant delay.
+	 * @param jitter
+	 *            The fraction of the delay that's randomized, between <code>0</code> (no jitter) and <code>1</code> (the delay is anything between
+	 *            <code>0</code> and the computed delay).
+	 * @param deadline
+	 *            The maximum time in milliseconds to spend on all attempts or <code>0</code> for no deadline. No retry is scheduled if it would start after
+	 *            the deadline.
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, float multiplier, float jitter, long deadline)
+	{
+		if (maxAttempts < 1)
+		{
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		if (jitter < 0 || jitter > 1)
+		{
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+		}
+		mMaxAttempts = maxAttempts;
+		mInitialDelay = initialDelay;
+		mMaxDelay = Math.max(initialDelay, maxDelay);
+		mMultiplier = multiplier;
+		mJitter = jitter;
+		mDeadline = deadline;
+	}
+
+
+	/**
+	 * Return the delay before the next attempt.
+	 * 
+	 * @param failedAttempts
+	 *            The number of attempts that failed so far.
+	 * @param elapsed
+	 *            The time in milliseconds since the first attempt started.
+	 * @param error
+	 *            The error of the last attempt.
+	 * @return The delay in milliseconds or <code>-1</code> if no further attempt should be made.
+	 */
+	public long getRetryDelay(int failedAttempts, long elapsed, Exception error)
+	{
+		if (failedAttempts >= mMaxAttempts || !isRetryable(error))
+		{
+			return -1;
+		}
+
+		double delay = mInitialDelay * Math.pow(mMultiplier, failedAttempts - 1);
+		if (delay > mMaxDelay)
+		{
+			delay = mMaxDelay;
+		}
+
+		// spread the retries of different clients, so they don't hit the authenticator in lockstep
+		long result = (long) (delay * (1 - mJitter * Math.random()));
+
+		if (mDeadline > 0 && elapsed + result >= mDeadline)
+		{
+			return -1;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns whether an attempt that failed with the given error is worth another attempt.
+	 * <p>
+	 * The default implementation returns <code>true</code> for {@link OperationCanceledException}s, {@link AuthenticatorException}s,
+	 * {@link IOException}s and {@link AuthenticationException}s, except for {@link CircuitOpenException}s.
+	 * </p>
+	 * 
+	 * @param error
+	 *            The error of the failed attempt.
+	 * @return <code>true</code> if the attempt should be retried, <code>false</code> otherwise.
+	 */
+	public boolean isRetryable(Exception error)
+	{
+		if (error instanceof CircuitOpenException)
+		{
+			// the authenticator is known to be unhealthy
+			return false;
+		}
+		return error instanceof OperationCanceledException || error instanceof AuthenticatorException || error instanceof IOException
+			|| error instanceof AuthenticationException;
+	}
+
+
+	/**
+	 * Return the maximum number of attempts.
+	 * 
+	 * @return The maximum number of attempts, including the first one.
+	 */
+	public int getMaxAttempts()
+	{
+		return mMaxAttempts;
+	}
+}
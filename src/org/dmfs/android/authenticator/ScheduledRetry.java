@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.os.SystemClock;
+
+
+/**
+ * An operation that's retried according to a {@link RetryPolicy} without blocking any thread between two attempts. Each attempt is scheduled on a
+ * {@link ScheduledExecutorService}, so the thread that executed a failed attempt is free to do other work until the next attempt is due. Optionally the
+ * attempts are executed on a separate {@link Executor}, in which case the scheduler only waits for the retry delays.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ * 
+ * @param <V>
+ *            The type of the result.
+ */
+public final class ScheduledRetry<V> implements Future<V>
+{
+	/**
+	 * A single attempt of the operation.
+	 */
+	private final Callable<V> mAttempt;
+
+	private final RetryPolicy mRetryPolicy;
+
+	private final ScheduledExecutorService mScheduler;
+
+	/**
+	 * The {@link Executor} to execute the attempts on or <code>null</code> to execute them on {@link #mScheduler}.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * The callback to notify or <code>null</code>.
+	 */
+	private final AuthenticationCallback<V> mCallback;
+
+	/**
+	 * A latch that's released when the operation is done.
+	 */
+	private final CountDownLatch mDone = new CountDownLatch(1);
+
+	/**
+	 * The time when the first attempt was started in milliseconds since boot.
+	 */
+	private long mStart;
+
+	/**
+	 * The number of failed attempts.
+	 */
+	private int mFailedAttempts;
+
+	/**
+	 * The pending attempt.
+	 */
+	private Future<?> mPending;
+
+	/**
+	 * The thread that executes the current attempt or <code>null</code>.
+	 */
+	private Thread mRunner;
+
+	private boolean mCancelled;
+
+	private V mResult;
+
+	private Exception mError;
+
+	/**
+	 * Runs one attempt and schedules the next one if it fails.
+	 */
+	private final Runnable mAttemptRunner = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			runAttempt();
+		}
+	};
+
+	/**
+	 * Hands a due attempt over to {@link #mExecutor}.
+	 */
+	private final Runnable mDispatcher = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				mExecutor.execute(mAttemptRunner);
+			}
+			catch (RejectedExecutionException e)
+			{
+				complete(null, e);
+			}
+		}
+	};
+
+
+	/**
+	 * Start a new operation. The first attempt is scheduled immediately.
+	 * 
+	 * @param attempt
+	 *            A {@link Callable} that executes a single attempt of the operation.
+	 * @param retryPolicy
+	 *            The {@link RetryPolicy} that determines if and when a failed attempt is retried.
+	 * @param scheduler
+	 *            The {@link ScheduledExecutorService} to execute the attempts on.
+	 * @param callback
+	 *            An {@link AuthenticationCallback} to notify when the operation is done or <code>null</code>.
+	 * @return A {@link ScheduledRetry} that completes with the result of the first successful attempt or with the error of the last attempt.
+	 */
+	public static <V> ScheduledRetry<V> start(Callable<V> attempt, RetryPolicy retryPolicy, ScheduledExecutorService scheduler,
+		AuthenticationCallback<V> callback)
+	{
+		return start(attempt, retryPolicy, scheduler, null, callback);
+	}
+
+
+	/**
+	 * Start a new operation that executes its attempts on the given {@link Executor}. The scheduler is only used to wait for the retry delays, so a long
+	 * running attempt never delays the attempts of other operations on the same scheduler. The first attempt is executed immediately.
+	 * 
+	 * @param attempt
+	 *            A {@link Callable} that executes a single attempt of the operation.
+	 * @param retryPolicy
+	 *            The {@link RetryPolicy} that determines if and when a failed attempt is retried.
+	 * @param scheduler
+	 *            The {@link ScheduledExecutorService} to wait for the retry delays.
+	 * @param executor
+	 *            The {@link Executor} to execute the attempts on. It must not execute the attempts on the calling thread. If this is <code>null</code> the
+	 *            attempts are executed on the scheduler.
+	 * @param callback
+	 *            An {@link AuthenticationCallback} to notify when the operation is done or <code>null</code>.
+	 * @return A {@link ScheduledRetry} that completes with the result of the first successful attempt or with the error of the last attempt.
+	 */
+	public static <V> ScheduledRetry<V> start(Callable<V> attempt, RetryPolicy retryPolicy, ScheduledExecutorService scheduler, Executor executor,
+		AuthenticationCallback<V> callback)
+	{
+		ScheduledRetry<V> result = new ScheduledRetry<V>(attempt, retryPolicy, scheduler, executor, callback);
+		synchronized (result)
+		{
+			result.mStart = SystemClock.elapsedRealtime();
+			result.schedule(0);
+		}
+		return result;
+	}
+
+
+	private ScheduledRetry(Callable<V> attempt, RetryPolicy retryPolicy, ScheduledExecutorService scheduler, Executor executor,
+		AuthenticationCallback<V> callback)
+	{
+		mAttempt = attempt;
+		mRetryPolicy = retryPolicy;
+		mScheduler = scheduler;
+		mExecutor = executor;
+		mCallback = callback;
+	}
+
+
+	/**
+	 * Schedule the next attempt. Must be called while holding the lock of this instance.
+	 * 
+	 * @param delay
+	 *            The delay in milliseconds.
+	 */
+	private void schedule(long delay)
+	{
+		try
+		{
+			if (mExecutor == null)
+			{
+				mPending = mScheduler.schedule(mAttemptRunner, delay, TimeUnit.MILLISECONDS);
+			}
+			else if (delay <= 0)
+			{
+				mPending = null;
+				mExecutor.execute(mAttemptRunner);
+			}
+			else
+			{
+				mPending = mScheduler.schedule(mDispatcher, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (RejectedExecutionException e)
+		{
+			complete(null, e);
+		}
+	}
+
+
+	private void runAttempt()
+	{
+		synchronized (this)
+		{
+			if (isDone())
+			{
+				return;
+			}
+			mRunner = Thread.currentThread();
+		}
+
+		V result;
+		try
+		{
+			result = mAttempt.call();
+		}
+		catch (Exception e)
+		{
+			synchronized (this)
+			{
+				mRunner = null;
+				if (isDone())
+				{
+					return;
+				}
+
+				long delay = mRetryPolicy.getRetryDelay(++mFailedAttempts, SystemClock.elapsedRealtime() - mStart, e);
+				if (delay >= 0)
+				{
+					schedule(delay);
+					return;
+				}
+			}
+			complete(null, e);
+			return;
+		}
+		synchronized (this)
+		{
+			mRunner = null;
+		}
+		complete(result, null);
+	}
+
+
+	/**
+	 * Complete the operation and notify the callback.
+	 * 
+	 * @param result
+	 *            The result.
+	 * @param error
+	 *            The error or <code>null</code> if the operation succeeded.
+	 */
+	private void complete(V result, Exception error)
+	{
+		synchronized (this)
+		{
+			if (isDone())
+			{
+				return;
+			}
+			mResult = result;
+			mError = error;
+			mDone.countDown();
+		}
+
+		if (mCallback != null)
+		{
+			if (error == null)
+			{
+				mCallback.onResult(result);
+			}
+			else
+			{
+				mCallback.onError(error);
+			}
+		}
+	}
+
+
+	/**
+	 * Return the number of attempts that failed so far.
+	 * 
+	 * @return The number of failed attempts.
+	 */
+	public synchronized int getFailedAttempts()
+	{
+		return mFailedAttempts;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		synchronized (this)
+		{
+			if (isDone())
+			{
+				return false;
+			}
+			mCancelled = true;
+			mDone.countDown();
+			if (mPending != null)
+			{
+				mPending.cancel(mayInterruptIfRunning);
+			}
+			if (mayInterruptIfRunning && mRunner != null)
+			{
+				mRunner.interrupt();
+			}
+			return true;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	@Override
+	public synchronized boolean isCancelled()
+	{
+		return mCancelled;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	@Override
+	public boolean isDone()
+	{
+		return mDone.getCount() == 0;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Future#get()
+	 */
+	@Override
+	public V get() throws InterruptedException, ExecutionException
+	{
+		mDone.await();
+		return getResult();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if (!mDone.await(timeout, unit))
+		{
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+
+	private synchronized V getResult() throws ExecutionException
+	{
+		if (mCancelled)
+		{
+			throw new CancellationException();
+		}
+		if (mError != null)
+		{
+			throw new ExecutionException(mError);
+		}
+		return mResult;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Coalesces concurrent operations with the same key. If an operation is executed while another operation with the same key is in flight, the caller doesn't
+ * start a new operation but waits for the result of the one in flight. Once an operation has completed the next call with its key starts a new operation.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ * 
+ * @param <K>
+ *            The type of the keys.
+ * @param <V>
+ *            The type of the results.
+ */
+public final class SingleFlight<K, V>
+{
+	/**
+	 * The operations in flight.
+	 */
+	private final ConcurrentHashMap<K, FutureTask<V>> mInFlight = new ConcurrentHashMap<K, FutureTask<V>>(16);
+
+
+	/**
+	 * Execute the given operation, unless an operation with the same key is in flight. In that case wait for the result of that operation instead. All
+	 * callers receive the same result or the same {@link Exception}.
+	 * 
+	 * @param key
+	 *            The key of the operation.
+	 * @param operation
+	 *            The operation to execute.
+	 * @return The result of the operation.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting for another thread to complete the operation.
+	 * @throws Exception
+	 *             if the operation failed.
+	 */
+	public V execute(K key, Callable<V> operation) throws Exception
+	{
+		FutureTask<V> task = mInFlight.get(key);
+		if (task == null)
+		{
+			FutureTask<V> newTask = new FutureTask<V>(operation);
+			task = mInFlight.putIfAbsent(key, newTask);
+			if (task == null)
+			{
+				// we're the first caller, run the operation on this thread
+				task = newTask;
+				try
+				{
+					newTask.run();
+				}
+				finally
+				{
+					mInFlight.remove(key, newTask);
+				}
+			}
+		}
+
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw (Exception) cause;
+		}
+	}
+}
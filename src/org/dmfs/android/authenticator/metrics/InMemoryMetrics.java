@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
+
+
+/**
+ * A {@link MetricsListener} that aggregates the metrics in memory. It counts the executions, retries and failures of each stage and the hits and misses of
+ * each cache. The durations of each stage are recorded in a histogram with power of two buckets. Use {@link #snapshot()} to read the current values.
+ * <p>
+ * All methods are lock free.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class InMemoryMetrics implements MetricsListener
+{
+	/**
+	 * The number of histogram buckets per stage. Bucket <code>i</code> counts durations of less than <code>2^i</code> nanoseconds that don't fit into bucket
+	 * <code>i-1</code>.
+	 */
+	private final static int BUCKETS = 64;
+
+	private final static int STAGES = Stage.values().length;
+
+	private final static int CACHES = Cache.values().length;
+
+	private final AtomicLongArray mStageCounts = new AtomicLongArray(STAGES);
+
+	private final AtomicLongArray mStageNanos = new AtomicLongArray(STAGES);
+
+	private final AtomicLongArray mHistograms = new AtomicLongArray(STAGES * BUCKETS);
+
+	private final AtomicLongArray mRetries = new AtomicLongArray(STAGES);
+
+	private final AtomicLongArray mStageFailures = new AtomicLongArray(STAGES);
+
+	private final AtomicLongArray mCacheHits = new AtomicLongArray(CACHES);
+
+	private final AtomicLongArray mCacheMisses = new AtomicLongArray(CACHES);
+
+	/**
+	 * The number of failures by exception class name.
+	 */
+	private final ConcurrentHashMap<String, AtomicLong> mFailures = new ConcurrentHashMap<String, AtomicLong>(16);
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.metrics.MetricsListener#onStage(org.dmfs.android.authenticator.metrics.Metrics.Stage, long)
+	 */
+	@Override
+	public void onStage(Stage stage, long nanos)
+	{
+		int index = stage.ordinal();
+		mStageCounts.incrementAndGet(index);
+		mStageNanos.addAndGet(index, nanos);
+		mHistograms.incrementAndGet(index * BUCKETS + bucket(nanos));
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.metrics.MetricsListener#onRetry(org.dmfs.android.authenticator.metrics.Metrics.Stage)
+	 */
+	@Override
+	public void onRetry(Stage stage)
+	{
+		mRetries.incrementAndGet(stage.ordinal());
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.metrics.MetricsListener#onCacheAccess(org.dmfs.android.authenticator.metrics.Metrics.Cache, boolean)
+	 */
+	@Override
+	public void onCacheAccess(Cache cache, boolean hit)
+	{
+		(hit ? mCacheHits : mCacheMisses).incrementAndGet(cache.ordinal());
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.metrics.MetricsListener#onFailure(org.dmfs.android.authenticator.metrics.Metrics.Stage, java.lang.Exception)
+	 */
+	@Override
+	public void onFailure(Stage stage, Exception error)
+	{
+		mStageFailures.incrementAndGet(stage.ordinal());
+
+		String type = error.getClass().getName();
+		AtomicLong counter = mFailures.get(type);
+		if (counter == null)
+		{
+			AtomicLong newCounter = new AtomicLong();
+			counter = mFailures.putIfAbsent(type, newCounter);
+			if (counter == null)
+			{
+				counter = newCounter;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+
+	/**
+	 * Return a snapshot of the current values. Since the values are updated concurrently, the snapshot is not guaranteed to be consistent across different
+	 * metrics.
+	 * 
+	 * @return A {@link Snapshot}.
+	 */
+	public Snapshot snapshot()
+	{
+		Map<String, Long> failures = new HashMap<String, Long>(mFailures.size() * 4 / 3 + 1);
+		for (Map.Entry<String, AtomicLong> entry : mFailures.entrySet())
+		{
+			failures.put(entry.getKey(), entry.getValue().get());
+		}
+		return new Snapshot(toArray(mStageCounts), toArray(mStageNanos), toArray(mHistograms), toArray(mRetries), toArray(mStageFailures),
+			toArray(mCacheHits), toArray(mCacheMisses), Collections.unmodifiableMap(failures));
+	}
+
+
+	/**
+	 * Return the histogram bucket of the given duration.
+	 */
+	private static int bucket(long nanos)
+	{
+		return nanos <= 0 ? 0 : Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+	}
+
+
+	private static long[] toArray(AtomicLongArray array)
+	{
+		int length = array.length();
+		long[] result = new long[length];
+		for (int i = 0; i < length; ++i)
+		{
+			result[i] = array.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * An immutable snapshot of the metrics of an {@link InMemoryMetrics} instance.
+	 */
+	public final static class Snapshot
+	{
+		private final long[] mStageCounts;
+
+		private final long[] mStageNanos;
+
+		private final long[] mHistograms;
+
+		private final long[] mRetries;
+
+		private final long[] mStageFailures;
+
+		private final long[] mCacheHits;
+
+		private final long[] mCacheMisses;
+
+		private final Map<String, Long> mFailures;
+
+
+		private Snapshot(long[] stageCounts, long[] stageNanos, long[] histograms, long[] retries, long[] stageFailures, long[] cacheHits,
+			long[] cacheMisses, Map<String, Long> failures)
+		{
+			mStageCounts = stageCounts;
+			mStageNanos = stageNanos;
+			mHistograms = histograms;
+			mRetries = retries;
+			mStageFailures = stageFailures;
+			mCacheHits = cacheHits;
+			mCacheMisses = cacheMisses;
+			mFailures = failures;
+		}
+
+
+		/**
+		 * Return how often the given stage has been completed.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @return The number of completions.
+		 */
+		public long getCount(Stage stage)
+		{
+			return mStageCounts[stage.ordinal()];
+		}
+
+
+		/**
+		 * Return the total time spent in the given stage.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @return The total time in nanoseconds.
+		 */
+		public long getTotalNanos(Stage stage)
+		{
+			return mStageNanos[stage.ordinal()];
+		}
+
+
+		/**
+		 * Return the latency histogram of the given stage. Element <code>i</code> contains the number of durations <code>d</code> with
+		 * <code>2^(i-1) &lt;= d &lt; 2^i</code> nanoseconds. Element <code>0</code> counts durations of <code>0</code>.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @return An array with the counts of each bucket.
+		 */
+		public long[] getHistogram(Stage stage)
+		{
+			long[] result = new long[BUCKETS];
+			System.arraycopy(mHistograms, stage.ordinal() * BUCKETS, result, 0, BUCKETS);
+			return result;
+		}
+
+
+		/**
+		 * Return an upper bound of the given percentile of the durations of the given stage. The result is accurate up to a factor of two.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @param percentile
+		 *            The percentile, between <code>0</code> and <code>1</code>.
+		 * @return The upper bound in nanoseconds or <code>0</code> if the stage has not been completed yet.
+		 */
+		public long getPercentile(Stage stage, float percentile)
+		{
+			int offset = stage.ordinal() * BUCKETS;
+			long total = 0;
+			for (int i = 0; i < BUCKETS; ++i)
+			{
+				total += mHistograms[offset + i];
+			}
+			if (total == 0)
+			{
+				return 0;
+			}
+
+			long threshold = (long) Math.ceil(total * percentile);
+			long count = 0;
+			for (int i = 0; i < BUCKETS; ++i)
+			{
+				count += mHistograms[offset + i];
+				if (count >= threshold && count > 0)
+				{
+					return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+
+		/**
+		 * Return how often the given stage has been retried.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @return The number of retries.
+		 */
+		public long getRetries(Stage stage)
+		{
+			return mRetries[stage.ordinal()];
+		}
+
+
+		/**
+		 * Return how often the given stage failed.
+		 * 
+		 * @param stage
+		 *            The {@link Stage}.
+		 * @return The number of failures.
+		 */
+		public long getFailures(Stage stage)
+		{
+			return mStageFailures[stage.ordinal()];
+		}
+
+
+		/**
+		 * Return the number of hits of the given cache.
+		 * 
+		 * @param cache
+		 *            The {@link Cache}.
+		 * @return The number of hits.
+		 */
+		public long getHits(Cache cache)
+		{
+			return mCacheHits[cache.ordinal()];
+		}
+
+
+		/**
+		 * Return the number of misses of the given cache.
+		 * 
+		 * @param cache
+		 *            The {@link Cache}.
+		 * @return The number of misses.
+		 */
+		public long getMisses(Cache cache)
+		{
+			return mCacheMisses[cache.ordinal()];
+		}
+
+
+		/**
+		 * Return the number of failures by exception type.
+		 * 
+		 * @return An unmodifiable {@link Map} of fully qualified exception class names to the number of failures.
+		 */
+		public Map<String, Long> getFailuresByType()
+		{
+			return mFailures;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.metrics;
+
+/**
+ * Reports the metrics of the auth token pipeline to the current {@link MetricsListener}. By default no listener is set and reporting costs no more than a
+ * volatile read, in particular no time is measured.
+ * <p>
+ * Measure a stage like this:
+ * </p>
+ * 
+ * <pre>
+ * long start = Metrics.start();
+ * // do the work
+ * Metrics.stage(Stage.SECRET_READ, start);
+ * </pre>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class Metrics
+{
+	/**
+	 * The stages of the auth token pipeline.
+	 */
+	public enum Stage
+	{
+		/**
+		 * Looking up the auth scheme handler of an auth token type.
+		 */
+		HANDLER_LOOKUP,
+
+		/**
+		 * Reading the protected secret from the account store.
+		 */
+		SECRET_READ,
+
+		/**
+		 * De-obfuscating and parsing a protected secret or auth token.
+		 */
+		UNPROTECT,
+
+		/**
+		 * Obfuscating a new secret or auth token.
+		 */
+		OBFUSCATE,
+
+		/**
+		 * Issuing an auth token in the authenticator, including unprotecting the secret and obfuscating the auth token.
+		 */
+		ISSUE_AUTH_TOKEN,
+
+		/**
+		 * A single attempt of an {@link org.dmfs.android.authenticator.AuthenticationProvider} to get an auth token from the account store.
+		 */
+		FETCH_AUTH_TOKEN;
+	}
+
+	/**
+	 * The caches of the auth token pipeline.
+	 */
+	public enum Cache
+	{
+		/**
+		 * The cache of immutable auth scheme handlers.
+		 */
+		HANDLER,
+
+		/**
+		 * The cache of unprotected secrets.
+		 */
+		SECRET,
+
+		/**
+		 * The cache of requests the authenticator knows to fail.
+		 */
+		NEGATIVE,
+
+		/**
+		 * The cache of keys derived from key fragments.
+		 */
+		DERIVED_KEY;
+	}
+
+	/**
+	 * The listener that ignores all metrics.
+	 */
+	private final static MetricsListener NO_OP = new MetricsListener()
+	{
+		@Override
+		public void onStage(Stage stage, long nanos)
+		{
+		}
+
+
+		@Override
+		public void onRetry(Stage stage)
+		{
+		}
+
+
+		@Override
+		public void onCacheAccess(Cache cache, boolean hit)
+		{
+		}
+
+
+		@Override
+		public void onFailure(Stage stage, Exception error)
+		{
+		}
+	};
+
+	/**
+	 * The current listener.
+	 */
+	private static volatile MetricsListener LISTENER = NO_OP;
+
+
+	private Metrics()
+	{
+	}
+
+
+	/**
+	 * Set the {@link MetricsListener} to report to.
+	 * 
+	 * @param listener
+	 *            The {@link MetricsListener} or <code>null</code> to stop reporting.
+	 */
+	public static void setListener(MetricsListener listener)
+	{
+		LISTENER = listener == null ? NO_OP : listener;
+	}
+
+
+	/**
+	 * Return the current {@link MetricsListener}.
+	 * 
+	 * @return The {@link MetricsListener}, never <code>null</code>.
+	 */
+	public static MetricsListener getListener()
+	{
+		return LISTENER;
+	}
+
+
+	/**
+	 * Return the start time of a stage to pass to {@link #stage(Stage, long)}.
+	 * 
+	 * @return The current time in nanoseconds or <code>0</code> if no listener is set.
+	 */
+	public static long start()
+	{
+		return LISTENER == NO_OP ? 0 : System.nanoTime();
+	}
+
+
+	/**
+	 * Report the completion of a stage.
+	 * 
+	 * @param stage
+	 *            The {@link Stage}.
+	 * @param start
+	 *            The value returned by {@link #start()} when the stage started.
+	 */
+	public static void stage(Stage stage, long start)
+	{
+		MetricsListener listener = LISTENER;
+		if (listener != NO_OP && start != 0)
+		{
+			listener.onStage(stage, System.nanoTime() - start);
+		}
+	}
+
+
+	/**
+	 * Report a retry of a stage.
+	 * 
+	 * @param stage
+	 *            The {@link Stage} that's retried.
+	 */
+	public static void retry(Stage stage)
+	{
+		LISTENER.onRetry(stage);
+	}
+
+
+	/**
+	 * Report an access to a cache.
+	 * 
+	 * @param cache
+	 *            The {@link Cache}.
+	 * @param hit
+	 *            <code>true</code> if the cache contained the requested value, <code>false</code> otherwise.
+	 */
+	public static void cacheAccess(Cache cache, boolean hit)
+	{
+		LISTENER.onCacheAccess(cache, hit);
+	}
+
+
+	/**
+	 * Report the failure of a stage.
+	 * 
+	 * @param stage
+	 *            The {@link Stage} that failed.
+	 * @param error
+	 *            The error.
+	 */
+	public static void failure(Stage stage, Exception error)
+	{
+		LISTENER.onFailure(stage, error);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.metrics;
+
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
+
+
+/**
+ * Receives the metrics of the auth token pipeline. Implementations are called synchronously from the threads that do the work, so they must be thread safe
+ * and fast. Set a listener with {@link Metrics#setListener(MetricsListener)}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface MetricsListener
+{
+	/**
+	 * Called when a stage has been completed, successfully or not.
+	 * 
+	 * @param stage
+	 *            The {@link Stage}.
+	 * @param nanos
+	 *            The duration of the stage in nanoseconds.
+	 */
+	public void onStage(Stage stage, long nanos);
+
+
+	/**
+	 * Called when a failed stage is retried.
+	 * 
+	 * @param stage
+	 *            The {@link Stage} that's retried.
+	 */
+	public void onRetry(Stage stage);
+
+
+	/**
+	 * Called when a cache has been accessed.
+	 * 
+	 * @param cache
+	 *            The {@link Cache}.
+	 * @param hit
+	 *            <code>true</code> if the cache contained the requested value, <code>false</code> otherwise.
+	 */
+	public void onCacheAccess(Cache cache, boolean hit);
+
+
+	/**
+	 * Called when a stage failed.
+	 * 
+	 * @param stage
+	 *            The {@link Stage} that failed.
+	 * @param error
+	 *            The error.
+	 */
+	public void onFailure(Stage stage, Exception error);
+}
@@ -19,11 +19,28 @@
 
 package org.dmfs.android.authenticator.obfuscater;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
 import android.content.Context;
 
 
 /**
  * An abstract obfuscater for strings.
+ * <p>
+ * Besides the {@link String} based methods there are methods that take the plain text from a <code>char[]</code> and write it to a {@link CharBuffer}. Use
+ * these to keep plain text secrets in buffers that can be reused and wiped (see {@link #wipe(CharBuffer)}) instead of in {@link String}s that linger on the
+ * heap until they are garbage collected. Their default implementations delegate to the {@link String} based methods, implementations should override them.
+ * </p>
+ * <p>
+ * Large secrets can be obfuscated with {@link #obfuscatingStream(Context, String, OutputStream)} and {@link #deobfuscatingStream(Context, String, InputStream)}.
+ * The default implementations of these buffer the entire content, implementations should override them to process the data in chunks of a fixed size.
+ * </p>
  * 
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -57,4 +74,227 @@ public abstract class AbstractObfuscater
 	 * @return The plain text.
 	 */
 	public abstract String deobfuscate(Context context, String keyFragment, String obfuscatedText);
+
+
+	/**
+	 * Return the id of the format this obfuscater produces. {@link Obfuscater} puts it in front of obfuscated secrets, so they can still be read after the app
+	 * switched to another obfuscater (see {@link Obfuscater#registerFormat(AbstractObfuscater)}). Return a new id whenever the output changes in an
+	 * incompatible way.
+	 * <p>
+	 * The default implementation returns <code>null</code>, which means obfuscated texts are written without a format id. Such texts are always read with the
+	 * legacy obfuscater (see {@link Obfuscater#setLegacyObfuscaterImpl(AbstractObfuscater)}).
+	 * </p>
+	 * 
+	 * @return A short id that doesn't contain {@link Obfuscater#FORMAT_DELIMITER} or <code>null</code>.
+	 */
+	public String getFormatId()
+	{
+		return null;
+	}
+
+
+	/**
+	 * Obfuscate the given plain text characters. The result must be equal to the result of {@link #obfuscate(Context, String, String)} for the same plain
+	 * text.
+	 * <p>
+	 * The default implementation creates a {@link String} from the characters and calls {@link #obfuscate(Context, String, String)}.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            A key fragment to use or <code>null</code>.
+	 * @param plainText
+	 *            An array that contains the plain text to obfuscate. It's not modified, so the caller can wipe it afterwards.
+	 * @param offset
+	 *            The position of the first character of the plain text.
+	 * @param length
+	 *            The number of characters of the plain text.
+	 * @return The obfuscated text.
+	 */
+	public String obfuscate(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		return obfuscate(context, keyFragment, new String(plainText, offset, length));
+	}
+
+
+	/**
+	 * De-obfuscate the given obfuscated text into a {@link CharBuffer}. The plain text is written to the given buffer if it's large enough and has a backing
+	 * array, otherwise a new buffer is returned. The caller should wipe the returned buffer (see {@link #wipe(CharBuffer)}) once it's done with the plain text.
+	 * <p>
+	 * The default implementation calls {@link #deobfuscate(Context, String, String)} and copies the result.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            A key fragment to use or <code>null</code>. This must be the same value that was provided when the text was obfuscated.
+	 * @param obfuscatedText
+	 *            The obfuscated text.
+	 * @param buffer
+	 *            A {@link CharBuffer} to write the plain text to or <code>null</code>. Its content is replaced.
+	 * @return A {@link CharBuffer} that contains the plain text between its position and its limit or <code>null</code> if <code>obfuscatedText</code> was
+	 *         <code>null</code>.
+	 */
+	public CharBuffer deobfuscate(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		if (obfuscatedText == null)
+		{
+			return null;
+		}
+		String plainText = deobfuscate(context, keyFragment, obfuscatedText.toString());
+		if (plainText == null)
+		{
+			return null;
+		}
+
+		int length = plainText.length();
+		CharBuffer result = buffer != null && !buffer.isReadOnly() && buffer.capacity() >= length ? buffer : CharBuffer.allocate(length);
+		result.clear();
+		result.put(plainText);
+		result.flip();
+		return result;
+	}
+
+
+	/**
+	 * Return an {@link OutputStream} that obfuscates all bytes written to it and writes the obfuscated text to the given {@link OutputStream}. The result must
+	 * be equal to the UTF-8 encoded result of {@link #obfuscate(Context, String, String)} for the same (UTF-8 encoded) plain text.
+	 * <p>
+	 * The obfuscation is not complete before the returned stream has been closed. Closing the returned stream closes <code>out</code> as well.
+	 * </p>
+	 * <p>
+	 * The default implementation collects all plain text in memory and obfuscates it when the stream is closed.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            A key fragment to use or <code>null</code>.
+	 * @param out
+	 *            The {@link OutputStream} to write the obfuscated text to.
+	 * @return An {@link OutputStream} to write the plain text to.
+	 */
+	public OutputStream obfuscatingStream(final Context context, final String keyFragment, final OutputStream out)
+	{
+		return new ByteArrayOutputStream()
+		{
+			private boolean mClosed;
+
+
+			@Override
+			public void close() throws IOException
+			{
+				if (mClosed)
+				{
+					return;
+				}
+				mClosed = true;
+
+				String plainText = new String(buf, 0, count, TextCodec.UTF8);
+				Arrays.fill(buf, 0, count, (byte) 0);
+				try
+				{
+					out.write(obfuscate(context, keyFragment, plainText).getBytes(TextCodec.UTF8));
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * Return an {@link InputStream} that returns the de-obfuscated bytes of the obfuscated text read from the given {@link InputStream}. This reverses
+	 * {@link #obfuscatingStream(Context, String, OutputStream)}. Closing the returned stream closes <code>in</code> as well.
+	 * <p>
+	 * The default implementation reads the entire obfuscated text into memory on the first read and de-obfuscates it with
+	 * {@link #deobfuscate(Context, String, String)}.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            A key fragment to use or <code>null</code>. This must be the same value that was provided when the text was obfuscated.
+	 * @param in
+	 *            The {@link InputStream} to read the obfuscated text from.
+	 * @return An {@link InputStream} to read the plain text from.
+	 */
+	public InputStream deobfuscatingStream(final Context context, final String keyFragment, final InputStream in)
+	{
+		return new InputStream()
+		{
+			private InputStream mPlainText;
+
+
+			@Override
+			public int read() throws IOException
+			{
+				return plainText().read();
+			}
+
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException
+			{
+				return plainText().read(buffer, offset, length);
+			}
+
+
+			@Override
+			public void close() throws IOException
+			{
+				in.close();
+			}
+
+
+			private InputStream plainText() throws IOException
+			{
+				if (mPlainText == null)
+				{
+					ByteArrayOutputStream obfuscatedText = new ByteArrayOutputStream();
+					byte[] buffer = new byte[4096];
+					int count;
+					while ((count = in.read(buffer)) >= 0)
+					{
+						obfuscatedText.write(buffer, 0, count);
+					}
+					String plainText = deobfuscate(context, keyFragment, new String(obfuscatedText.toByteArray(), TextCodec.UTF8));
+					mPlainText = new ByteArrayInputStream(plainText == null ? new byte[0] : plainText.getBytes(TextCodec.UTF8));
+				}
+				return mPlainText;
+			}
+		};
+	}
+
+
+	/**
+	 * Overwrite the entire content of the given buffer with zeros and clear it.
+	 * 
+	 * @param buffer
+	 *            The {@link CharBuffer} to wipe or <code>null</code>.
+	 */
+	public static void wipe(CharBuffer buffer)
+	{
+		if (buffer == null || buffer.isReadOnly())
+		{
+			return;
+		}
+
+		buffer.clear();
+		if (buffer.hasArray())
+		{
+			Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), '\0');
+		}
+		else
+		{
+			while (buffer.hasRemaining())
+			{
+				buffer.put('\0');
+			}
+			buffer.clear();
+		}
+	}
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.obfuscater;
+
+import java.lang.reflect.Constructor;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.dmfs.android.authenticator.obfuscater.TextCodec.Scratch;
+
+import android.content.Context;
+
+
+/**
+ * An obfuscater that encrypts the plain text with AES in Galois/Counter Mode. Other than the {@link XOrObfuscater} this authenticates the obfuscated text, so
+ * tampering with it (or using the wrong key fragment) results in an {@link IllegalArgumentException} rather than garbage.
+ * <p>
+ * The AES key is derived from {@link #KEY_MATERIAL} and the key fragment using HMAC-SHA256. Derived keys are kept in a {@link DerivedKeyCache}, so each key
+ * is derived only once per process as long as it's used regularly. The {@link Cipher} instances are cached per thread. The obfuscated text is the Base64
+ * encoded random IV followed by the cipher text and the authentication tag, without padding.
+ * </p>
+ * <p>
+ * <strong>Note:</strong> The key material is part of the app, so this is still obfuscation. It just makes it much harder to recover the plain text.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AesGcmObfuscater extends AbstractObfuscater
+{
+
+	/**
+	 * The id of the format this obfuscater produces.
+	 */
+	public final static String FORMAT_ID = "aesgcm";
+
+	/**
+	 * The material all keys are derived from. You probably want to change this one, to make it more difficult to deobfuscate your secrets.
+	 */
+	private final static byte[] KEY_MATERIAL = { 47, -102, 93, -8, 27, -43, 101, 6, -117, 71, -29, 12, 88, -66, 120, -1, 35, -90, 54, 9, -77, 115, -20, 63,
+		-126, 14, 97, -51, 30, -60, 72, -13 };
+
+	private final static String CIPHER = "AES/GCM/NoPadding";
+
+	private final static String KEY_DERIVATION = "HmacSHA256";
+
+	/**
+	 * The length of the random IV in bytes.
+	 */
+	private final static int IV_LENGTH = 12;
+
+	/**
+	 * The length of the authentication tag in bytes.
+	 */
+	private final static int TAG_LENGTH = 16;
+
+	/**
+	 * The max number of derived keys to keep.
+	 */
+	private final static int MAX_CACHED_KEYS = 16;
+
+	private final static SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * The factory of the GCM parameters. This is resolved once, see {@link #getParameterFactory()}.
+	 */
+	private final static ParameterFactory PARAMETER_FACTORY = getParameterFactory();
+
+	/**
+	 * The keys derived from key fragments.
+	 */
+	private final static DerivedKeyCache DERIVED_KEYS = new DerivedKeyCache(MAX_CACHED_KEYS, "AES", new DerivedKeyCache.KeyDerivation()
+	{
+		@Override
+		public byte[] derive(String keyFragment) throws GeneralSecurityException
+		{
+			Mac mac = Mac.getInstance(KEY_DERIVATION);
+			mac.init(new SecretKeySpec(KEY_MATERIAL, KEY_DERIVATION));
+			return mac.doFinal(keyFragment.getBytes(TextCodec.UTF8));
+		}
+	});
+
+	/**
+	 * The {@link Cipher} and IV buffer of each thread.
+	 */
+	private final static ThreadLocal<CipherState> CIPHER_STATE = new ThreadLocal<CipherState>()
+	{
+		@Override
+		protected CipherState initialValue()
+		{
+			return new CipherState();
+		}
+	};
+
+
+	/**
+	 * Initialize the instance.
+	 */
+	public AesGcmObfuscater()
+	{
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#getFormatId()
+	 */
+	@Override
+	public String getFormatId()
+	{
+		return FORMAT_ID;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscate(android.content.Context, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String obfuscate(Context context, String keyFragment, String plainText)
+	{
+		if (plainText == null || plainText.length() == 0)
+		{
+			return plainText;
+		}
+		return obfuscate(keyFragment, plainText);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscate(android.content.Context, java.lang.String, char[], int, int)
+	 */
+	@Override
+	public String obfuscate(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		if (length == 0)
+		{
+			return "";
+		}
+		return obfuscate(keyFragment, CharBuffer.wrap(plainText, offset, length));
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the obfuscated text has been modified or the key fragment is wrong.
+	 */
+	@Override
+	public String deobfuscate(Context context, String keyFragment, String obfuscatedText)
+	{
+		if (obfuscatedText == null || obfuscatedText.length() == 0)
+		{
+			return obfuscatedText;
+		}
+
+		CharBuffer plainText = deobfuscate(keyFragment, obfuscatedText, TextCodec.scratch().charBuffer(obfuscatedText.length()));
+		String result = plainText.toString();
+		wipe(plainText);
+		return result;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the obfuscated text has been modified or the key fragment is wrong.
+	 */
+	@Override
+	public CharBuffer deobfuscate(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		if (obfuscatedText == null)
+		{
+			return null;
+		}
+		if (obfuscatedText.length() == 0)
+		{
+			return TextCodec.decodeUtf8(new byte[0], 0, buffer);
+		}
+		return deobfuscate(keyFragment, obfuscatedText, buffer);
+	}
+
+
+	/**
+	 * Encrypt the given plain text.
+	 * 
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @param plainText
+	 *            The plain text.
+	 * @return The obfuscated text.
+	 */
+	private static String obfuscate(String keyFragment, CharSequence plainText)
+	{
+		Scratch scratch = TextCodec.scratch();
+		byte[] plainBytes = scratch.bytes(plainText.length() * 3);
+		int plainLength = TextCodec.encodeUtf8(plainText, plainBytes, 0);
+		byte[] output = scratch.output(IV_LENGTH + plainLength + TAG_LENGTH);
+		CipherState state = CIPHER_STATE.get();
+		try
+		{
+			RANDOM.nextBytes(state.iv);
+			System.arraycopy(state.iv, 0, output, 0, IV_LENGTH);
+			init(state.cipher, Cipher.ENCRYPT_MODE, keyFragment, PARAMETER_FACTORY.create(output, 0, IV_LENGTH));
+			int length = IV_LENGTH + state.cipher.doFinal(plainBytes, 0, plainLength, output, IV_LENGTH);
+
+			char[] chars = scratch.chars((length + 2) / 3 * 4);
+			int charCount = TextCodec.encodeBase64(output, length, chars);
+			// the padding is not needed to decode the result
+			while (chars[charCount - 1] == '=')
+			{
+				--charCount;
+			}
+			return new String(chars, 0, charCount);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("could not encrypt plain text", e);
+		}
+		finally
+		{
+			TextCodec.wipe(plainBytes, plainLength);
+		}
+	}
+
+
+	/**
+	 * Decrypt the given text into a {@link CharBuffer}.
+	 * 
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @param obfuscatedText
+	 *            The obfuscated text.
+	 * @param buffer
+	 *            The buffer to write to or <code>null</code>.
+	 * @return A {@link CharBuffer} with the plain text.
+	 * @throws IllegalArgumentException
+	 *             if the obfuscated text has been modified or the key fragment is wrong.
+	 */
+	private static CharBuffer deobfuscate(String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		Scratch scratch = TextCodec.scratch();
+		byte[] input = scratch.output(obfuscatedText.length() / 4 * 3 + 3);
+		int inputLength = TextCodec.decodeBase64(obfuscatedText, input);
+		if (inputLength < IV_LENGTH + TAG_LENGTH)
+		{
+			throw new IllegalArgumentException("obfuscated text is too short");
+		}
+
+		byte[] plainBytes = scratch.bytes(inputLength);
+		int plainLength = 0;
+		CipherState state = CIPHER_STATE.get();
+		try
+		{
+			init(state.cipher, Cipher.DECRYPT_MODE, keyFragment, PARAMETER_FACTORY.create(input, 0, IV_LENGTH));
+			plainLength = state.cipher.doFinal(input, IV_LENGTH, inputLength - IV_LENGTH, plainBytes, 0);
+			return TextCodec.decodeUtf8(plainBytes, plainLength, buffer);
+		}
+		catch (GeneralSecurityException e)
+		{
+			// AEADBadTagException has been added in API level 19, older versions throw a BadPaddingException
+			throw new IllegalArgumentException("obfuscated text has been modified or the key fragment is wrong", e);
+		}
+		finally
+		{
+			TextCodec.wipe(plainBytes, plainLength);
+		}
+	}
+
+
+	/**
+	 * Initialize the given {@link Cipher} with the key for the given key fragment. The key is only held while the cipher is initialized, since the cipher keeps
+	 * its own copy.
+	 * 
+	 * @param cipher
+	 *            The {@link Cipher} to initialize.
+	 * @param mode
+	 *            The operation mode of the cipher.
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @param parameters
+	 *            The {@link AlgorithmParameterSpec} with the IV.
+	 * @throws GeneralSecurityException
+	 *             if the key can not be derived or the cipher can not be initialized.
+	 */
+	private static void init(Cipher cipher, int mode, String keyFragment, AlgorithmParameterSpec parameters) throws GeneralSecurityException
+	{
+		SecretKey key = DERIVED_KEYS.acquire(keyFragment);
+		try
+		{
+			cipher.init(mode, key, parameters);
+		}
+		finally
+		{
+			DERIVED_KEYS.release(key);
+		}
+	}
+
+
+	/**
+	 * Return the {@link ParameterFactory} for this platform. <code>javax.crypto.spec.GCMParameterSpec</code> has been added in API level 19. Older Android
+	 * versions take an {@link IvParameterSpec} instead, but other providers don't accept that for GCM.
+	 * 
+	 * @return The {@link ParameterFactory}.
+	 */
+	private static ParameterFactory getParameterFactory()
+	{
+		final Constructor<?> constructor;
+		try
+		{
+			constructor = Class.forName("javax.crypto.spec.GCMParameterSpec").getConstructor(int.class, byte[].class, int.class, int.class);
+		}
+		catch (Exception e)
+		{
+			// not available, use IvParameterSpec
+			return new ParameterFactory();
+		}
+
+		return new ParameterFactory()
+		{
+			@Override
+			public AlgorithmParameterSpec create(byte[] iv, int offset, int length) throws GeneralSecurityException
+			{
+				try
+				{
+					return (AlgorithmParameterSpec) constructor.newInstance(TAG_LENGTH * 8, iv, offset, length);
+				}
+				catch (Exception e)
+				{
+					throw new GeneralSecurityException("could not create GCM parameters", e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates the GCM parameters for an IV. The default implementation returns an {@link IvParameterSpec}.
+	 */
+	private static class ParameterFactory
+	{
+		public AlgorithmParameterSpec create(byte[] iv, int offset, int length) throws GeneralSecurityException
+		{
+			return new IvParameterSpec(iv, offset, length);
+		}
+	}
+
+	/**
+	 * The cipher instance and the IV buffer of a thread.
+	 */
+	private final static class CipherState
+	{
+		public final Cipher cipher;
+
+		public final byte[] iv = new byte[IV_LENGTH];
+
+
+		public CipherState()
+		{
+			try
+			{
+				cipher = Cipher.getInstance(CIPHER);
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new RuntimeException(CIPHER + " is not supported", e);
+			}
+		}
+	}
+}
@@ -19,8 +19,16 @@
 
 package org.dmfs.android.authenticator.obfuscater;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+
+import org.dmfs.android.authenticator.obfuscater.TextCodec.Scratch;
+
 import android.content.Context;
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 
 
 /**
@@ -31,6 +39,12 @@ import android.util.Base64;
 public final class Base64Obfuscater extends AbstractObfuscater
 {
 
+	/**
+	 * The id of the format this obfuscater produces.
+	 */
+	public final static String FORMAT_ID = "base64";
+
+
 	/**
 	 * Initialize the instance.
 	 */
@@ -39,6 +53,18 @@ public final class Base64Obfuscater extends AbstractObfuscater
 	}
 
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#getFormatId()
+	 */
+	@Override
+	public String getFormatId()
+	{
+		return FORMAT_ID;
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 * <p>
@@ -71,4 +97,77 @@ public final class Base64Obfuscater extends AbstractObfuscater
 		return new String(Base64.decode(obfuscatedText, Base64.NO_WRAP));
 	}
 
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscate(android.content.Context, java.lang.String, char[], int, int)
+	 */
+	@Override
+	public String obfuscate(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		Scratch scratch = TextCodec.scratch();
+		byte[] bytes = scratch.bytes(length * 3);
+		int byteCount = TextCodec.encodeUtf8(CharBuffer.wrap(plainText, offset, length), bytes, 0);
+		char[] chars = scratch.chars((byteCount + 2) / 3 * 4);
+		try
+		{
+			return new String(chars, 0, TextCodec.encodeBase64(bytes, byteCount, chars));
+		}
+		finally
+		{
+			TextCodec.wipe(bytes, byteCount);
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#deobfuscate(android.content.Context, java.lang.String, java.lang.CharSequence,
+	 * java.nio.CharBuffer)
+	 */
+	@Override
+	public CharBuffer deobfuscate(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		if (obfuscatedText == null)
+		{
+			return null;
+		}
+
+		byte[] bytes = TextCodec.scratch().bytes(obfuscatedText.length() / 4 * 3 + 3);
+		int length = TextCodec.decodeBase64(obfuscatedText, bytes);
+		try
+		{
+			return TextCodec.decodeUtf8(bytes, length, buffer);
+		}
+		finally
+		{
+			TextCodec.wipe(bytes, length);
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscatingStream(android.content.Context, java.lang.String, java.io.OutputStream)
+	 */
+	@Override
+	public OutputStream obfuscatingStream(Context context, String keyFragment, OutputStream out)
+	{
+		return new Base64OutputStream(out, Base64.NO_WRAP);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#deobfuscatingStream(android.content.Context, java.lang.String, java.io.InputStream)
+	 */
+	@Override
+	public InputStream deobfuscatingStream(Context context, String keyFragment, InputStream in)
+	{
+		return new Base64InputStream(in, Base64.NO_WRAP);
+	}
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.obfuscater;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+
+
+/**
+ * A bounded cache of keys derived from key fragments, so obfuscaters with an expensive key derivation (like PBKDF2 or HKDF) don't have to derive the key for
+ * every call. If the cache is full, the least recently used key is evicted. Evicted keys are overwritten with zeros.
+ * <p>
+ * The cached {@link SecretKey}s are handed out directly, so a cache hit doesn't allocate anything. Callers {@link #acquire(String)} a key and
+ * {@link #release(SecretKey)} it once they're done, usually right after initializing a {@link javax.crypto.Cipher}. A key that is evicted while it's in use
+ * is overwritten when the last caller releases it.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class DerivedKeyCache
+{
+	/**
+	 * Derives key material from a key fragment.
+	 */
+	public interface KeyDerivation
+	{
+		/**
+		 * Derive the key material for the given key fragment. This must always return the same key for the same fragment.
+		 * 
+		 * @param keyFragment
+		 *            The key fragment, never <code>null</code>. A <code>null</code> fragment is passed as an empty string.
+		 * @return The derived key material. The cache takes ownership of the array.
+		 * @throws GeneralSecurityException
+		 *             if the key can not be derived.
+		 */
+		byte[] derive(String keyFragment) throws GeneralSecurityException;
+	}
+
+	/**
+	 * The algorithm of the keys.
+	 */
+	private final String mAlgorithm;
+
+	private final KeyDerivation mKeyDerivation;
+
+	/**
+	 * The derived keys by key fragment in the order of their last access.
+	 */
+	private final LinkedHashMap<String, DerivedKey> mKeys;
+
+
+	/**
+	 * Create a new cache that holds up to <code>maxSize</code> keys.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of keys to cache.
+	 * @param algorithm
+	 *            The algorithm of the keys, like <code>"AES"</code>.
+	 * @param keyDerivation
+	 *            The {@link KeyDerivation} to derive missing keys with.
+	 */
+	public DerivedKeyCache(final int maxSize, String algorithm, KeyDerivation keyDerivation)
+	{
+		if (maxSize <= 0)
+		{
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+
+		mAlgorithm = algorithm;
+		mKeyDerivation = keyDerivation;
+		mKeys = new LinkedHashMap<String, DerivedKey>(maxSize * 4 / 3 + 1, 0.75f, true /* access order */)
+		{
+			/**
+			 * Generated serial ID.
+			 */
+			private static final long serialVersionUID = -2916424385138209417L;
+
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, DerivedKey> eldest)
+			{
+				if (size() > maxSize)
+				{
+					eldest.getValue().evict();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+	/**
+	 * Acquire the key for the given key fragment. The key is derived if it's not in the cache yet. The derivation doesn't block other threads.
+	 * <p>
+	 * The key is not overwritten before it has been released, so make sure to call {@link #release(SecretKey)} in a <code>finally</code> block.
+	 * </p>
+	 * 
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @return The {@link SecretKey}.
+	 * @throws GeneralSecurityException
+	 *             if the key can not be derived.
+	 */
+	public SecretKey acquire(String keyFragment) throws GeneralSecurityException
+	{
+		String fragment = keyFragment == null ? "" : keyFragment;
+		synchronized (this)
+		{
+			DerivedKey key = mKeys.get(fragment);
+			if (key != null)
+			{
+				Metrics.cacheAccess(Cache.DERIVED_KEY, true);
+				++key.mUsers;
+				return key;
+			}
+		}
+
+		Metrics.cacheAccess(Cache.DERIVED_KEY, false);
+		byte[] material = mKeyDerivation.derive(fragment);
+
+		synchronized (this)
+		{
+			DerivedKey key = mKeys.get(fragment);
+			if (key == null)
+			{
+				key = new DerivedKey(mAlgorithm, material);
+				mKeys.put(fragment, key);
+			}
+			else
+			{
+				// another thread was faster, keep its key
+				wipe(material);
+			}
+			++key.mUsers;
+			return key;
+		}
+	}
+
+
+	/**
+	 * Release a key that has been returned by {@link #acquire(String)}. The key must not be used afterwards.
+	 * 
+	 * @param key
+	 *            The {@link SecretKey} to release.
+	 * @throws IllegalArgumentException
+	 *             if the key has not been acquired from a {@link DerivedKeyCache}.
+	 */
+	public synchronized void release(SecretKey key)
+	{
+		if (!(key instanceof DerivedKey) || ((DerivedKey) key).mUsers <= 0)
+		{
+			throw new IllegalArgumentException("key has not been acquired");
+		}
+		((DerivedKey) key).release();
+	}
+
+
+	/**
+	 * Return the number of keys in the cache.
+	 * 
+	 * @return The number of cached keys.
+	 */
+	public synchronized int size()
+	{
+		return mKeys.size();
+	}
+
+
+	/**
+	 * Remove all keys from the cache. Keys that are not in use are wiped right away, all other keys once they have been released.
+	 */
+	public synchronized void clear()
+	{
+		for (DerivedKey key : mKeys.values())
+		{
+			key.evict();
+		}
+		mKeys.clear();
+	}
+
+
+	/**
+	 * Overwrite the given key with zeros.
+	 * 
+	 * @param key
+	 *            The key to wipe or <code>null</code>.
+	 */
+	public static void wipe(byte[] key)
+	{
+		if (key != null)
+		{
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * A cached key. The key material is wiped once the key has been evicted and all users have released it. The use count and the eviction state are guarded
+	 * by the {@link DerivedKeyCache} that owns the key.
+	 */
+	private final static class DerivedKey implements SecretKey
+	{
+		/**
+		 * Generated serial ID.
+		 */
+		private static final long serialVersionUID = 4716375342187723520L;
+
+		private final String mAlgorithm;
+
+		/**
+		 * The key material. It's not serialized, since the key is not meant to leave the process.
+		 */
+		private final transient byte[] mKey;
+
+		/**
+		 * The number of callers that acquired this key and didn't release it yet.
+		 */
+		private transient int mUsers;
+
+		private transient boolean mEvicted;
+
+
+		public DerivedKey(String algorithm, byte[] key)
+		{
+			mAlgorithm = algorithm;
+			mKey = key;
+		}
+
+
+		/**
+		 * Mark this key as evicted and wipe it if nobody uses it.
+		 */
+		void evict()
+		{
+			mEvicted = true;
+			if (mUsers == 0)
+			{
+				wipe(mKey);
+			}
+		}
+
+
+		/**
+		 * Release one use of this key and wipe it if it has been evicted and this was the last use.
+		 */
+		void release()
+		{
+			if (--mUsers == 0 && mEvicted)
+			{
+				wipe(mKey);
+			}
+		}
+
+
+		@Override
+		public String getAlgorithm()
+		{
+			return mAlgorithm;
+		}
+
+
+		@Override
+		public String getFormat()
+		{
+			return "RAW";
+		}
+
+
+		@Override
+		public byte[] getEncoded()
+		{
+			// the key is not wiped while it's in use, so this doesn't need the lock
+			return mKey.clone();
+		}
+	}
+}
@@ -19,6 +19,9 @@
 
 package org.dmfs.android.authenticator.obfuscater;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import android.content.Context;
 
 
@@ -31,6 +34,12 @@ import android.content.Context;
 public final class DummyObfuscater extends AbstractObfuscater
 {
 
+	/**
+	 * The id of the format this obfuscater produces.
+	 */
+	public final static String FORMAT_ID = "dummy";
+
+
 	/**
 	 * Initialize the obfuscater instance.
 	 */
@@ -39,6 +48,18 @@ public final class DummyObfuscater extends AbstractObfuscater
 	}
 
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#getFormatId()
+	 */
+	@Override
+	public String getFormatId()
+	{
+		return FORMAT_ID;
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -64,4 +85,30 @@ public final class DummyObfuscater extends AbstractObfuscater
 		return obfuscatedText;
 	}
 
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * <strong>Note:</strong> This method returns <code>out</code>. It doesn't obfuscate at all. It's meant for testing purposes.
+	 * </p>
+	 */
+	@Override
+	public OutputStream obfuscatingStream(Context context, String keyFragment, OutputStream out)
+	{
+		return out;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#deobfuscatingStream(android.content.Context, java.lang.String, java.io.InputStream)
+	 */
+	@Override
+	public InputStream deobfuscatingStream(Context context, String keyFragment, InputStream in)
+	{
+		return in;
+	}
+
 }
@@ -19,6 +19,14 @@
 
 package org.dmfs.android.authenticator.obfuscater;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.dmfs.android.authenticator.R;
 
 import android.content.Context;
@@ -31,6 +39,18 @@ import android.content.Context;
  * <p>
  * <strong>Note:</strong> It's not recommended to use any of the default obfuscater provided with this library. You always should implement your own obfuscater.
  * </p>
+ * <p>
+ * Instead of specifying an {@link IObfuscaterProvider} in the resources you can also set the obfuscater directly using
+ * {@link #setObfuscaterImpl(AbstractObfuscater)}. That doesn't require any reflection and allows the obfuscater class to be shrunk.
+ * </p>
+ * <p>
+ * The versioned methods put the format id of the obfuscater (see {@link AbstractObfuscater#getFormatId()}) in front of the obfuscated text, like in
+ * <code>|xor|...</code>. That allows to switch to another obfuscater without breaking existing secrets. Texts in another format are read with the
+ * obfuscater registered for their format id (see {@link #registerFormat(AbstractObfuscater)}), texts without a format id are read with the legacy obfuscater
+ * (see {@link #setLegacyObfuscaterImpl(AbstractObfuscater)}). Use {@link #isCurrentFormat(Context, CharSequence)} to find texts that should be migrated.
+ * The formats of the obfuscaters of this library are known by default, their obfuscaters are instantiated when a text in their format is read for the first
+ * time.
+ * </p>
  * 
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -43,10 +63,41 @@ public enum Obfuscater
 
 	public final static String TAG = "Obfuscater";
 
+	/**
+	 * The character that encloses the format id of versioned obfuscated texts. It's neither part of the Base64 alphabet nor of any plain secret, so it can't
+	 * be at the beginning of obfuscated texts without a format id.
+	 */
+	public final static char FORMAT_DELIMITER = '|';
+
 	/**
 	 * The actual obfuscater implementation.
 	 */
-	private AbstractObfuscater mObfuscatorImpl;
+	private volatile AbstractObfuscater mObfuscatorImpl;
+
+	/**
+	 * The obfuscater to read obfuscated texts without a format id or <code>null</code> to read them with the actual obfuscater implementation.
+	 */
+	private volatile AbstractObfuscater mLegacyImpl;
+
+	/**
+	 * The obfuscaters to read versioned obfuscated texts with, by format id.
+	 */
+	private final ConcurrentMap<String, AbstractObfuscater> mFormats = new ConcurrentHashMap<String, AbstractObfuscater>(8);
+
+	/**
+	 * The obfuscater classes of the built-in formats by format id. They are instantiated on the first lookup of their format, unless another obfuscater has
+	 * been registered for it.
+	 */
+	private final static Map<String, Class<? extends AbstractObfuscater>> BUILT_IN_FORMATS = new HashMap<String, Class<? extends AbstractObfuscater>>(8);
+
+	static
+	{
+		BUILT_IN_FORMATS.put(XOrObfuscater.FORMAT_ID, XOrObfuscater.class);
+		BUILT_IN_FORMATS.put(Base64Obfuscater.FORMAT_ID, Base64Obfuscater.class);
+		BUILT_IN_FORMATS.put(DummyObfuscater.FORMAT_ID, DummyObfuscater.class);
+		BUILT_IN_FORMATS.put(AesGcmObfuscater.FORMAT_ID, AesGcmObfuscater.class);
+	}
+
 
 	/**
 	 * An interface of a class with a method to return the obfuscater class.
@@ -104,48 +155,365 @@ public enum Obfuscater
 
 
 	/**
-	 * Get the actual obfuscater implementation. Since an obfuscater is stateless, there is no need to synchronize her because it doesn't hurt if two (or more)
-	 * instances are created in parallel. Only one of them will survive.
+	 * Obfuscate the given plain text characters without creating a {@link String} of the plain text.
+	 * 
+	 * @param context
+	 *            A Context.
+	 * @param keyFragment
+	 *            An additional key to use or <code>null</code>. Not all obfuscater implementations use this.
+	 * @param plainText
+	 *            An array that contains the plain text to obfuscate.
+	 * @param offset
+	 *            The position of the first character of the plain text.
+	 * @param length
+	 *            The number of characters of the plain text.
+	 * @return An obfuscated string.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 * @see AbstractObfuscater#obfuscate(Context, String, char[], int, int)
+	 */
+	public String obfuscate(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		return getObfuscatorImpl(context).obfuscate(context, keyFragment, plainText, offset, length);
+	}
+
+
+	/**
+	 * De-obfuscate the given text into a {@link CharBuffer} without creating a {@link String} of the plain text.
 	 * 
 	 * @param context
 	 *            A {@link Context}.
-	 * @return An {@link AbstractObfuscater}.
+	 * @param keyFragment
+	 *            The additional key that was used when obfuscating the value or <code>null</code>.
+	 * @param obfuscatedText
+	 *            The obfuscated text.
+	 * @param buffer
+	 *            A {@link CharBuffer} to write the plain text to or <code>null</code>.
+	 * @return A {@link CharBuffer} that contains the plain text. Wipe it with {@link AbstractObfuscater#wipe(CharBuffer)} when you're done.
 	 * @throws RuntimeException
 	 *             if there was an error when instantiating the Obfuscater instance.
+	 * @see AbstractObfuscater#deobfuscate(Context, String, CharSequence, CharBuffer)
 	 */
-	private AbstractObfuscater getObfuscatorImpl(Context context)
+	public CharBuffer deobfuscate(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
 	{
-		if (mObfuscatorImpl == null)
+		return getObfuscatorImpl(context).deobfuscate(context, keyFragment, obfuscatedText, buffer);
+	}
+
+
+	/**
+	 * Return an {@link OutputStream} that obfuscates all bytes written to it and writes the result to the given {@link OutputStream}. Use this for secrets that
+	 * are too large to be held in memory.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            An additional key to obfuscate the value or <code>null</code>.
+	 * @param out
+	 *            The {@link OutputStream} to write the obfuscated text to.
+	 * @return An {@link OutputStream} to write the plain text to. Close it to complete the obfuscation.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 * @see AbstractObfuscater#obfuscatingStream(Context, String, OutputStream)
+	 */
+	public OutputStream obfuscatingStream(Context context, String keyFragment, OutputStream out)
+	{
+		return getObfuscatorImpl(context).obfuscatingStream(context, keyFragment, out);
+	}
+
+
+	/**
+	 * Return an {@link InputStream} that de-obfuscates the obfuscated text read from the given {@link InputStream}.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            The additional key that was used when obfuscating the value or <code>null</code>.
+	 * @param in
+	 *            The {@link InputStream} to read the obfuscated text from.
+	 * @return An {@link InputStream} to read the plain text from.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 * @see AbstractObfuscater#deobfuscatingStream(Context, String, InputStream)
+	 */
+	public InputStream deobfuscatingStream(Context context, String keyFragment, InputStream in)
+	{
+		return getObfuscatorImpl(context).deobfuscatingStream(context, keyFragment, in);
+	}
+
+
+	/**
+	 * Obfuscate the given plain text characters and put the format id of the obfuscater in front of the result.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            An additional key to obfuscate the value or <code>null</code>.
+	 * @param plainText
+	 *            An array that contains the plain text to obfuscate.
+	 * @param offset
+	 *            The position of the first character of the plain text.
+	 * @param length
+	 *            The number of characters of the plain text.
+	 * @return An obfuscated string with format id. If the obfuscater doesn't have a format id this returns the plain obfuscated string.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 */
+	public String obfuscateVersioned(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		AbstractObfuscater obfuscater = getObfuscatorImpl(context);
+		String formatId = obfuscater.getFormatId();
+		String obfuscatedText = obfuscater.obfuscate(context, keyFragment, plainText, offset, length);
+		if (formatId == null)
 		{
-			try
-			{
-				mObfuscatorImpl = ((IObfuscaterProvider) Class.forName(context.getString(R.string.org_dmfs_android_authenticator_obfuscater_provider))
-					.newInstance()).getObfuscater().newInstance();
-			}
-			catch (InstantiationException e)
-			{
-				throw new RuntimeException("could not instanicate obfuscater", e);
-			}
-			catch (IllegalAccessException e)
+			return obfuscatedText;
+		}
+		return new StringBuilder(formatId.length() + obfuscatedText.length() + 2).append(FORMAT_DELIMITER).append(formatId).append(FORMAT_DELIMITER)
+			.append(obfuscatedText).toString();
+	}
+
+
+	/**
+	 * De-obfuscate an obfuscated text that has been created with {@link #obfuscateVersioned(Context, String, char[], int, int)} or with any of the
+	 * non-versioned methods of the legacy obfuscater.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param keyFragment
+	 *            The additional key that was used when obfuscating the value or <code>null</code>.
+	 * @param obfuscatedText
+	 *            The obfuscated text with or without format id.
+	 * @param buffer
+	 *            A {@link CharBuffer} to write the plain text to or <code>null</code>.
+	 * @return A {@link CharBuffer} that contains the plain text. Wipe it with {@link AbstractObfuscater#wipe(CharBuffer)} when you're done.
+	 * @throws IllegalArgumentException
+	 *             if the format id is unknown.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 */
+	public CharBuffer deobfuscateVersioned(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		if (obfuscatedText == null)
+		{
+			return null;
+		}
+
+		String formatId = getFormatId(obfuscatedText);
+		if (formatId == null)
+		{
+			AbstractObfuscater legacy = mLegacyImpl;
+			return (legacy == null ? getObfuscatorImpl(context) : legacy).deobfuscate(context, keyFragment, obfuscatedText, buffer);
+		}
+
+		AbstractObfuscater obfuscater = getObfuscatorImpl(context);
+		if (!formatId.equals(obfuscater.getFormatId()))
+		{
+			obfuscater = getFormat(formatId);
+		}
+		return obfuscater.deobfuscate(context, keyFragment, obfuscatedText.subSequence(formatId.length() + 2, obfuscatedText.length()), buffer);
+	}
+
+
+	/**
+	 * Return whether the given obfuscated text has been created in the format of the current obfuscater implementation. Texts in any other format should be
+	 * obfuscated again with {@link #obfuscateVersioned(Context, String, char[], int, int)}.
+	 * <p>
+	 * Texts without a format id are considered to be in the current format, unless a legacy obfuscater other than the current obfuscater implementation has
+	 * been set. Otherwise every text that has been written before format ids were introduced would be migrated, even though it's read with the current
+	 * obfuscater anyway.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param obfuscatedText
+	 *            The obfuscated text with or without format id.
+	 * @return <code>true</code> if the text is in the current format, <code>false</code> otherwise.
+	 * @throws IllegalArgumentException
+	 *             if the format id is malformed.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 */
+	public boolean isCurrentFormat(Context context, CharSequence obfuscatedText)
+	{
+		String formatId = getFormatId(obfuscatedText);
+		AbstractObfuscater obfuscater = getObfuscatorImpl(context);
+		if (formatId == null)
+		{
+			AbstractObfuscater legacy = mLegacyImpl;
+			return legacy == null || legacy.equals(obfuscater);
+		}
+		return formatId.equals(obfuscater.getFormatId());
+	}
+
+
+	/**
+	 * Register an obfuscater to read obfuscated texts in its format. The formats of the obfuscaters of this library are known by default. Register the
+	 * obfuscaters you used before, when you switch to a new obfuscater implementation.
+	 * 
+	 * @param obfuscater
+	 *            An {@link AbstractObfuscater} with a format id.
+	 * @throws IllegalArgumentException
+	 *             if the obfuscater has no valid format id.
+	 */
+	public void registerFormat(AbstractObfuscater obfuscater)
+	{
+		String formatId = obfuscater.getFormatId();
+		if (formatId == null || formatId.length() == 0 || formatId.indexOf(FORMAT_DELIMITER) >= 0)
+		{
+			throw new IllegalArgumentException("invalid format id " + formatId);
+		}
+		mFormats.put(formatId, obfuscater);
+	}
+
+
+	/**
+	 * Set the obfuscater to read obfuscated texts without a format id, i.e. texts that have been obfuscated before format ids have been introduced. Set this
+	 * to the obfuscater you used before, when you switch to a new obfuscater implementation.
+	 * 
+	 * @param obfuscater
+	 *            The legacy obfuscater or <code>null</code> to use the current obfuscater implementation.
+	 */
+	public void setLegacyObfuscaterImpl(AbstractObfuscater obfuscater)
+	{
+		mLegacyImpl = obfuscater;
+	}
+
+
+	/**
+	 * Return the obfuscater to read texts in the given format with. Built-in formats are instantiated on the first lookup.
+	 * 
+	 * @param formatId
+	 *            The format id.
+	 * @return The {@link AbstractObfuscater} of the format.
+	 * @throws IllegalArgumentException
+	 *             if the format id is unknown.
+	 * @throws RuntimeException
+	 *             if the obfuscater of a built-in format can not be instantiated.
+	 */
+	private AbstractObfuscater getFormat(String formatId)
+	{
+		AbstractObfuscater obfuscater = mFormats.get(formatId);
+		if (obfuscater != null)
+		{
+			return obfuscater;
+		}
+
+		Class<? extends AbstractObfuscater> obfuscaterClass = BUILT_IN_FORMATS.get(formatId);
+		if (obfuscaterClass == null)
+		{
+			throw new IllegalArgumentException("unknown obfuscation format " + formatId);
+		}
+
+		try
+		{
+			obfuscater = obfuscaterClass.newInstance();
+		}
+		catch (InstantiationException e)
+		{
+			throw new RuntimeException("could not instanicate obfuscater", e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new RuntimeException("could not instanicate obfuscater", e);
+		}
+
+		// don't replace an obfuscater that has been registered in the meantime
+		AbstractObfuscater registered = mFormats.putIfAbsent(formatId, obfuscater);
+		return registered == null ? obfuscater : registered;
+	}
+
+
+	/**
+	 * Return the format id of the given obfuscated text.
+	 * 
+	 * @param obfuscatedText
+	 *            The obfuscated text.
+	 * @return The format id or <code>null</code> if the text has no format id.
+	 * @throws IllegalArgumentException
+	 *             if the format id is malformed.
+	 */
+	private static String getFormatId(CharSequence obfuscatedText)
+	{
+		int length = obfuscatedText.length();
+		if (length == 0 || obfuscatedText.charAt(0) != FORMAT_DELIMITER)
+		{
+			return null;
+		}
+		for (int i = 1; i < length; ++i)
+		{
+			if (obfuscatedText.charAt(i) == FORMAT_DELIMITER)
 			{
-				throw new RuntimeException("could not instanicate obfuscater", e);
+				return obfuscatedText.subSequence(1, i).toString();
 			}
-			catch (ClassNotFoundException e)
+		}
+		throw new IllegalArgumentException("malformed format id");
+	}
+
+
+	/**
+	 * Instantiate the obfuscater implementation if that didn't happen yet. Call this to move the cost of instantiating the obfuscater off the critical path.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 */
+	public void preload(Context context)
+	{
+		getObfuscatorImpl(context);
+	}
+
+
+	/**
+	 * Get the actual obfuscater implementation. The implementation is instantiated exactly once, even if this is called from multiple threads concurrently.
+	 * Once it has been initialized no lock is taken.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return An {@link AbstractObfuscater}.
+	 * @throws RuntimeException
+	 *             if there was an error when instantiating the Obfuscater instance.
+	 */
+	private AbstractObfuscater getObfuscatorImpl(Context context)
+	{
+		AbstractObfuscater obfuscater = mObfuscatorImpl;
+		if (obfuscater == null)
+		{
+			synchronized (this)
 			{
-				throw new RuntimeException("could not instanicate obfuscater", e);
+				obfuscater = mObfuscatorImpl;
+				if (obfuscater == null)
+				{
+					try
+					{
+						obfuscater = mObfuscatorImpl = ((IObfuscaterProvider) Class.forName(
+							context.getString(R.string.org_dmfs_android_authenticator_obfuscater_provider)).newInstance()).getObfuscater().newInstance();
+					}
+					catch (InstantiationException e)
+					{
+						throw new RuntimeException("could not instanicate obfuscater", e);
+					}
+					catch (IllegalAccessException e)
+					{
+						throw new RuntimeException("could not instanicate obfuscater", e);
+					}
+					catch (ClassNotFoundException e)
+					{
+						throw new RuntimeException("could not instanicate obfuscater", e);
+					}
+				}
 			}
 		}
-		return mObfuscatorImpl;
+		return obfuscater;
 	}
 
 
 	/**
-	 * Set the obfuscater implementation. This is meant for testing purposes. Set the string resource
-	 * <code>org_dmfs_android_authenticator_obfuscater_provider</code> to the class name of the {@link IObfuscaterProvider} that provides the obfuscater in
-	 * production environments.
+	 * Set the obfuscater implementation. Call this before the first secret is obfuscated or deobfuscated, e.g. in
+	 * {@link android.app.Application#onCreate()}. If no obfuscater has been set, the obfuscater is instantiated from the {@link IObfuscaterProvider} in the
+	 * string resource <code>org_dmfs_android_authenticator_obfuscater_provider</code>.
 	 * 
 	 * @param obfuscater
-	 *            The obfuscater to use.
+	 *            The obfuscater to use or <code>null</code> to instantiate the obfuscater from the resources on the next call.
 	 */
 	public void setObfuscaterImpl(AbstractObfuscater obfuscater)
 	{
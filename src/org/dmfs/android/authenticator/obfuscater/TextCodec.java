@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.obfuscater;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+/**
+ * UTF-8 and Base64 coding on reusable per-thread scratch buffers for the obfuscaters in this package. The results are the same as the ones of
+ * {@link String#getBytes()}, {@link String#String(byte[])} and {@link android.util.Base64} with {@link android.util.Base64#NO_WRAP}, but no intermediate
+ * objects are allocated.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class TextCodec
+{
+	/**
+	 * The Base64 alphabet.
+	 */
+	private final static char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/**
+	 * The values of the Base64 characters, <code>-1</code> for characters that are not in the alphabet.
+	 */
+	private final static byte[] BASE64_VALUES = new byte[128];
+
+	static
+	{
+		Arrays.fill(BASE64_VALUES, (byte) -1);
+		for (int i = 0; i < BASE64_ALPHABET.length; ++i)
+		{
+			BASE64_VALUES[BASE64_ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	/**
+	 * The UTF-8 character set.
+	 */
+	final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Scratch buffers larger than this are not kept for reuse, so a single large secret doesn't pin memory forever.
+	 */
+	private final static int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The scratch buffers of each thread.
+	 */
+	private final static ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{
+			return new Scratch();
+		}
+	};
+
+
+	private TextCodec()
+	{
+	}
+
+
+	/**
+	 * Return the scratch buffers of the current thread.
+	 * 
+	 * @return The {@link Scratch} buffers.
+	 */
+	static Scratch scratch()
+	{
+		return SCRATCH.get();
+	}
+
+
+	/**
+	 * Decode UTF-8 the same way {@link String#String(byte[])} does. Well-formed input is decoded without any allocations, malformed input is passed to the
+	 * platform decoder.
+	 * 
+	 * @param bytes
+	 *            The UTF-8 encoded bytes.
+	 * @param length
+	 *            The number of bytes to decode.
+	 * @param buffer
+	 *            A {@link CharBuffer} to write to or <code>null</code>.
+	 * @return A {@link CharBuffer} that contains the decoded characters between its position and its limit. That's <code>buffer</code> if it was large enough
+	 *         and had a backing array, otherwise it's a new {@link CharBuffer}.
+	 */
+	static CharBuffer decodeUtf8(byte[] bytes, int length, CharBuffer buffer)
+	{
+		CharBuffer result = buffer != null && buffer.hasArray() && buffer.capacity() >= length ? buffer : CharBuffer.allocate(length);
+		result.clear();
+		int charCount = decodeUtf8(bytes, length, result.array(), result.arrayOffset());
+		if (charCount >= 0)
+		{
+			result.limit(charCount);
+			return result;
+		}
+
+		// not valid UTF-8, let the platform decoder handle the malformed input
+		CharBuffer decoded = UTF8.decode(ByteBuffer.wrap(bytes, 0, length));
+		if (decoded.remaining() > result.capacity())
+		{
+			return decoded;
+		}
+		result.put(decoded);
+		AbstractObfuscater.wipe(decoded);
+		result.flip();
+		return result;
+	}
+
+
+	/**
+	 * Overwrite the first <code>length</code> bytes of the given array with zeros.
+	 * 
+	 * @param bytes
+	 *            The array to wipe.
+	 * @param length
+	 *            The number of bytes to wipe.
+	 */
+	static void wipe(byte[] bytes, int length)
+	{
+		Arrays.fill(bytes, 0, length, (byte) 0);
+	}
+
+
+	/**
+	 * Encode a string to UTF-8 the same way {@link String#getBytes()} does, i.e. unpaired surrogates are replaced by <code>'?'</code>.
+	 * 
+	 * @param string
+	 *            The string to encode.
+	 * @param bytes
+	 *            The buffer to write to, it must have room for at least three bytes per character.
+	 * @param pos
+	 *            The position to start writing at.
+	 * @return The position after the last byte written.
+	 */
+	static int encodeUtf8(CharSequence string, byte[] bytes, int pos)
+	{
+		for (int i = 0, len = string.length(); i < len; ++i)
+		{
+			char c = string.charAt(i);
+			if (c < 0x80)
+			{
+				bytes[pos++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				bytes[pos++] = (byte) (0xc0 | c >> 6);
+				bytes[pos++] = (byte) (0x80 | c & 0x3f);
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(string.charAt(i + 1)))
+			{
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				bytes[pos++] = (byte) (0xf0 | codePoint >> 18);
+				bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				bytes[pos++] = (byte) (0x80 | codePoint & 0x3f);
+			}
+			else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+			{
+				bytes[pos++] = '?';
+			}
+			else
+			{
+				bytes[pos++] = (byte) (0xe0 | c >> 12);
+				bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+				bytes[pos++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		return pos;
+	}
+
+
+	/**
+	 * Decode well-formed UTF-8.
+	 * 
+	 * @param bytes
+	 *            The UTF-8 encoded bytes.
+	 * @param length
+	 *            The number of bytes to decode.
+	 * @param chars
+	 *            The buffer to write to, it must have room for at least one character per byte.
+	 * @param offset
+	 *            The position in <code>chars</code> to start writing at.
+	 * @return The number of characters written or <code>-1</code> if the input is not well-formed UTF-8.
+	 */
+	static int decodeUtf8(byte[] bytes, int length, char[] chars, int offset)
+	{
+		int pos = offset;
+		int i = 0;
+		while (i < length)
+		{
+			int b = bytes[i++];
+			if (b >= 0)
+			{
+				chars[pos++] = (char) b;
+				continue;
+			}
+
+			int codePoint;
+			int remaining;
+			int min;
+			if ((b & 0xe0) == 0xc0)
+			{
+				codePoint = b & 0x1f;
+				remaining = 1;
+				min = 0x80;
+			}
+			else if ((b & 0xf0) == 0xe0)
+			{
+				codePoint = b & 0x0f;
+				remaining = 2;
+				min = 0x800;
+			}
+			else if ((b & 0xf8) == 0xf0)
+			{
+				codePoint = b & 0x07;
+				remaining = 3;
+				min = 0x10000;
+			}
+			else
+			{
+				return -1;
+			}
+
+			if (i + remaining > length)
+			{
+				return -1;
+			}
+			while (remaining-- > 0)
+			{
+				int next = bytes[i++];
+				if ((next & 0xc0) != 0x80)
+				{
+					return -1;
+				}
+				codePoint = codePoint << 6 | next & 0x3f;
+			}
+
+			if (codePoint < min || codePoint > Character.MAX_CODE_POINT || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+			{
+				// overlong encoding, out of range or an encoded surrogate
+				return -1;
+			}
+
+			pos += Character.toChars(codePoint, chars, pos);
+		}
+		return pos - offset;
+	}
+
+
+	/**
+	 * Base64 encode the given bytes with padding and without line wraps, like {@link android.util.Base64#encodeToString(byte[], int)} with
+	 * {@link android.util.Base64#NO_WRAP} does.
+	 * 
+	 * @param bytes
+	 *            The bytes to encode.
+	 * @param length
+	 *            The number of bytes to encode.
+	 * @param chars
+	 *            The buffer to write to, it must have room for at least <code>(length + 2) / 3 * 4</code> characters.
+	 * @return The number of characters written.
+	 */
+	static int encodeBase64(byte[] bytes, int length, char[] chars)
+	{
+		final char[] alphabet = BASE64_ALPHABET;
+		int pos = 0;
+		int i = 0;
+		for (int end = length - 2; i < end; i += 3)
+		{
+			int value = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | bytes[i + 2] & 0xff;
+			chars[pos++] = alphabet[value >>> 18];
+			chars[pos++] = alphabet[value >>> 12 & 0x3f];
+			chars[pos++] = alphabet[value >>> 6 & 0x3f];
+			chars[pos++] = alphabet[value & 0x3f];
+		}
+
+		int rest = length - i;
+		if (rest == 1)
+		{
+			int value = (bytes[i] & 0xff) << 16;
+			chars[pos++] = alphabet[value >>> 18];
+			chars[pos++] = alphabet[value >>> 12 & 0x3f];
+			chars[pos++] = '=';
+			chars[pos++] = '=';
+		}
+		else if (rest == 2)
+		{
+			int value = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+			chars[pos++] = alphabet[value >>> 18];
+			chars[pos++] = alphabet[value >>> 12 & 0x3f];
+			chars[pos++] = alphabet[value >>> 6 & 0x3f];
+			chars[pos++] = '=';
+		}
+		return pos;
+	}
+
+
+	/**
+	 * Decode Base64. Like {@link android.util.Base64#decode(String, int)} this skips all characters that are not in the Base64 alphabet and stops at the first
+	 * <code>'='</code>.
+	 * 
+	 * @param string
+	 *            The Base64 encoded string.
+	 * @param bytes
+	 *            The buffer to write to, it must have room for at least <code>string.length() / 4 * 3 + 3</code> bytes.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             if the input is not valid Base64.
+	 */
+	static int decodeBase64(CharSequence string, byte[] bytes)
+	{
+		final byte[] values = BASE64_VALUES;
+		int pos = 0;
+		int value = 0;
+		int count = 0;
+		for (int i = 0, len = string.length(); i < len; ++i)
+		{
+			char c = string.charAt(i);
+			if (c == '=')
+			{
+				break;
+			}
+			int v = c < 128 ? values[c] : -1;
+			if (v < 0)
+			{
+				continue;
+			}
+
+			value = value << 6 | v;
+			if (++count == 4)
+			{
+				bytes[pos++] = (byte) (value >> 16);
+				bytes[pos++] = (byte) (value >> 8);
+				bytes[pos++] = (byte) value;
+				value = 0;
+				count = 0;
+			}
+		}
+
+		if (count == 1)
+		{
+			throw new IllegalArgumentException("bad base-64");
+		}
+		if (count == 2)
+		{
+			bytes[pos++] = (byte) (value >> 4);
+		}
+		else if (count == 3)
+		{
+			bytes[pos++] = (byte) (value >> 10);
+			bytes[pos++] = (byte) (value >> 2);
+		}
+		return pos;
+	}
+
+	/**
+	 * The scratch buffers of a thread.
+	 */
+	final static class Scratch
+	{
+		private byte[] mBytes = new byte[256];
+
+		private byte[] mOutput = new byte[256];
+
+		private byte[] mFragment = new byte[64];
+
+		private char[] mChars = new char[512];
+
+		private CharBuffer mCharBuffer = CharBuffer.wrap(mChars);
+
+
+		/**
+		 * Return a byte buffer of at least the given size.
+		 */
+		public byte[] bytes(int size)
+		{
+			if (mBytes.length >= size)
+			{
+				return mBytes;
+			}
+			byte[] result = new byte[size];
+			if (size <= MAX_RETAINED_BUFFER_SIZE)
+			{
+				mBytes = result;
+			}
+			return result;
+		}
+
+
+		/**
+		 * Return a second byte buffer of at least the given size, for transformations that can't be done in place.
+		 */
+		public byte[] output(int size)
+		{
+			if (mOutput.length >= size)
+			{
+				return mOutput;
+			}
+			byte[] result = new byte[size];
+			if (size <= MAX_RETAINED_BUFFER_SIZE)
+			{
+				mOutput = result;
+			}
+			return result;
+		}
+
+
+		/**
+		 * Return a byte buffer for the key fragment of at least the given size.
+		 */
+		public byte[] fragment(int size)
+		{
+			if (mFragment.length >= size)
+			{
+				return mFragment;
+			}
+			byte[] result = new byte[size];
+			if (size <= MAX_RETAINED_BUFFER_SIZE)
+			{
+				mFragment = result;
+			}
+			return result;
+		}
+
+
+		/**
+		 * Return a {@link CharBuffer} with a capacity of at least the given size.
+		 */
+		public CharBuffer charBuffer(int size)
+		{
+			if (mChars.length >= size)
+			{
+				return mCharBuffer;
+			}
+			char[] chars = chars(size);
+			if (chars == mChars)
+			{
+				mCharBuffer = CharBuffer.wrap(chars);
+				return mCharBuffer;
+			}
+			return CharBuffer.wrap(chars);
+		}
+
+
+		/**
+		 * Return a char buffer of at least the given size.
+		 */
+		public char[] chars(int size)
+		{
+			if (mChars.length >= size)
+			{
+				return mChars;
+			}
+			char[] result = new char[size];
+			if (size <= MAX_RETAINED_BUFFER_SIZE)
+			{
+				mChars = result;
+			}
+			return result;
+		}
+	}
+}
@@ -19,19 +19,43 @@
 
 package org.dmfs.android.authenticator.obfuscater;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+
+import org.dmfs.android.authenticator.obfuscater.TextCodec.Scratch;
+
 import android.content.Context;
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 
 
 /**
  * A very simple obfuscater that uses the XOr operation to modify the plain text and Base64 to encode the result. It slightly more "secure" than the simple
  * {@link Base64Obfuscater}, but you can still attack is easily, since there is no randomness in it.
+ * <p>
+ * The plain text is UTF-8 encoded, XOr'ed with the combined key and the key fragment in a single pass and Base64 encoded without line wraps. All of this
+ * happens in per-thread scratch buffers, so the only allocation per call is the resulting string.
+ * </p>
+ * <p>
+ * The streams returned by {@link #obfuscatingStream(Context, String, OutputStream)} and {@link #deobfuscatingStream(Context, String, InputStream)} apply the
+ * same transformation in chunks of {@link #CHUNK_SIZE} bytes, so their memory footprint doesn't depend on the size of the secret.
+ * </p>
  * 
  * @author Marten Gajda <marten@dmfs.org>
  */
 public final class XOrObfuscater extends AbstractObfuscater
 {
 
+	/**
+	 * The id of the format this obfuscater produces.
+	 */
+	public final static String FORMAT_ID = "xor";
+
 	/**
 	 * A key that's used to Xor the value. You probably want to change this one, to make it slightly more difficult to deobfuscate your secrets.
 	 */
@@ -45,6 +69,16 @@ public final class XOrObfuscater extends AbstractObfuscater
 		-35, -38, -12, 55, 60, -92, 82, 25, 24, 80, -30, 22, 126, -113, -35, 7, -90, 33, -99, 47, -97, 32, -112, -12, 64, -30, -90, 53, 115, 49, -43, 3, 0, 33,
 		-64, -79, -113, 103, -43, -77, -35, -10, -15 };
 
+	/**
+	 * The combination of {@link #KEY1} and {@link #KEY2}, which is what's actually applied to the plain text.
+	 */
+	private final static byte[] KEY = xor(KEY1, KEY2);
+
+	/**
+	 * The size of the chunks the obfuscating stream passes on to the Base64 encoder.
+	 */
+	private final static int CHUNK_SIZE = 4096;
+
 
 	/**
 	 * Initialize the instance.
@@ -54,6 +88,18 @@ public final class XOrObfuscater extends AbstractObfuscater
 	}
 
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#getFormatId()
+	 */
+	@Override
+	public String getFormatId()
+	{
+		return FORMAT_ID;
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -66,14 +112,23 @@ public final class XOrObfuscater extends AbstractObfuscater
 		{
 			return plainText;
 		}
+		return obfuscate(keyFragment, plainText);
+	}
+
 
-		byte[] xored = xor(plainText.getBytes(), xor(KEY1, KEY2));
-		if (keyFragment != null && keyFragment.length() > 0)
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscate(android.content.Context, java.lang.String, char[], int, int)
+	 */
+	@Override
+	public String obfuscate(Context context, String keyFragment, char[] plainText, int offset, int length)
+	{
+		if (length == 0)
 		{
-			xored = xor(xored, keyFragment.getBytes());
+			return "";
 		}
-
-		return Base64.encodeToString(xored, Base64.NO_WRAP);
+		return obfuscate(keyFragment, CharBuffer.wrap(plainText, offset, length));
 	}
 
 
@@ -90,14 +145,149 @@ public final class XOrObfuscater extends AbstractObfuscater
 			return obfuscatedText;
 		}
 
-		byte[] xored = Base64.decode(obfuscatedText, Base64.NO_WRAP);
+		CharBuffer plainText = deobfuscate(keyFragment, obfuscatedText, TextCodec.scratch().charBuffer(obfuscatedText.length()));
+		String result = plainText.toString();
+		wipe(plainText);
+		return result;
+	}
 
-		if (keyFragment != null && keyFragment.length() > 0)
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#deobfuscate(android.content.Context, java.lang.String, java.lang.CharSequence,
+	 * java.nio.CharBuffer)
+	 */
+	@Override
+	public CharBuffer deobfuscate(Context context, String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		if (obfuscatedText == null)
+		{
+			return null;
+		}
+		return deobfuscate(keyFragment, obfuscatedText, buffer);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#obfuscatingStream(android.content.Context, java.lang.String, java.io.OutputStream)
+	 */
+	@Override
+	public OutputStream obfuscatingStream(Context context, String keyFragment, OutputStream out)
+	{
+		return new XOrOutputStream(new Base64OutputStream(out, Base64.NO_WRAP), new KeyStream(keyFragment));
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.obfuscater.AbstractObfuscater#deobfuscatingStream(android.content.Context, java.lang.String, java.io.InputStream)
+	 */
+	@Override
+	public InputStream deobfuscatingStream(Context context, String keyFragment, InputStream in)
+	{
+		return new XOrInputStream(new Base64InputStream(in, Base64.NO_WRAP), new KeyStream(keyFragment));
+	}
+
+
+	/**
+	 * Obfuscate the given plain text.
+	 * 
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @param plainText
+	 *            The plain text.
+	 * @return The obfuscated text.
+	 */
+	private static String obfuscate(String keyFragment, CharSequence plainText)
+	{
+		Scratch scratch = TextCodec.scratch();
+		byte[] bytes = scratch.bytes(plainText.length() * 3);
+		int length = TextCodec.encodeUtf8(plainText, bytes, 0);
+		// this overwrites the plain text bytes
+		xor(scratch, bytes, length, keyFragment);
+
+		char[] chars = scratch.chars((length + 2) / 3 * 4);
+		return new String(chars, 0, TextCodec.encodeBase64(bytes, length, chars));
+	}
+
+
+	/**
+	 * De-obfuscate the given text into a {@link CharBuffer}.
+	 * 
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 * @param obfuscatedText
+	 *            The obfuscated text.
+	 * @param buffer
+	 *            The buffer to write to or <code>null</code>.
+	 * @return A {@link CharBuffer} with the plain text.
+	 */
+	private static CharBuffer deobfuscate(String keyFragment, CharSequence obfuscatedText, CharBuffer buffer)
+	{
+		Scratch scratch = TextCodec.scratch();
+		byte[] bytes = scratch.bytes(obfuscatedText.length() / 4 * 3 + 3);
+		int length = TextCodec.decodeBase64(obfuscatedText, bytes);
+		xor(scratch, bytes, length, keyFragment);
+		try
 		{
-			xored = xor(xored, keyFragment.getBytes());
+			return TextCodec.decodeUtf8(bytes, length, buffer);
 		}
+		finally
+		{
+			TextCodec.wipe(bytes, length);
+		}
+	}
 
-		return new String(xor(xored, xor(KEY1, KEY2)));
+
+	/**
+	 * XOR's the first <code>length</code> bytes of <code>bytes</code> in place with {@link #KEY} and the given key fragment. Both keys are wrapped around if
+	 * they are shorter than the data.
+	 * 
+	 * @param scratch
+	 *            The {@link Scratch} buffers of the current thread.
+	 * @param bytes
+	 *            The data.
+	 * @param length
+	 *            The length of the data.
+	 * @param keyFragment
+	 *            The key fragment or <code>null</code>.
+	 */
+	private static void xor(Scratch scratch, byte[] bytes, int length, String keyFragment)
+	{
+		final byte[] key = KEY;
+		final int keyLength = key.length;
+		if (keyFragment == null || keyFragment.length() == 0)
+		{
+			for (int i = 0, k = 0; i < length; ++i)
+			{
+				bytes[i] ^= key[k];
+				if (++k == keyLength)
+				{
+					k = 0;
+				}
+			}
+		}
+		else
+		{
+			final byte[] fragment = scratch.fragment(keyFragment.length() * 3);
+			final int fragmentLength = TextCodec.encodeUtf8(keyFragment, fragment, 0);
+			for (int i = 0, k = 0, f = 0; i < length; ++i)
+			{
+				bytes[i] ^= key[k] ^ fragment[f];
+				if (++k == keyLength)
+				{
+					k = 0;
+				}
+				if (++f == fragmentLength)
+				{
+					f = 0;
+				}
+			}
+		}
 	}
 
 
@@ -121,4 +311,173 @@ public final class XOrObfuscater extends AbstractObfuscater
 		return result;
 	}
 
+
+	/**
+	 * The combination of {@link #KEY} and a key fragment as a continuous stream of key bytes. It remembers its position, so data can be XOR'ed in chunks.
+	 */
+	private final static class KeyStream
+	{
+		private final byte[] mFragment;
+		private int mKeyPos;
+		private int mFragmentPos;
+
+
+		public KeyStream(String keyFragment)
+		{
+			mFragment = keyFragment == null || keyFragment.length() == 0 ? null : keyFragment.getBytes(TextCodec.UTF8);
+		}
+
+
+		/**
+		 * XOR's <code>length</code> bytes of <code>source</code> with the next key bytes and writes the result to <code>target</code>. Source and target may be
+		 * the same array.
+		 */
+		public void xor(byte[] source, int sourceOffset, byte[] target, int targetOffset, int length)
+		{
+			final byte[] key = KEY;
+			final int keyLength = key.length;
+			final byte[] fragment = mFragment;
+			final int fragmentLength = fragment == null ? 0 : fragment.length;
+			int k = mKeyPos;
+			int f = mFragmentPos;
+			for (int i = 0; i < length; ++i)
+			{
+				byte b = (byte) (source[sourceOffset + i] ^ key[k]);
+				if (++k == keyLength)
+				{
+					k = 0;
+				}
+				if (fragment != null)
+				{
+					b ^= fragment[f];
+					if (++f == fragmentLength)
+					{
+						f = 0;
+					}
+				}
+				target[targetOffset + i] = b;
+			}
+			mKeyPos = k;
+			mFragmentPos = f;
+		}
+
+
+		/**
+		 * XOR's a single byte with the next key byte.
+		 */
+		public int xor(int b)
+		{
+			int result = b ^ KEY[mKeyPos];
+			if (++mKeyPos == KEY.length)
+			{
+				mKeyPos = 0;
+			}
+			if (mFragment != null)
+			{
+				result ^= mFragment[mFragmentPos];
+				if (++mFragmentPos == mFragment.length)
+				{
+					mFragmentPos = 0;
+				}
+			}
+			return result & 0xff;
+		}
+	}
+
+
+	/**
+	 * An {@link OutputStream} that XOR's all data with a {@link KeyStream} before it's written to the underlying stream. The data of the caller is not
+	 * modified.
+	 */
+	private final static class XOrOutputStream extends FilterOutputStream
+	{
+		private final KeyStream mKeyStream;
+		private final byte[] mChunk = new byte[CHUNK_SIZE];
+
+
+		public XOrOutputStream(OutputStream out, KeyStream keyStream)
+		{
+			super(out);
+			mKeyStream = keyStream;
+		}
+
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(mKeyStream.xor(b));
+		}
+
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException
+		{
+			while (length > 0)
+			{
+				int count = Math.min(length, CHUNK_SIZE);
+				mKeyStream.xor(buffer, offset, mChunk, 0, count);
+				out.write(mChunk, 0, count);
+				offset += count;
+				length -= count;
+			}
+		}
+	}
+
+
+	/**
+	 * An {@link InputStream} that XOR's all data read from the underlying stream with a {@link KeyStream}.
+	 */
+	private final static class XOrInputStream extends FilterInputStream
+	{
+		private final KeyStream mKeyStream;
+
+
+		public XOrInputStream(InputStream in, KeyStream keyStream)
+		{
+			super(in);
+			mKeyStream = keyStream;
+		}
+
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			return b < 0 ? b : mKeyStream.xor(b);
+		}
+
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int count = in.read(buffer, offset, length);
+			if (count > 0)
+			{
+				mKeyStream.xor(buffer, offset, buffer, offset, count);
+			}
+			return count;
+		}
+
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// skipping would get the key stream out of sync, so read and drop the bytes instead
+			byte[] buffer = new byte[(int) Math.min(n, CHUNK_SIZE)];
+			long skipped = 0;
+			int count;
+			while (skipped < n && (count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) > 0)
+			{
+				skipped += count;
+			}
+			return skipped;
+		}
+
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
 }
@@ -87,6 +87,17 @@ public class AnonymousAuthToken extends AuthToken
 	{
 	}
 
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.secrets.ProtectedSecret#parse(java.lang.CharSequence)
+	 */
+	@Override
+	protected void parse(CharSequence plainSecret)
+	{
+	}
+
 	public static final Parcelable.Creator<AnonymousAuthToken> CREATOR = new Parcelable.Creator<AnonymousAuthToken>()
 	{
 		/*
@@ -89,6 +89,17 @@ public class AnonymousSecret extends StoredSecret
 	{
 	}
 
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.secrets.ProtectedSecret#parse(java.lang.CharSequence)
+	 */
+	@Override
+	protected void parse(CharSequence plainSecret)
+	{
+	}
+
 	public static final Parcelable.Creator<AnonymousSecret> CREATOR = new Parcelable.Creator<AnonymousSecret>()
 	{
 		/*
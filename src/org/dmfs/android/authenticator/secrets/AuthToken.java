@@ -23,12 +23,24 @@ import android.content.Context;
 
 
 /**
- * Subclass of {@link ProtectedSecret} for authentication tokens. This class doesn't do anything, it's meant for type safety.
+ * Subclass of {@link ProtectedSecret} for authentication tokens. An auth token can carry the times when it has been issued and when it expires. These are
+ * stored outside of the obfuscated part, so they can be read without de-obfuscating the auth token. Auth tokens that have been created without these times
+ * return <code>-1</code>.
  * 
  * @author Marten Gajda <marten@dmfs.org>
  */
 public abstract class AuthToken extends ProtectedSecret
 {
+	/**
+	 * The metadata key of the issue time.
+	 */
+	private final static String ISSUED_AT = "iat";
+
+	/**
+	 * The metadata key of the expiration time.
+	 */
+	private final static String EXPIRES_AT = "exp";
+
 	/**
 	 * Hidden constructor for unparceling.
 	 */
@@ -63,4 +75,113 @@ public abstract class AuthToken extends ProtectedSecret
 	{
 		super(context, parts);
 	}
+
+
+	/**
+	 * Create in instance from the auth token parts with an issue time and an expiration time.
+	 * <p>
+	 * Note: <code>parts</code> is not a varargs parameter to avoid ambiguities with {@link #AuthToken(Context, Object...)}.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param issuedAt
+	 *            The time in milliseconds since the epoch when the auth token has been issued or <code>-1</code> if unknown.
+	 * @param expiresAt
+	 *            The time in milliseconds since the epoch when the auth token expires or <code>-1</code> if unknown.
+	 * @param parts
+	 *            The parts of the auth token.
+	 */
+	public AuthToken(Context context, long issuedAt, long expiresAt, Object[] parts)
+	{
+		super(context, metadata(issuedAt, expiresAt), parts);
+	}
+
+
+	/**
+	 * Return the time when this auth token has been issued. This doesn't require a call to {@link #unprotect(Context)}.
+	 * 
+	 * @return The time in milliseconds since the epoch or <code>-1</code> if it's unknown.
+	 */
+	public long getIssuedAt()
+	{
+		return getTime(toString(), ISSUED_AT);
+	}
+
+
+	/**
+	 * Return the time when this auth token expires. This doesn't require a call to {@link #unprotect(Context)}.
+	 * 
+	 * @return The time in milliseconds since the epoch or <code>-1</code> if it's unknown.
+	 */
+	public long getExpiresAt()
+	{
+		return getTime(toString(), EXPIRES_AT);
+	}
+
+
+	/**
+	 * Return whether this auth token is known to be expired at the given time. This doesn't require a call to {@link #unprotect(Context)}.
+	 * 
+	 * @param time
+	 *            The time in milliseconds since the epoch.
+	 * @return <code>true</code> if the auth token expires at or before the given time, <code>false</code> if it doesn't or if the expiration time is unknown.
+	 */
+	public boolean isExpired(long time)
+	{
+		long expiresAt = getExpiresAt();
+		return expiresAt >= 0 && expiresAt <= time;
+	}
+
+
+	/**
+	 * Return the time when the given protected auth token expires without creating an {@link AuthToken} instance.
+	 * 
+	 * @param protectedAuthToken
+	 *            The obfuscated auth token.
+	 * @return The time in milliseconds since the epoch or <code>-1</code> if it's unknown.
+	 */
+	public static long getExpiresAt(String protectedAuthToken)
+	{
+		return getTime(protectedAuthToken, EXPIRES_AT);
+	}
+
+
+	/**
+	 * Build the metadata string of the given times.
+	 */
+	private static String metadata(long issuedAt, long expiresAt)
+	{
+		StringBuilder result = new StringBuilder(48);
+		if (issuedAt >= 0)
+		{
+			result.append(';').append(ISSUED_AT).append('=').append(issuedAt);
+		}
+		if (expiresAt >= 0)
+		{
+			result.append(';').append(EXPIRES_AT).append('=').append(expiresAt);
+		}
+		return result.toString();
+	}
+
+
+	/**
+	 * Return the time stored in the given metadata entry.
+	 */
+	private static long getTime(String protectedAuthToken, String key)
+	{
+		String value = getMetadata(protectedAuthToken, key);
+		if (value == null)
+		{
+			return -1;
+		}
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
 }
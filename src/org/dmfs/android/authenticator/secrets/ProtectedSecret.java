@@ -19,8 +19,12 @@
 
 package org.dmfs.android.authenticator.secrets;
 
-import java.util.regex.Pattern;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
 import org.dmfs.android.authenticator.obfuscater.Obfuscater;
 
 import android.annotation.SuppressLint;
@@ -41,6 +45,14 @@ import android.os.Parcelable;
  * &lt;schema>:&lt;obfuscated secret>
  * </pre>
  * 
+ * or, if the secret carries metadata
+ * 
+ * <pre>
+ * &lt;schema>;&lt;key>=&lt;value>;&lt;key>=&lt;value>:&lt;obfuscated secret>
+ * </pre>
+ * 
+ * The metadata is stored in plain text, so it can be read without de-obfuscating the secret. It must never contain anything secret.
+ * 
  * The obfuscated secret may consist of several parts that are joined and stored in an obfuscated form. The individual parts are padded with random strings to
  * make deobfuscation more difficult.
  * 
@@ -85,6 +97,16 @@ public abstract class ProtectedSecret implements Parcelable
 	 */
 	private final static char SCHEME_DELIMITER = ':';
 
+	/**
+	 * The delimiter that precedes each metadata entry.
+	 */
+	private final static char METADATA_DELIMITER = ';';
+
+	/**
+	 * The delimiter that separates the key of a metadata entry from its value.
+	 */
+	private final static char METADATA_VALUE_DELIMITER = '=';
+
 	/**
 	 * The string that is stored for <code>null</code> values. Since "?" will be encoded as "%3F" in non-null values this won't cause any collisions.
 	 */
@@ -97,15 +119,32 @@ public abstract class ProtectedSecret implements Parcelable
 	private final static char[] RANDOM_DELIMITERS = { '+', '/', '$', '&', '=', '#', '@' };
 
 	/**
-	 * Pattern that matches any of the characters in {@link #RANDOM_DELIMITERS}.
+	 * Buffers larger than this are not kept for reuse.
 	 */
-	private final static Pattern RANDOM_DELIMITER_PATTERN = Pattern.compile("[" + new String(RANDOM_DELIMITERS) + "]");
+	private final static int MAX_RETAINED_BUFFER_SIZE = 4096;
+
+	/**
+	 * A buffer for the plain secret of each thread, reused by {@link #unprotect(Context, boolean)}.
+	 */
+	private final static ThreadLocal<CharBuffer> PLAIN_SECRET_BUFFER = new ThreadLocal<CharBuffer>()
+	{
+		@Override
+		protected CharBuffer initialValue()
+		{
+			return CharBuffer.allocate(256);
+		}
+	};
 
 	/**
 	 * The obfuscated secret. We can't make it final to support unparcelling.
 	 */
 	private String mProtectedSecret;
 
+	/**
+	 * The secret in the current obfuscation format if {@link #unprotect(Context, boolean)} has been asked to migrate it and found it in an outdated format.
+	 */
+	private String mMigratedSecret;
+
 
 	/**
 	 * Hidden constructor for unparceling purposes.
@@ -130,7 +169,8 @@ public abstract class ProtectedSecret implements Parcelable
 		{
 			throw new IllegalArgumentException("invalid protected secret, expected scheme " + scheme + ", but secret was null");
 		}
-		if (protectedSecret.length() <= scheme.length() || !protectedSecret.startsWith(scheme) || protectedSecret.charAt(scheme.length()) != SCHEME_DELIMITER)
+		if (protectedSecret.length() <= scheme.length() || !protectedSecret.startsWith(scheme) || protectedSecret.indexOf(SCHEME_DELIMITER, scheme.length()) < 0
+			|| protectedSecret.charAt(scheme.length()) != SCHEME_DELIMITER && protectedSecret.charAt(scheme.length()) != METADATA_DELIMITER)
 		{
 			throw new IllegalArgumentException("invalid protected secret, expected scheme " + scheme + ", but secret started with "
 				+ protectedSecret.substring(0, Math.min(protectedSecret.length(), 10)));
@@ -149,21 +189,251 @@ public abstract class ProtectedSecret implements Parcelable
 	 */
 	public ProtectedSecret(Context context, Object... parts)
 	{
-		mProtectedSecret = getScheme() + SCHEME_DELIMITER + Obfuscater.INSTANCE.obfuscate(context, null, join(parts));
+		long start = Metrics.start();
+		mProtectedSecret = getScheme() + SCHEME_DELIMITER + obfuscate(context, parts);
+		Metrics.stage(Stage.OBFUSCATE, start);
+	}
+
+
+	/**
+	 * Create a protected secret with metadata from the given parts.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param metadata
+	 *            The metadata entries, each one in the form <code>;&lt;key>=&lt;value></code>. Keys and values must not contain any of <code>;=:</code>.
+	 * @param parts
+	 *            The parts of the secret.
+	 */
+	ProtectedSecret(Context context, String metadata, Object[] parts)
+	{
+		long start = Metrics.start();
+		mProtectedSecret = getScheme() + metadata + SCHEME_DELIMITER + obfuscate(context, parts);
+		Metrics.stage(Stage.OBFUSCATE, start);
 	}
 
 
 	/**
 	 * De-obfuscate the stored secret. You'll have to call this when the instance has been created from the obfuscated secret or when it has been unparceled
-	 * (e.g. when you got it from a {@link Bundle}).
+	 * (e.g. when you got it from a {@link Bundle}). This never migrates the secret, see {@link #unprotect(Context, boolean)}.
 	 * 
 	 * @param context
 	 *            A {@link Context}.
 	 */
 	public void unprotect(Context context)
 	{
-		String scheme = getScheme();
-		parse(Obfuscater.INSTANCE.deobfuscate(context, null, mProtectedSecret.substring(scheme.length() + 1)));
+		unprotect(context, false);
+	}
+
+
+	/**
+	 * De-obfuscate the stored secret and optionally migrate it to the current obfuscation format.
+	 * <p>
+	 * If <code>migrate</code> is <code>true</code>, this secret is migratable (see {@link #isMigratable()}) and it has been obfuscated in another format than
+	 * the one of the current obfuscater, it's obfuscated again in the current format. In that case {@link #getMigratedSecret()} and {@link #toString()}
+	 * return the migrated secret. Only ask for a migration if you're going to store the migrated secret in place of the old one.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param migrate
+	 *            <code>true</code> to migrate secrets in an outdated format.
+	 */
+	public void unprotect(Context context, boolean migrate)
+	{
+		unprotect(context, migrate, false);
+	}
+
+
+	/**
+	 * De-obfuscate the stored secret like {@link #unprotect(Context, boolean)} and optionally return a copy of the plain secret. This is used by
+	 * {@link SecretCache} to keep the plain secret in an array it can wipe.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param migrate
+	 *            <code>true</code> to migrate secrets in an outdated format.
+	 * @param copyPlainSecret
+	 *            <code>true</code> to return a copy of the plain secret.
+	 * @return A copy of the plain secret or <code>null</code> if <code>copyPlainSecret</code> is <code>false</code>. Wipe it when you're done.
+	 */
+	char[] unprotect(Context context, boolean migrate, boolean copyPlainSecret)
+	{
+		long start = Metrics.start();
+		String protectedSecret = mProtectedSecret;
+		int payloadStart = protectedSecret.indexOf(SCHEME_DELIMITER, getScheme().length()) + 1;
+		CharBuffer payload = CharBuffer.wrap(protectedSecret, payloadStart, protectedSecret.length());
+
+		// de-obfuscate into a reusable buffer, so the plain secret doesn't linger on the heap
+		CharBuffer buffer = PLAIN_SECRET_BUFFER.get();
+		CharBuffer plainSecret = Obfuscater.INSTANCE.deobfuscateVersioned(context, null, payload, buffer);
+		char[] result = null;
+		try
+		{
+			if (copyPlainSecret)
+			{
+				result = new char[plainSecret.remaining()];
+				plainSecret.duplicate().get(result);
+			}
+
+			parse(plainSecret);
+
+			if (migrate && isMigratable() && !Obfuscater.INSTANCE.isCurrentFormat(context, payload))
+			{
+				// migrate the secret to the current format while we still have the plain text, keep the scheme and the metadata
+				mMigratedSecret = protectedSecret.substring(0, payloadStart) + obfuscate(context, plainSecret);
+				mProtectedSecret = mMigratedSecret;
+			}
+		}
+		catch (RuntimeException e)
+		{
+			if (result != null)
+			{
+				Arrays.fill(result, '\0');
+			}
+			throw e;
+		}
+		finally
+		{
+			AbstractObfuscater.wipe(plainSecret);
+			if (plainSecret != buffer && plainSecret != null && plainSecret.capacity() <= MAX_RETAINED_BUFFER_SIZE)
+			{
+				PLAIN_SECRET_BUFFER.set(plainSecret);
+			}
+		}
+		Metrics.stage(Stage.UNPROTECT, start);
+		return result;
+	}
+
+
+	/**
+	 * Return the secret in the current obfuscation format if {@link #unprotect(Context, boolean)} has been asked to migrate it and found it in an outdated
+	 * format. Store it in place of the old secret to avoid migrating it again.
+	 * 
+	 * @return The migrated secret or <code>null</code> if the secret is in the current format, not migratable or no migration has been requested.
+	 */
+	public String getMigratedSecret()
+	{
+		return mMigratedSecret;
+	}
+
+
+	/**
+	 * Return whether {@link #unprotect(Context, boolean)} may migrate this secret to the current obfuscation format. That's only useful for secrets that are
+	 * persisted. The default implementation returns <code>false</code>.
+	 * 
+	 * @return <code>true</code> if this secret should be migrated.
+	 */
+	protected boolean isMigratable()
+	{
+		return false;
+	}
+
+
+	/**
+	 * Join and obfuscate the given parts without creating a {@link String} of the plain secret.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param parts
+	 *            The parts of the secret.
+	 * @return The obfuscated secret.
+	 */
+	private static String obfuscate(Context context, Object... parts)
+	{
+		StringBuilder joined = join(parts);
+		int length = joined.length();
+		char[] plainSecret = new char[length];
+		joined.getChars(0, length, plainSecret, 0);
+		for (int i = 0; i < length; ++i)
+		{
+			joined.setCharAt(i, '\0');
+		}
+
+		try
+		{
+			return Obfuscater.INSTANCE.obfuscateVersioned(context, null, plainSecret, 0, length);
+		}
+		finally
+		{
+			Arrays.fill(plainSecret, '\0');
+		}
+	}
+
+
+	/**
+	 * Obfuscate the plain secret in the given buffer in the current format.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param plainSecret
+	 *            The buffer that contains the joined parts between its position and its limit.
+	 * @return The obfuscated secret.
+	 */
+	private static String obfuscate(Context context, CharBuffer plainSecret)
+	{
+		if (plainSecret.hasArray())
+		{
+			return Obfuscater.INSTANCE.obfuscateVersioned(context, null, plainSecret.array(), plainSecret.arrayOffset() + plainSecret.position(),
+				plainSecret.remaining());
+		}
+
+		char[] chars = new char[plainSecret.remaining()];
+		plainSecret.duplicate().get(chars);
+		try
+		{
+			return Obfuscater.INSTANCE.obfuscateVersioned(context, null, chars, 0, chars.length);
+		}
+		finally
+		{
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+
+	/**
+	 * Return the value of a metadata entry of the given protected secret without de-obfuscating it.
+	 * 
+	 * @param protectedSecret
+	 *            A protected secret string.
+	 * @param key
+	 *            The key of the metadata entry.
+	 * @return The value or <code>null</code> if the secret doesn't have such an entry.
+	 */
+	static String getMetadata(String protectedSecret, String key)
+	{
+		// the scheme doesn't contain any of the delimiters, so the metadata ends with the first scheme delimiter
+		int end = protectedSecret.indexOf(SCHEME_DELIMITER);
+		int pos = protectedSecret.indexOf(METADATA_DELIMITER);
+		int keyLen = key.length();
+		while (pos >= 0 && pos < end)
+		{
+			int next = protectedSecret.indexOf(METADATA_DELIMITER, pos + 1);
+			if (next < 0 || next > end)
+			{
+				next = end;
+			}
+
+			if (next - pos > keyLen + 1 && protectedSecret.startsWith(key, pos + 1) && protectedSecret.charAt(pos + keyLen + 1) == METADATA_VALUE_DELIMITER)
+			{
+				return protectedSecret.substring(pos + keyLen + 2, next);
+			}
+
+			pos = next == end ? -1 : next;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Remove the unprotected values from this instance. After calling this the instance behaves like it has never been unprotected. Subclasses that store
+	 * unprotected values must override this method, drop all references to the values and call the super method.
+	 * <p>
+	 * The default implementation does nothing.
+	 * </p>
+	 */
+	public void wipe()
+	{
 	}
 
 
@@ -177,39 +447,86 @@ public abstract class ProtectedSecret implements Parcelable
 	 * @return An array of strings with the parts of the secret like they have been stored.
 	 */
 	protected static String[] split(String plainSecret, int parts)
+	{
+		return split((CharSequence) plainSecret, parts);
+	}
+
+
+	/**
+	 * Split the plain secret into its parts without creating a {@link String} of the entire plain secret.
+	 * 
+	 * @param plainSecret
+	 *            The plan secret.
+	 * @param parts
+	 *            The number of parts the actual secret consists of.
+	 * @return An array of strings with the parts of the secret like they have been stored.
+	 */
+	protected static String[] split(CharSequence plainSecret, int parts)
 	{
 		if (plainSecret == null)
 		{
 			throw new IllegalArgumentException("secret must not be null");
 		}
 
-		String[] splitParts = RANDOM_DELIMITER_PATTERN.split(plainSecret, parts * 2 + 1);
+		// every part is surrounded by two random delimiters, so part i is between delimiter 2 * i and delimiter 2 * i + 1
+		String[] result = new String[parts];
+		int part = 0;
+		int valueStart = -1;
+		for (int i = 0, len = plainSecret.length(); i < len && part < parts; ++i)
+		{
+			if (!isRandomDelimiter(plainSecret.charAt(i)))
+			{
+				continue;
+			}
 
-		if (splitParts == null || splitParts.length != parts * 2 + 1)
+			if (valueStart < 0)
+			{
+				valueStart = i + 1;
+			}
+			else
+			{
+				result[part++] = decode(plainSecret.subSequence(valueStart, i).toString());
+				valueStart = -1;
+			}
+		}
+
+		if (part != parts)
 		{
 			// might be a secret stored with the old scheme
 			// TODO: remove splitOld and throw an exception instead
-			return splitOld(plainSecret, parts);
+			return splitOld(plainSecret.toString(), parts);
 		}
 
-		String[] result = new String[splitParts.length / 2];
+		return result;
+	}
 
-		// decode all parts
-		for (int i = 0; i < parts; i++)
-		{
-			String value = splitParts[i * 2 + 1];
 
-			if (NULL_VALUE.equals(value))
-			{
-				result[i] = null;
-			}
-			else
+	/**
+	 * Return whether the given character is one of {@link #RANDOM_DELIMITERS}.
+	 */
+	private static boolean isRandomDelimiter(char c)
+	{
+		for (char delimiter : RANDOM_DELIMITERS)
+		{
+			if (c == delimiter)
 			{
-				result[i] = Uri.decode(value);
+				return true;
 			}
 		}
+		return false;
+	}
 
-		return result;
+
+	/**
+	 * Decode a single part.
+	 */
+	private static String decode(String value)
+	{
+		if (NULL_VALUE.equals(value))
+		{
+			return null;
+		}
+		return value.indexOf('%') < 0 ? value : Uri.decode(value);
 	}
 
 
@@ -258,13 +575,13 @@ public abstract class ProtectedSecret implements Parcelable
 
 
 	/**
-	 * Join the parts of the secret to a {@link String}.
+	 * Join the parts of the secret in a {@link StringBuilder}.
 	 * 
 	 * @param parts
 	 *            The parts of the secret.
 	 * @return The concatenation of the parts, separated by {@link #DELIMITER}.
 	 */
-	private static String join(Object... parts)
+	private static StringBuilder join(Object... parts)
 	{
 		StringBuilder result = new StringBuilder(1024);
 		for (Object part : parts)
@@ -275,7 +592,7 @@ public abstract class ProtectedSecret implements Parcelable
 			appendRandomString(result, RANDOM_DELIMITERS, 1, 1);
 			appendRandomString(result, RANDOM_CHAR_POOL, 0, MAX_RANDOM_PADDING);
 		}
-		return result.toString();
+		return result;
 	}
 
 
@@ -313,6 +630,22 @@ public abstract class ProtectedSecret implements Parcelable
 	protected abstract void parse(String plainSecret);
 
 
+	/**
+	 * Parse the given plain secret into its parts. The buffer is wiped once this method returns, so don't keep any reference to it.
+	 * <p>
+	 * The default implementation converts the buffer to a {@link String} and calls {@link #parse(String)}. Subclasses should override this and use
+	 * {@link #split(CharSequence, int)} instead.
+	 * </p>
+	 * 
+	 * @param plainSecret
+	 *            The joined parts.
+	 */
+	protected void parse(CharSequence plainSecret)
+	{
+		parse(plainSecret.toString());
+	}
+
+
 	public abstract String getScheme();
 
 
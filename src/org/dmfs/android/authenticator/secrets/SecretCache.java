@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.android.authenticator.secrets;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.os.SystemClock;
+
+
+/**
+ * A cache of unprotected {@link StoredSecret}s. Unprotecting a secret means deobfuscating and parsing it, which is done over and over again when many auth
+ * tokens are requested in a short period of time. This cache keeps unprotected secrets for a limited time.
+ * <p>
+ * Each entry is bound to the protected secret it has been created from. If the stored secret of an account changes, the cached entry no longer matches and
+ * is dropped.
+ * </p>
+ * <p>
+ * The cache doesn't keep any secret instances. It keeps the plain secret in a <code>char[]</code> and returns a new instance on every hit (see
+ * {@link StoredSecret#newInstance(String)}), so callers own the secrets they get and can use them as long as they like. The plain secrets are overwritten
+ * with zeros when they expire, get replaced or get evicted. Secrets that don't support {@link StoredSecret#newInstance(String)} are not cached.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class SecretCache
+{
+	/**
+	 * The cached secrets in the order of their last access.
+	 */
+	private final LinkedHashMap<Account, Entry> mEntries;
+
+	/**
+	 * The time in milliseconds an entry lives.
+	 */
+	private final long mTtl;
+
+	/**
+	 * The maximum number of entries.
+	 */
+	private final int mMaxEntries;
+
+
+	/**
+	 * Create a new cache.
+	 * 
+	 * @param maxEntries
+	 *            The maximum number of secrets to cache. If this is <code>0</code> nothing is cached.
+	 * @param ttl
+	 *            The time in milliseconds to keep a secret.
+	 */
+	public SecretCache(int maxEntries, long ttl)
+	{
+		mMaxEntries = maxEntries;
+		mTtl = ttl;
+		mEntries = new LinkedHashMap<Account, Entry>(maxEntries * 4 / 3 + 1, 0.75f, true /* access order */);
+	}
+
+
+	/**
+	 * Return the cached secret of the given account if it has been created from the given protected secret.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 * @param protectedSecret
+	 *            The protected secret that's currently stored for the account.
+	 * @return A new unprotected {@link StoredSecret} or <code>null</code> if there is no matching secret in the cache.
+	 */
+	public synchronized StoredSecret get(Account account, String protectedSecret)
+	{
+		Entry entry = mEntries.get(account);
+		if (entry == null)
+		{
+			Metrics.cacheAccess(Cache.SECRET, false);
+			return null;
+		}
+
+		if (entry.mExpires <= SystemClock.elapsedRealtime() || !entry.matches(protectedSecret))
+		{
+			// the entry is outdated or the stored secret has changed
+			mEntries.remove(account);
+			entry.wipe();
+			Metrics.cacheAccess(Cache.SECRET, false);
+			return null;
+		}
+
+		Metrics.cacheAccess(Cache.SECRET, true);
+		StoredSecret secret = entry.mPrototype.newInstance(entry.mProtectedSecret);
+		secret.parse(CharBuffer.wrap(entry.mPlainSecret));
+		return secret;
+	}
+
+
+	/**
+	 * Unprotect the given secret (see {@link StoredSecret#unprotect(Context, boolean)}) and put its plain secret into the cache. The cache doesn't keep a
+	 * reference to the given instance.
+	 * <p>
+	 * If the secret has been migrated, the entry is bound to the migrated secret, so store it in place of the old one.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param account
+	 *            The {@link Account} the secret belongs to.
+	 * @param secret
+	 *            The {@link StoredSecret} to unprotect.
+	 * @param migrate
+	 *            <code>true</code> to migrate secrets in an outdated format.
+	 */
+	public void unprotect(Context context, Account account, StoredSecret secret, boolean migrate)
+	{
+		StoredSecret prototype = mMaxEntries <= 0 ? null : secret.newInstance(secret.toString());
+		if (prototype == null)
+		{
+			secret.unprotect(context, migrate);
+			return;
+		}
+
+		// unprotect outside of the lock, the migration may change the protected secret
+		char[] plainSecret = secret.unprotect(context, migrate, true);
+		put(account, secret.toString(), prototype, plainSecret);
+	}
+
+
+	/**
+	 * Put a plain secret into the cache.
+	 * 
+	 * @param account
+	 *            The {@link Account} the secret belongs to.
+	 * @param protectedSecret
+	 *            The protected secret the plain secret has been de-obfuscated from.
+	 * @param prototype
+	 *            A {@link StoredSecret} to create new instances of the secret with.
+	 * @param plainSecret
+	 *            The plain secret. The cache takes ownership of the array.
+	 */
+	private synchronized void put(Account account, String protectedSecret, StoredSecret prototype, char[] plainSecret)
+	{
+		long now = SystemClock.elapsedRealtime();
+		Entry old = mEntries.put(account, new Entry(protectedSecret, prototype, plainSecret, now + mTtl));
+		if (old != null)
+		{
+			old.wipe();
+		}
+
+		if (mEntries.size() > mMaxEntries)
+		{
+			// remove expired entries first, then the least recently used ones
+			Iterator<Entry> iterator = mEntries.values().iterator();
+			while (iterator.hasNext())
+			{
+				Entry entry = iterator.next();
+				if (entry.mExpires <= now)
+				{
+					iterator.remove();
+					entry.wipe();
+				}
+			}
+
+			iterator = mEntries.values().iterator();
+			while (mEntries.size() > mMaxEntries && iterator.hasNext())
+			{
+				Entry entry = iterator.next();
+				iterator.remove();
+				entry.wipe();
+			}
+		}
+	}
+
+
+	/**
+	 * Remove the secret of the given account from the cache.
+	 * 
+	 * @param account
+	 *            The {@link Account}.
+	 */
+	public synchronized void invalidate(Account account)
+	{
+		Entry entry = mEntries.remove(account);
+		if (entry != null)
+		{
+			entry.wipe();
+		}
+	}
+
+
+	/**
+	 * Remove all secrets from the cache.
+	 */
+	public synchronized void clear()
+	{
+		for (Map.Entry<Account, Entry> entry : mEntries.entrySet())
+		{
+			entry.getValue().wipe();
+		}
+		mEntries.clear();
+	}
+
+	/**
+	 * A cache entry.
+	 */
+	private final static class Entry
+	{
+		/**
+		 * The hash code of the protected secret.
+		 */
+		private final int mProtectedSecretHash;
+
+		/**
+		 * The protected secret.
+		 */
+		private final String mProtectedSecret;
+
+		/**
+		 * A secret that has not been unprotected, to create new instances with.
+		 */
+		private final StoredSecret mPrototype;
+
+		/**
+		 * The plain secret. This is never handed out.
+		 */
+		private final char[] mPlainSecret;
+
+		/**
+		 * The time when this entry expires in milliseconds since boot.
+		 */
+		private final long mExpires;
+
+
+		public Entry(String protectedSecret, StoredSecret prototype, char[] plainSecret, long expires)
+		{
+			mProtectedSecretHash = protectedSecret.hashCode();
+			mProtectedSecret = protectedSecret;
+			mPrototype = prototype;
+			mPlainSecret = plainSecret;
+			mExpires = expires;
+		}
+
+
+		/**
+		 * Overwrite the plain secret with zeros.
+		 */
+		public void wipe()
+		{
+			Arrays.fill(mPlainSecret, '\0');
+		}
+
+
+		/**
+		 * Returns whether this entry has been created from the given protected secret.
+		 * 
+		 * @param protectedSecret
+		 *            A protected secret.
+		 * @return <code>true</code> if the protected secret matches, <code>false</code> otherwise.
+		 */
+		public boolean matches(String protectedSecret)
+		{
+			return protectedSecret != null && mProtectedSecretHash == protectedSecret.hashCode() && mProtectedSecret.equals(protectedSecret);
+		}
+	}
+}
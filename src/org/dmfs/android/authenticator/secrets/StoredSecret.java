@@ -24,7 +24,7 @@ import android.content.Context;
 
 /**
  * Subclass of {@link ProtectedSecret} for stored secrets (i.e. what's stored in the account database). This class doesn't do anything more than
- * {@link ProtectedSecret}. It's meant for type safety.
+ * {@link ProtectedSecret}, except for migrating secrets in outdated obfuscation formats. It's meant for type safety.
  * 
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -65,4 +65,34 @@ public abstract class StoredSecret extends ProtectedSecret
 	{
 		super(context, parts);
 	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Stored secrets are persisted in the account database, so they're always migrated.
+	 * </p>
+	 */
+	@Override
+	protected boolean isMigratable()
+	{
+		return true;
+	}
+
+
+	/**
+	 * Create a new instance of this class from the given protected secret, without unprotecting it. This is used by {@link SecretCache} to create secrets
+	 * from cached plain secrets.
+	 * <p>
+	 * The default implementation returns <code>null</code>, which means secrets of this class are not cached.
+	 * </p>
+	 * 
+	 * @param protectedSecret
+	 *            The obfuscated secret.
+	 * @return A new instance or <code>null</code> if this class doesn't support that.
+	 */
+	protected StoredSecret newInstance(String protectedSecret)
+	{
+		return null;
+	}
 }
@@ -146,6 +146,18 @@ public class UserCredentialsAuthToken extends AuthToken
 	 */
 	@Override
 	protected void parse(String plainSecret)
+	{
+		parse((CharSequence) plainSecret);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.secrets.ProtectedSecret#parse(java.lang.CharSequence)
+	 */
+	@Override
+	protected void parse(CharSequence plainSecret)
 	{
 		String[] parts = split(plainSecret, 3);
 		mUsername = parts[0];
@@ -153,6 +165,21 @@ public class UserCredentialsAuthToken extends AuthToken
 		mRealm = parts[2];
 	}
 
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.dmfs.android.authenticator.secrets.ProtectedSecret#wipe()
+	 */
+	@Override
+	public void wipe()
+	{
+		mUsername = null;
+		mPassword = null;
+		mRealm = null;
+		super.wipe();
+	}
+
 	public static final Parcelable.Creator<UserCredentialsAuthToken> CREATOR = new Parcelable.Creator<UserCredentialsAuthToken>()
 	{
 		/*
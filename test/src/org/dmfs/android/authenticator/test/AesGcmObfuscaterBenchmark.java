@@ -0,0 +1,49 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.AesGcmObfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+
+/**
+ * Compares the cost of the {@link AesGcmObfuscater} to the cost of the {@link XOrObfuscater}. This is not part of the {@link AuthenticatorTestSuite}, run it
+ * explicitly.
+ */
+public class AesGcmObfuscaterBenchmark extends AndroidTestCase
+{
+	private final static String TAG = "AesGcmObfuscaterBenchmark";
+
+	private final static int ITERATIONS = 20000;
+
+	private final static String PLAIN_TEXT = "user@example.com:7rJ.8dk$Sj2+pw/realm";
+
+
+	public void testBenchmark()
+	{
+		AbstractObfuscater xor = new XOrObfuscater();
+		AbstractObfuscater aes = new AesGcmObfuscater();
+
+		// warm up
+		run(xor, PLAIN_TEXT, "fragment", ITERATIONS / 10);
+		run(aes, PLAIN_TEXT, "fragment", ITERATIONS / 10);
+
+		long xorTime = run(xor, PLAIN_TEXT, "fragment", ITERATIONS);
+		long aesTime = run(aes, PLAIN_TEXT, "fragment", ITERATIONS);
+
+		Log.i(TAG, "XOr: " + xorTime / ITERATIONS + " ns/round trip, AES-GCM: " + aesTime / ITERATIONS + " ns/round trip");
+	}
+
+
+	private static long run(AbstractObfuscater obfuscater, String plainText, String fragment, int iterations)
+	{
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i)
+		{
+			assertEquals(plainText, obfuscater.deobfuscate(null, fragment, obfuscater.obfuscate(null, fragment, plainText)));
+		}
+		return System.nanoTime() - start;
+	}
+}
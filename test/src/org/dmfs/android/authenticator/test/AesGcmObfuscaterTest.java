@@ -0,0 +1,119 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.metrics.InMemoryMetrics;
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.obfuscater.AesGcmObfuscater;
+
+import android.test.AndroidTestCase;
+
+
+public class AesGcmObfuscaterTest extends AndroidTestCase
+{
+	private final static String PLAIN_TEXT = "user@example.com:7rJ.8dk$Sj2+pw/realm";
+
+
+	/**
+	 * Ensure each obfuscation uses a fresh IV, so equal secrets don't result in equal obfuscated texts.
+	 */
+	public void testRandomized()
+	{
+		AbstractObfuscater obfuscater = new AesGcmObfuscater();
+
+		String first = obfuscater.obfuscate(null, "fragment", PLAIN_TEXT);
+		String second = obfuscater.obfuscate(null, "fragment", PLAIN_TEXT);
+		assertFalse(first.equals(second));
+		assertEquals(PLAIN_TEXT, obfuscater.deobfuscate(null, "fragment", first));
+		assertEquals(PLAIN_TEXT, obfuscater.deobfuscate(null, "fragment", second));
+
+		// null and empty key fragments are equivalent
+		assertEquals(PLAIN_TEXT, obfuscater.deobfuscate(null, "", obfuscater.obfuscate(null, null, PLAIN_TEXT)));
+	}
+
+
+	/**
+	 * Ensure modified obfuscated texts and wrong key fragments are detected.
+	 */
+	public void testTampering()
+	{
+		AbstractObfuscater obfuscater = new AesGcmObfuscater();
+		String obfuscated = obfuscater.obfuscate(null, "fragment", PLAIN_TEXT);
+
+		assertRejected(obfuscater, "fragment2", obfuscated);
+		assertRejected(obfuscater, null, obfuscated);
+		assertRejected(obfuscater, "fragment", obfuscated.substring(0, obfuscated.length() - 1));
+		assertRejected(obfuscater, "fragment", obfuscated.substring(0, 20));
+
+		// modify each character, except for the last one, which may carry unused bits
+		for (int i = 0; i < obfuscated.length() - 1; ++i)
+		{
+			char c = obfuscated.charAt(i);
+			char flipped = c == 'A' ? 'B' : 'A';
+			assertRejected(obfuscater, "fragment", obfuscated.substring(0, i) + flipped + obfuscated.substring(i + 1));
+		}
+	}
+
+
+	/**
+	 * Ensure the cached keys of other key fragments are not mixed up.
+	 */
+	public void testKeyFragments()
+	{
+		AbstractObfuscater obfuscater = new AesGcmObfuscater();
+
+		// use more fragments than keys are cached
+		String[] obfuscated = new String[40];
+		for (int i = 0; i < obfuscated.length; ++i)
+		{
+			obfuscated[i] = obfuscater.obfuscate(null, "fragment" + i, PLAIN_TEXT + i);
+		}
+		for (int i = obfuscated.length - 1; i >= 0; --i)
+		{
+			assertEquals(PLAIN_TEXT + i, obfuscater.deobfuscate(null, "fragment" + i, obfuscated[i]));
+			assertRejected(obfuscater, "fragment" + (i + 1), obfuscated[i]);
+		}
+	}
+
+
+	/**
+	 * Ensure a key fragment that is used repeatedly is taken from the cache of derived keys.
+	 */
+	public void testKeyCacheHits()
+	{
+		AbstractObfuscater obfuscater = new AesGcmObfuscater();
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+		try
+		{
+			String fragment = "fragment" + System.nanoTime();
+			String obfuscated = obfuscater.obfuscate(null, fragment, PLAIN_TEXT);
+			assertEquals(1, metrics.snapshot().getMisses(Cache.DERIVED_KEY));
+
+			for (int i = 0; i < 10; ++i)
+			{
+				assertEquals(PLAIN_TEXT, obfuscater.deobfuscate(null, fragment, obfuscated));
+			}
+			assertEquals(1, metrics.snapshot().getMisses(Cache.DERIVED_KEY));
+			assertEquals(10, metrics.snapshot().getHits(Cache.DERIVED_KEY));
+		}
+		finally
+		{
+			Metrics.setListener(null);
+		}
+	}
+
+
+	private static void assertRejected(AbstractObfuscater obfuscater, String fragment, String obfuscated)
+	{
+		try
+		{
+			obfuscater.deobfuscate(null, fragment, obfuscated);
+			fail("modified text has not been detected: " + obfuscated);
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package org.dmfs.android.authenticator.test;
+
+import java.lang.reflect.Constructor;
+
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.Password;
+
+import android.content.Context;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+
+public class AuthSchemeHandlerBenchmark extends AndroidTestCase
+{
+	private final static String TAG = "AuthSchemeHandlerBenchmark";
+
+	private final static int ITERATIONS = 100;
+
+	private final static Uri AUTH_TOKEN_TYPE = Uri.parse("password:");
+
+
+	/**
+	 * Compare the cost of creating a handler the way the resource based lookup does on a cold start (resolving the class and the constructor by reflection) to
+	 * the cost of creating it with a registered factory.
+	 */
+	public void testReflectiveVsFactory() throws Exception
+	{
+		Context context = getContext();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i)
+		{
+			Constructor<?> constructor = Class.forName(Password.class.getName()).getConstructor(Context.class, Uri.class);
+			assertTrue(constructor.newInstance(context, AUTH_TOKEN_TYPE) instanceof Password);
+		}
+		long reflective = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i)
+		{
+			assertTrue(Password.FACTORY.newInstance(context, AUTH_TOKEN_TYPE) instanceof Password);
+		}
+		long factory = System.nanoTime() - start;
+
+		Log.i(TAG, "reflective: " + reflective / ITERATIONS + " ns/handler, factory: " + factory / ITERATIONS + " ns/handler");
+	}
+
+
+	/**
+	 * Ensure a registered factory is used to create the handler.
+	 */
+	public void testRegisteredFactory()
+	{
+		AuthSchemeHandler.register(Password.SCHEME, Password.FACTORY);
+		assertTrue(AuthSchemeHandler.get(getContext(), AUTH_TOKEN_TYPE) instanceof Password);
+	}
+}
@@ -0,0 +1,142 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+public class AuthTokenMetadataTest extends AndroidTestCase
+{
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+	}
+
+
+	public void testMetadata()
+	{
+		Context context = getContext();
+		TestAuthToken token = new TestAuthToken(context, 1000L, 61000L, "token:;=value");
+		assertEquals(1000L, token.getIssuedAt());
+		assertEquals(61000L, token.getExpiresAt());
+		assertFalse(token.isExpired(60999L));
+		assertTrue(token.isExpired(61000L));
+		assertEquals(61000L, AuthToken.getExpiresAt(token.toString()));
+
+		// the metadata survives a round trip and doesn't affect the obfuscated part
+		TestAuthToken copy = new TestAuthToken(token.toString());
+		assertEquals(1000L, copy.getIssuedAt());
+		assertEquals(61000L, copy.getExpiresAt());
+		assertNull(copy.mValue);
+		copy.unprotect(context);
+		assertEquals("token:;=value", copy.mValue);
+	}
+
+
+	public void testPartialMetadata()
+	{
+		Context context = getContext();
+		TestAuthToken token = new TestAuthToken(context, -1, 5000L, "value");
+		assertEquals(-1L, token.getIssuedAt());
+		assertEquals(5000L, token.getExpiresAt());
+
+		token = new TestAuthToken(context, 5000L, -1, "value");
+		assertEquals(5000L, token.getIssuedAt());
+		assertEquals(-1L, token.getExpiresAt());
+		assertFalse(token.isExpired(Long.MAX_VALUE));
+	}
+
+
+	public void testLegacyToken()
+	{
+		Context context = getContext();
+		TestAuthToken token = new TestAuthToken(context, "value");
+		assertEquals(-1L, token.getIssuedAt());
+		assertEquals(-1L, token.getExpiresAt());
+		assertFalse(token.isExpired(Long.MAX_VALUE));
+		assertEquals(-1L, AuthToken.getExpiresAt(token.toString()));
+
+		TestAuthToken copy = new TestAuthToken(token.toString());
+		copy.unprotect(context);
+		assertEquals("value", copy.mValue);
+	}
+
+
+	public void testInvalidToken()
+	{
+		try
+		{
+			new TestAuthToken(TestAuthToken.SCHEME + ";exp=1000");
+			fail("token without payload delimiter accepted");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+
+		try
+		{
+			new TestAuthToken(TestAuthToken.SCHEME + "x;exp=1000:abc");
+			fail("token with wrong scheme accepted");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+
+		assertEquals(-1L, new TestAuthToken(TestAuthToken.SCHEME + ";exp=abc:abc").getExpiresAt());
+		assertEquals(-1L, new TestAuthToken(TestAuthToken.SCHEME + ";expires=1000:abc").getExpiresAt());
+		assertEquals(-1L, new TestAuthToken(TestAuthToken.SCHEME + ":abc;exp=1000").getExpiresAt());
+		assertEquals(1000L, new TestAuthToken(TestAuthToken.SCHEME + ";x=1;exp=1000;y=2:abc").getExpiresAt());
+	}
+
+	/**
+	 * A simple {@link AuthToken} with a single part.
+	 */
+	private final static class TestAuthToken extends AuthToken
+	{
+		final static String SCHEME = "test_auth_token";
+
+		String mValue;
+
+
+		public TestAuthToken(String protectedAuthToken)
+		{
+			super(protectedAuthToken);
+		}
+
+
+		public TestAuthToken(Context context, String value)
+		{
+			super(context, value);
+			mValue = value;
+		}
+
+
+		public TestAuthToken(Context context, long issuedAt, long expiresAt, String value)
+		{
+			super(context, issuedAt, expiresAt, new Object[] { value });
+			mValue = value;
+		}
+
+
+		@Override
+		public String getScheme()
+		{
+			return SCHEME;
+		}
+
+
+		@Override
+		protected void parse(String plainSecret)
+		{
+			mValue = split(plainSecret, 1)[0];
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.AuthTokenType;
+
+import android.test.AndroidTestCase;
+
+
+public class AuthTokenTypeTest extends AndroidTestCase
+{
+	/**
+	 * The number of distinct auth token types to flood the intern table with. That's much more than it holds.
+	 */
+	private final static int FLOOD = 2000;
+
+
+	public void testInterning()
+	{
+		String authTokenType = "interningtest:/" + System.nanoTime();
+		AuthTokenType first = AuthTokenType.get(authTokenType);
+		assertSame(first, AuthTokenType.get(authTokenType));
+		assertSame(first, AuthTokenType.get(first.getUri()));
+	}
+
+
+	/**
+	 * Ensure an auth token type that is used regularly stays interned while a flood of types that are used only once passes through.
+	 */
+	public void testUsedTypeSurvivesFlood()
+	{
+		String prefix = "interningtest:/" + System.nanoTime();
+		AuthTokenType used = AuthTokenType.get(prefix + "/used");
+
+		for (int i = 0; i < FLOOD; ++i)
+		{
+			AuthTokenType.get(prefix + "/junk" + i);
+			if (i % 16 == 0)
+			{
+				assertSame(used, AuthTokenType.get(prefix + "/used"));
+			}
+		}
+		assertSame(used, AuthTokenType.get(prefix + "/used"));
+	}
+}
@@ -13,6 +13,27 @@ public class AuthenticatorTestSuite
 		suite.addTestSuite(UserCredentialsAuthTokenTest.class);
 		suite.addTestSuite(UserCredentialsSecretTest.class);
 		suite.addTestSuite(ObfuscaterTest.class);
+		suite.addTestSuite(AuthSchemeHandlerBenchmark.class);
+		suite.addTestSuite(ConcurrentInitializationTest.class);
+		suite.addTestSuite(SecretReadCountTest.class);
+		suite.addTestSuite(SecretCacheTest.class);
+		suite.addTestSuite(SingleFlightTest.class);
+		suite.addTestSuite(ScheduledRetryTest.class);
+		suite.addTestSuite(InMemoryAccountStoreTest.class);
+		suite.addTestSuite(AuthTokenMetadataTest.class);
+		suite.addTestSuite(CircuitBreakerTest.class);
+		suite.addTestSuite(InMemoryMetricsTest.class);
+		suite.addTestSuite(XOrObfuscaterBenchmark.class);
+		suite.addTestSuite(StreamingObfuscaterTest.class);
+		suite.addTestSuite(DerivedKeyCacheTest.class);
+		suite.addTestSuite(FormatMigrationTest.class);
+		suite.addTestSuite(BatchAuthenticationTest.class);
+		suite.addTestSuite(WarmUpTest.class);
+		suite.addTestSuite(BackgroundRefreshTest.class);
+		suite.addTestSuite(NegativeCacheTest.class);
+		suite.addTestSuite(AesGcmObfuscaterTest.class);
+		suite.addTestSuite(HandlerCacheTest.class);
+		suite.addTestSuite(AuthTokenTypeTest.class);
 		return suite;
 	}
 
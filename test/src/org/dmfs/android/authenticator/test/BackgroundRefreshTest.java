@@ -0,0 +1,356 @@
+package org.dmfs.android.authenticator.test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.dmfs.android.authenticator.AuthenticationProvider;
+import org.dmfs.android.authenticator.Clock;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.AuthToken;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+
+/**
+ * Tests the background refresh of auth tokens. The refresh scheduler runs on a {@link ManualClock}, so the tests control the time instead of waiting for it
+ * to pass.
+ */
+public class BackgroundRefreshTest extends AndroidTestCase
+{
+	private final static Uri AUTH_TOKEN_TYPE = Uri.parse("shortlived:");
+
+	private final static String REFRESH_SCHEDULER = "org.dmfs.android.authenticator.RefreshScheduler";
+
+	/**
+	 * The lifetime of the auth tokens in milliseconds. This is much shorter than {@link #REFRESH_AHEAD}.
+	 */
+	private final static long LIFETIME = 4000;
+
+	private final static long REFRESH_AHEAD = 60000;
+
+	private final static long CHECK_INTERVAL = 60000;
+
+	/**
+	 * The minimum time between two refresh checks of the same auth token, see <code>RefreshScheduler.MIN_REFRESH_DELAY</code>.
+	 */
+	private final static long MIN_REFRESH_DELAY = 1000;
+
+	private ManualClock mClock;
+
+	private ManualScheduler mScheduler;
+
+	private Field mInstanceField;
+
+	private Object mDefaultInstance;
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+
+		mClock = new ManualClock(System.currentTimeMillis());
+		mScheduler = new ManualScheduler(mClock);
+
+		// replace the default refresh scheduler by one that runs on our clock, there is no public API for that, so we have to use reflection
+		Class<?> refreshSchedulerClass = Class.forName(REFRESH_SCHEDULER);
+		Constructor<?> constructor = refreshSchedulerClass.getDeclaredConstructor(long.class, long.class, long.class, ScheduledExecutorService.class,
+			Executor.class, Clock.class);
+		constructor.setAccessible(true);
+		mInstanceField = refreshSchedulerClass.getDeclaredField("INSTANCE");
+		mInstanceField.setAccessible(true);
+		mDefaultInstance = mInstanceField.get(null);
+		mInstanceField.set(null, constructor.newInstance(REFRESH_AHEAD, 0L, CHECK_INTERVAL, mScheduler, new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				command.run();
+			}
+		}, mClock));
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mInstanceField.set(null, mDefaultInstance);
+		mScheduler.shutdown();
+		super.tearDown();
+	}
+
+
+	/**
+	 * Ensure short lived auth tokens are neither refreshed right after they have been issued nor refreshed in a loop and the provider gets the new auth token.
+	 */
+	public void testShortLivedToken() throws Exception
+	{
+		Context context = getContext();
+		Account account = new Account("shortlived" + System.nanoTime(), "org.dmfs.test");
+
+		long start = mClock.currentTimeMillis();
+		ShortLivedProvider provider = new ShortLivedProvider(context, mClock);
+		AuthToken initialAuthToken = provider.getCurrentAuthToken();
+		provider.startBackgroundRefresh(context, account);
+
+		// the first refresh is due halfway through the lifetime of the token
+		mScheduler.advance(LIFETIME / 2 - 1);
+		assertEquals(0, provider.getRefreshTimes().size());
+		assertSame(initialAuthToken, provider.getCurrentAuthToken());
+
+		mScheduler.advance(1);
+		List<Long> refreshes = provider.getRefreshTimes();
+		assertEquals(1, refreshes.size());
+		assertEquals(start + LIFETIME / 2, refreshes.get(0).longValue());
+		assertEquals(start + LIFETIME / 2 + LIFETIME, provider.getCurrentAuthToken().getExpiresAt());
+
+		// the new token is not refreshed right away
+		mScheduler.advance(MIN_REFRESH_DELAY);
+		assertEquals(1, provider.getRefreshTimes().size());
+
+		// but halfway through its lifetime
+		mScheduler.advance(LIFETIME / 2 - MIN_REFRESH_DELAY);
+		refreshes = provider.getRefreshTimes();
+		assertEquals(2, refreshes.size());
+		assertEquals(start + LIFETIME, refreshes.get(1).longValue());
+		assertEquals(start + LIFETIME + LIFETIME, provider.getCurrentAuthToken().getExpiresAt());
+	}
+
+
+	/**
+	 * Ensure all live providers of an account get the new auth token, not only the one that has been tracked last.
+	 */
+	public void testAllProvidersRefreshed() throws Exception
+	{
+		Context context = getContext();
+		Account account = new Account("shortlived" + System.nanoTime(), "org.dmfs.test");
+
+		long start = mClock.currentTimeMillis();
+		ShortLivedProvider first = new ShortLivedProvider(context, mClock);
+		first.startBackgroundRefresh(context, account);
+		ShortLivedProvider second = new ShortLivedProvider(context, mClock);
+		second.startBackgroundRefresh(context, account);
+
+		mScheduler.advance(LIFETIME / 2);
+
+		// there is only one refresh per account and auth token type
+		assertEquals(0, first.getRefreshTimes().size());
+		assertEquals(1, second.getRefreshTimes().size());
+		assertEquals(start + LIFETIME / 2 + LIFETIME, first.getCurrentAuthToken().getExpiresAt());
+		assertEquals(start + LIFETIME / 2 + LIFETIME, second.getCurrentAuthToken().getExpiresAt());
+	}
+
+	/**
+	 * A {@link Clock} that only moves when it's told to.
+	 */
+	private final static class ManualClock implements Clock
+	{
+		private volatile long mNow;
+
+
+		public ManualClock(long now)
+		{
+			mNow = now;
+		}
+
+
+		@Override
+		public long currentTimeMillis()
+		{
+			return mNow;
+		}
+
+
+		public void set(long now)
+		{
+			mNow = now;
+		}
+	}
+
+	/**
+	 * A scheduler that doesn't run any delayed tasks by itself. {@link #advance(long)} moves the {@link ManualClock} forward and runs the tasks that are due
+	 * on the calling thread.
+	 */
+	private final static class ManualScheduler extends ScheduledThreadPoolExecutor
+	{
+		private final ManualClock mClock;
+
+		private final List<ScheduledTask> mTasks = new ArrayList<ScheduledTask>();
+
+
+		public ManualScheduler(ManualClock clock)
+		{
+			super(1);
+			mClock = clock;
+		}
+
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+		{
+			synchronized (mTasks)
+			{
+				mTasks.add(new ScheduledTask(mClock.currentTimeMillis() + unit.toMillis(delay), command));
+			}
+			return null;
+		}
+
+
+		/**
+		 * Move the clock forward and run all tasks that are due in the order of their due times, including tasks that are scheduled meanwhile.
+		 * 
+		 * @param millis
+		 *            The time in milliseconds to move the clock forward.
+		 */
+		public void advance(long millis)
+		{
+			long end = mClock.currentTimeMillis() + millis;
+			while (true)
+			{
+				ScheduledTask next = null;
+				synchronized (mTasks)
+				{
+					for (ScheduledTask task : mTasks)
+					{
+						if (task.mTime <= end && (next == null || task.mTime < next.mTime))
+						{
+							next = task;
+						}
+					}
+					if (next == null)
+					{
+						break;
+					}
+					mTasks.remove(next);
+				}
+				mClock.set(next.mTime);
+				next.mCommand.run();
+			}
+			mClock.set(end);
+		}
+	}
+
+	/**
+	 * A task of the {@link ManualScheduler}.
+	 */
+	private final static class ScheduledTask
+	{
+		private final long mTime;
+
+		private final Runnable mCommand;
+
+
+		public ScheduledTask(long time, Runnable command)
+		{
+			mTime = time;
+			mCommand = command;
+		}
+	}
+
+	/**
+	 * An {@link AuthenticationProvider} that issues auth tokens with a short lifetime and records the refreshes.
+	 */
+	private final static class ShortLivedProvider extends AuthenticationProvider<ShortLivedAuthToken>
+	{
+		private final Clock mClock;
+
+		private final List<Long> mRefreshTimes = new ArrayList<Long>();
+
+
+		public ShortLivedProvider(Context context, Clock clock) throws Exception
+		{
+			super(newAuthToken(context, clock), AUTH_TOKEN_TYPE);
+			mClock = clock;
+		}
+
+
+		@Override
+		public boolean canRefresh()
+		{
+			return true;
+		}
+
+
+		@Override
+		protected boolean needsRefresh(ShortLivedAuthToken authToken)
+		{
+			return false;
+		}
+
+
+		@Override
+		protected void refreshAuthToken(Context context, Account account, ShortLivedAuthToken authToken)
+		{
+			synchronized (mRefreshTimes)
+			{
+				mRefreshTimes.add(mClock.currentTimeMillis());
+			}
+		}
+
+
+		@Override
+		protected ShortLivedAuthToken getAuthToken(Context context, Account account)
+		{
+			return newAuthToken(context, mClock);
+		}
+
+
+		public AuthToken getCurrentAuthToken()
+		{
+			return mAuthToken;
+		}
+
+
+		public List<Long> getRefreshTimes()
+		{
+			synchronized (mRefreshTimes)
+			{
+				return new ArrayList<Long>(mRefreshTimes);
+			}
+		}
+
+
+		private static ShortLivedAuthToken newAuthToken(Context context, Clock clock)
+		{
+			long now = clock.currentTimeMillis();
+			return new ShortLivedAuthToken(context, now, now + LIFETIME);
+		}
+	}
+
+	/**
+	 * An {@link AuthToken} without any content, just the metadata.
+	 */
+	private final static class ShortLivedAuthToken extends AuthToken
+	{
+		public ShortLivedAuthToken(Context context, long issuedAt, long expiresAt)
+		{
+			super(context, issuedAt, expiresAt, new Object[] { "token" });
+		}
+
+
+		@Override
+		public String getScheme()
+		{
+			return "short_lived_auth_token";
+		}
+
+
+		@Override
+		protected void parse(String plainSecret)
+		{
+			// nothing to parse
+		}
+	}
+}
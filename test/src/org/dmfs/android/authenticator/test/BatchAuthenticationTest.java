@@ -0,0 +1,185 @@
+package org.dmfs.android.authenticator.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.AuthSchemeHandlerFactory;
+import org.dmfs.android.authenticator.AuthenticationException;
+import org.dmfs.android.authenticator.AuthenticationProvider;
+import org.dmfs.android.authenticator.AuthenticationResult;
+import org.dmfs.android.authenticator.BatchAuthentication;
+import org.dmfs.android.authenticator.Password;
+import org.dmfs.android.authenticator.PasswordAuthenticationProvider;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.AuthToken;
+import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+
+public class BatchAuthenticationTest extends AndroidTestCase
+{
+	private final static String ACCOUNT_TYPE = "org.dmfs.test";
+
+	private final static String AUTH_TOKEN_TYPE = "password:";
+
+	/**
+	 * The prefix of accounts that fail.
+	 */
+	private final static String FAILING = "fail";
+
+	/**
+	 * The prefix of accounts that block until they're interrupted.
+	 */
+	private final static String BLOCKING = "block";
+
+	private final static CountDownLatch BLOCKED = new CountDownLatch(1);
+
+	private final static CountDownLatch INTERRUPTED = new CountDownLatch(1);
+
+
+	/**
+	 * A {@link Password} handler that doesn't access the account database and fails or blocks for some accounts.
+	 */
+	public static class TestPassword extends Password
+	{
+		public TestPassword(Context context, Uri authTokenType)
+		{
+			super(context, authTokenType);
+		}
+
+
+		@Override
+		public AuthenticationProvider<? extends AuthToken> getAuthenticationProvider(Context context, Account account) throws AuthenticationException
+		{
+			if (account.name.startsWith(FAILING))
+			{
+				throw new AuthenticationException("injected failure for " + account.name);
+			}
+
+			if (account.name.startsWith(BLOCKING))
+			{
+				BLOCKED.countDown();
+				try
+				{
+					Thread.sleep(10000);
+				}
+				catch (InterruptedException e)
+				{
+					INTERRUPTED.countDown();
+					throw new AuthenticationException("interrupted", e);
+				}
+			}
+			return new PasswordAuthenticationProvider(new UserCredentialsAuthToken(context, account.name, "password", null), mAuthTokenType);
+		}
+	}
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		AuthSchemeHandler.register(Password.SCHEME, new AuthSchemeHandlerFactory()
+		{
+			@Override
+			public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+			{
+				return new TestPassword(context, authTokenType);
+			}
+		});
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		AuthSchemeHandler.register(Password.SCHEME, Password.FACTORY);
+		super.tearDown();
+	}
+
+
+	/**
+	 * Ensure failures are reported per account and don't affect the other accounts of the batch.
+	 */
+	public void testPerAccountFailures() throws Exception
+	{
+		List<Account> accounts = new ArrayList<Account>();
+		for (int i = 0; i < 100; ++i)
+		{
+			accounts.add(new Account((i % 3 == 0 ? FAILING : "user") + i, ACCOUNT_TYPE));
+		}
+
+		Map<Account, AuthenticationResult> results = BatchAuthentication.getAuthenticationProviders(getContext(), accounts, AUTH_TOKEN_TYPE);
+
+		assertEquals(accounts, new ArrayList<Account>(results.keySet()));
+		for (Account account : accounts)
+		{
+			AuthenticationResult result = results.get(account);
+			assertEquals(account, result.getAccount());
+			if (account.name.startsWith(FAILING))
+			{
+				assertFalse(result.isSuccess());
+				assertNull(result.getProvider());
+				assertTrue(result.getError() instanceof AuthenticationException);
+				assertEquals("injected failure for " + account.name, result.getError().getMessage());
+			}
+			else
+			{
+				assertTrue(result.isSuccess());
+				assertNotNull(result.getProvider());
+				assertNull(result.getError());
+			}
+		}
+	}
+
+
+	/**
+	 * Ensure interrupting the caller cancels the batch, including the attempts that are running.
+	 */
+	public void testInterrupt() throws Exception
+	{
+		final List<Account> accounts = new ArrayList<Account>();
+		accounts.add(new Account(BLOCKING, ACCOUNT_TYPE));
+		for (int i = 0; i < 10; ++i)
+		{
+			accounts.add(new Account("user" + i, ACCOUNT_TYPE));
+		}
+
+		final Context context = getContext();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread caller = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					BatchAuthentication.getAuthenticationProviders(context, accounts, AUTH_TOKEN_TYPE);
+				}
+				catch (Throwable e)
+				{
+					error.set(e);
+				}
+			}
+		};
+		caller.start();
+
+		assertTrue(BLOCKED.await(5, TimeUnit.SECONDS));
+		caller.interrupt();
+		caller.join(5000);
+
+		assertFalse(caller.isAlive());
+		assertTrue(error.get() instanceof InterruptedException);
+		assertTrue("running attempt has not been interrupted", INTERRUPTED.await(5, TimeUnit.SECONDS));
+	}
+}
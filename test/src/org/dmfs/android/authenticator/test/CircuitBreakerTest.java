@@ -0,0 +1,73 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.CircuitBreaker;
+import org.dmfs.android.authenticator.CircuitBreaker.State;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+
+public class CircuitBreakerTest extends AndroidTestCase
+{
+
+	public void testOpensAfterConsecutiveFailures()
+	{
+		CircuitBreaker breaker = new CircuitBreaker(3, 60000, 1);
+
+		for (int i = 0; i < 2; ++i)
+		{
+			assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+			assertEquals(State.CLOSED, breaker.getState());
+		}
+
+		// a success resets the failure count
+		assertTrue(breaker.tryAcquire());
+		breaker.onSuccess();
+		assertEquals(0, breaker.getConsecutiveFailures());
+
+		for (int i = 0; i < 3; ++i)
+		{
+			assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+		}
+		assertEquals(State.OPEN, breaker.getState());
+
+		// fail fast while open
+		assertFalse(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		assertEquals(2, breaker.getRejectedCalls());
+	}
+
+
+	public void testHalfOpenProbe()
+	{
+		CircuitBreaker breaker = new CircuitBreaker(1, 50, 1);
+
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+
+		SystemClock.sleep(60);
+
+		// only one probe passes
+		assertTrue(breaker.tryAcquire());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+
+		// a failed probe opens the circuit breaker again
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+
+		SystemClock.sleep(60);
+
+		// a successful probe closes it
+		assertTrue(breaker.tryAcquire());
+		breaker.onSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+	}
+}
@@ -0,0 +1,95 @@
+package org.dmfs.android.authenticator.test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.Password;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+/**
+ * A stress test that hammers the lazily initialized singletons of the framework from many threads.
+ */
+public class ConcurrentInitializationTest extends AndroidTestCase
+{
+	private final static int THREADS = 32;
+
+	private final static int ITERATIONS = 200;
+
+
+	public void testConcurrentInitialization() throws Exception
+	{
+		final Context context = getContext();
+
+		// force the obfuscater to be instantiated from the resources again
+		Obfuscater.INSTANCE.setObfuscaterImpl(null);
+		CountingObfuscaterProvider.INSTANCES.set(0);
+
+		// force the registry to be built again, there is no public API for that, so we have to use reflection
+		Field registryField = AuthSchemeHandler.class.getDeclaredField("REGISTRY");
+		registryField.setAccessible(true);
+		registryField.set(null, null);
+		final Method getRegistry = AuthSchemeHandler.class.getDeclaredMethod("getRegistry", Context.class);
+		getRegistry.setAccessible(true);
+		// the registries the threads have seen, by identity
+		final Set<Object> registries = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			List<Future<Void>> results = new ArrayList<Future<Void>>(THREADS);
+			for (int t = 0; t < THREADS; ++t)
+			{
+				final String plainText = "secret " + t;
+				results.add(executor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						// release all threads at once to maximize contention
+						start.await();
+						for (int i = 0; i < ITERATIONS; ++i)
+						{
+							registries.add(getRegistry.invoke(null, context));
+							assertTrue(AuthSchemeHandler.get(context, "password:") instanceof Password);
+							String obfuscated = Obfuscater.INSTANCE.obfuscate(context, null, plainText);
+							assertEquals(plainText, Obfuscater.INSTANCE.deobfuscate(context, null, obfuscated));
+						}
+						return null;
+					}
+				}));
+			}
+
+			start.countDown();
+
+			for (Future<Void> result : results)
+			{
+				// rethrows any assertion error of the worker threads
+				result.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(1, CountingObfuscaterProvider.INSTANCES.get());
+		// a second initialization of the registry would have been seen by at least the thread that did it
+		assertEquals(1, registries.size());
+	}
+}
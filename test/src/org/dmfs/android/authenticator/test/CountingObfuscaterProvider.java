@@ -0,0 +1,56 @@
+package org.dmfs.android.authenticator.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater.IObfuscaterProvider;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+
+import android.content.Context;
+
+
+/**
+ * An {@link IObfuscaterProvider} for the tests. It provides an obfuscater that counts its instances.
+ */
+public class CountingObfuscaterProvider implements IObfuscaterProvider
+{
+	/**
+	 * The number of {@link CountingObfuscater} instances that have been created.
+	 */
+	public final static AtomicInteger INSTANCES = new AtomicInteger();
+
+
+	@Override
+	public Class<? extends AbstractObfuscater> getObfuscater()
+	{
+		return CountingObfuscater.class;
+	}
+
+	/**
+	 * An obfuscater that delegates to {@link XOrObfuscater} and counts its instances.
+	 */
+	public static class CountingObfuscater extends AbstractObfuscater
+	{
+		private final AbstractObfuscater mDelegate = new XOrObfuscater();
+
+
+		public CountingObfuscater()
+		{
+			INSTANCES.incrementAndGet();
+		}
+
+
+		@Override
+		public String obfuscate(Context context, String keyFragment, String plainText)
+		{
+			return mDelegate.obfuscate(context, keyFragment, plainText);
+		}
+
+
+		@Override
+		public String deobfuscate(Context context, String keyFragment, String obfuscatedText)
+		{
+			return mDelegate.deobfuscate(context, keyFragment, obfuscatedText);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package org.dmfs.android.authenticator.test;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.dmfs.android.authenticator.obfuscater.DerivedKeyCache;
+
+import android.test.AndroidTestCase;
+
+
+public class DerivedKeyCacheTest extends AndroidTestCase
+{
+
+	/**
+	 * A {@link DerivedKeyCache.KeyDerivation} that counts the derivations and remembers the keys it returned.
+	 */
+	private final static class CountingKeyDerivation implements DerivedKeyCache.KeyDerivation
+	{
+		public final Map<String, byte[]> keys = new HashMap<String, byte[]>();
+		public int derivations;
+
+
+		@Override
+		public synchronized byte[] derive(String keyFragment) throws GeneralSecurityException
+		{
+			++derivations;
+			byte[] key = keyFragment.concat("-key").getBytes();
+			keys.put(keyFragment, key);
+			return key;
+		}
+	}
+
+
+	public void testDerivesOnce() throws GeneralSecurityException
+	{
+		CountingKeyDerivation derivation = new CountingKeyDerivation();
+		DerivedKeyCache cache = new DerivedKeyCache(4, "AES", derivation);
+
+		for (int i = 0; i < 10; ++i)
+		{
+			assertEquals("a-key", get(cache, "a"));
+			assertEquals("b-key", get(cache, "b"));
+			assertEquals("-key", get(cache, null));
+			assertEquals("-key", get(cache, ""));
+		}
+		assertEquals(3, derivation.derivations);
+		assertEquals(3, cache.size());
+	}
+
+
+	public void testSharedKeys() throws GeneralSecurityException
+	{
+		DerivedKeyCache cache = new DerivedKeyCache(4, "AES", new CountingKeyDerivation());
+
+		// a cache hit returns the cached key
+		SecretKey key = cache.acquire("a");
+		SecretKey other = cache.acquire("a");
+		assertSame(key, other);
+		assertEquals("AES", key.getAlgorithm());
+		assertEquals("RAW", key.getFormat());
+
+		// the encoded key is a copy
+		DerivedKeyCache.wipe(key.getEncoded());
+		assertEquals("a-key", new String(other.getEncoded()));
+		cache.release(key);
+		cache.release(other);
+
+		try
+		{
+			cache.release(other);
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// the key has already been released
+		}
+
+		try
+		{
+			cache.release(new SecretKeySpec("a-key".getBytes(), "AES"));
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// not a key of the cache
+		}
+	}
+
+
+	public void testEviction() throws GeneralSecurityException
+	{
+		CountingKeyDerivation derivation = new CountingKeyDerivation();
+		DerivedKeyCache cache = new DerivedKeyCache(2, "AES", derivation);
+
+		get(cache, "a");
+		get(cache, "b");
+		// access "a", so "b" is the least recently used key
+		get(cache, "a");
+		get(cache, "c");
+
+		assertEquals(2, cache.size());
+		assertWiped(derivation.keys.get("b"));
+		assertEquals("a-key", new String(derivation.keys.get("a")));
+
+		// "b" has to be derived again, which evicts "a"
+		assertEquals("b-key", get(cache, "b"));
+		assertEquals(4, derivation.derivations);
+		assertWiped(derivation.keys.get("a"));
+	}
+
+
+	public void testEvictionWhileInUse() throws GeneralSecurityException
+	{
+		CountingKeyDerivation derivation = new CountingKeyDerivation();
+		DerivedKeyCache cache = new DerivedKeyCache(1, "AES", derivation);
+
+		SecretKey key = cache.acquire("a");
+		// this evicts "a", but it's still in use
+		assertEquals("b-key", get(cache, "b"));
+		assertEquals(1, cache.size());
+		assertEquals("a-key", new String(key.getEncoded()));
+
+		cache.release(key);
+		assertWiped(derivation.keys.get("a"));
+	}
+
+
+	public void testClear() throws GeneralSecurityException
+	{
+		CountingKeyDerivation derivation = new CountingKeyDerivation();
+		DerivedKeyCache cache = new DerivedKeyCache(4, "AES", derivation);
+
+		get(cache, "a");
+		SecretKey key = cache.acquire("b");
+		cache.clear();
+
+		assertEquals(0, cache.size());
+		assertWiped(derivation.keys.get("a"));
+		assertEquals("b-key", new String(key.getEncoded()));
+
+		cache.release(key);
+		assertWiped(derivation.keys.get("b"));
+	}
+
+
+	/**
+	 * Acquire the key for the given fragment, release it and return the key as a String.
+	 */
+	private static String get(DerivedKeyCache cache, String keyFragment) throws GeneralSecurityException
+	{
+		SecretKey key = cache.acquire(keyFragment);
+		try
+		{
+			return new String(key.getEncoded());
+		}
+		finally
+		{
+			cache.release(key);
+		}
+	}
+
+
+	private static void assertWiped(byte[] key)
+	{
+		for (byte b : key)
+		{
+			assertEquals(0, b);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.AccountStores;
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.InMemoryAccountStore;
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.AesGcmObfuscater;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
+import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+public class FormatMigrationTest extends AndroidTestCase
+{
+	private final static Account ACCOUNT = new Account("user", "org.dmfs.test");
+
+	/**
+	 * The scheme of {@link UserCredentialsSecret}s.
+	 */
+	private final static String SECRET_SCHEME = "user_creds_secret";
+
+
+	/**
+	 * An obfuscater without format id, like the ones that have been written before format ids were introduced.
+	 */
+	private final static class LegacyObfuscater extends AbstractObfuscater
+	{
+		private final AbstractObfuscater mDelegate = new XOrObfuscater();
+
+
+		@Override
+		public String obfuscate(Context context, String keyFragment, String plainText)
+		{
+			return mDelegate.obfuscate(context, keyFragment, plainText);
+		}
+
+
+		@Override
+		public String deobfuscate(Context context, String keyFragment, String obfuscatedText)
+		{
+			return mDelegate.deobfuscate(context, keyFragment, obfuscatedText);
+		}
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Obfuscater.INSTANCE.setLegacyObfuscaterImpl(null);
+		Obfuscater.INSTANCE.setObfuscaterImpl(null);
+		AccountStores.set(null);
+		super.tearDown();
+	}
+
+
+	public void testCurrentFormat()
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+
+		String protectedSecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+		assertTrue(protectedSecret.startsWith(SECRET_SCHEME + ":|" + XOrObfuscater.FORMAT_ID + "|"));
+
+		UserCredentialsSecret secret = new UserCredentialsSecret(protectedSecret);
+		secret.unprotect(context, true);
+		assertCredentials(secret);
+		assertNull(secret.getMigratedSecret());
+	}
+
+
+	public void testLegacyMigration()
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new LegacyObfuscater());
+		String legacySecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+		assertTrue(legacySecret.startsWith(SECRET_SCHEME + ":"));
+		assertFalse(legacySecret.startsWith(SECRET_SCHEME + ":|"));
+
+		// switch to another obfuscater, but keep reading legacy secrets with the old one
+		Obfuscater.INSTANCE.setObfuscaterImpl(new AesGcmObfuscater());
+		Obfuscater.INSTANCE.setLegacyObfuscaterImpl(new LegacyObfuscater());
+
+		UserCredentialsSecret secret = new UserCredentialsSecret(legacySecret);
+		secret.unprotect(context, true);
+		assertCredentials(secret);
+		String migratedSecret = secret.getMigratedSecret();
+		assertNotNull(migratedSecret);
+		assertTrue(migratedSecret.startsWith(SECRET_SCHEME + ":|" + AesGcmObfuscater.FORMAT_ID + "|"));
+		assertEquals(migratedSecret, secret.toString());
+
+		// the migrated secret doesn't need another migration
+		UserCredentialsSecret migrated = new UserCredentialsSecret(migratedSecret);
+		migrated.unprotect(context, true);
+		assertCredentials(migrated);
+		assertNull(migrated.getMigratedSecret());
+	}
+
+
+	/**
+	 * Ensure secrets without a format id are not migrated, as long as no other legacy obfuscater has been set.
+	 */
+	public void testNoLegacyObfuscater()
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new LegacyObfuscater());
+		String legacySecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+
+		// the current obfuscater reads secrets without a format id
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		UserCredentialsSecret secret = new UserCredentialsSecret(legacySecret);
+		secret.unprotect(context, true);
+		assertCredentials(secret);
+		assertNull(secret.getMigratedSecret());
+
+		// same if the legacy obfuscater is the current one
+		AbstractObfuscater legacy = new LegacyObfuscater();
+		Obfuscater.INSTANCE.setObfuscaterImpl(legacy);
+		Obfuscater.INSTANCE.setLegacyObfuscaterImpl(legacy);
+		secret = new UserCredentialsSecret(legacySecret);
+		secret.unprotect(context, true);
+		assertCredentials(secret);
+		assertNull(secret.getMigratedSecret());
+	}
+
+
+	/**
+	 * Ensure secrets are only migrated on request.
+	 */
+	public void testNoMigrationWithoutRequest()
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		String oldSecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+
+		Obfuscater.INSTANCE.setObfuscaterImpl(new AesGcmObfuscater());
+		UserCredentialsSecret secret = new UserCredentialsSecret(oldSecret);
+		secret.unprotect(context);
+		assertCredentials(secret);
+		assertNull(secret.getMigratedSecret());
+	}
+
+
+	public void testFormatSwitch()
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		String oldSecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+		String oldAuthToken = new UserCredentialsAuthToken(context, "user", "password", "realm").toString();
+
+		// the XOr format is registered by default, so it can still be read
+		Obfuscater.INSTANCE.setObfuscaterImpl(new AesGcmObfuscater());
+
+		UserCredentialsSecret secret = new UserCredentialsSecret(oldSecret);
+		secret.unprotect(context, true);
+		assertCredentials(secret);
+		assertTrue(secret.getMigratedSecret().startsWith(SECRET_SCHEME + ":|" + AesGcmObfuscater.FORMAT_ID + "|"));
+
+		// auth tokens are not stored, so they are never migrated
+		UserCredentialsAuthToken authToken = new UserCredentialsAuthToken(oldAuthToken);
+		authToken.unprotect(context, true);
+		assertEquals("user", authToken.getUsername());
+		assertEquals("password", authToken.getPassword());
+		assertEquals("realm", authToken.getRealm());
+		assertNull(authToken.getMigratedSecret());
+		assertEquals(oldAuthToken, authToken.toString());
+	}
+
+
+	public void testUnknownFormat()
+	{
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		try
+		{
+			new UserCredentialsSecret(SECRET_SCHEME + ":|unknown|abcdef").unprotect(getContext());
+			fail("unknown format has not been detected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+
+	/**
+	 * Ensure the handler stores the migrated secret when it reads a secret in an outdated format.
+	 */
+	public void testHandlerStoresMigratedSecret() throws Exception
+	{
+		Context context = getContext();
+		InMemoryAccountStore store = new InMemoryAccountStore(context);
+		AccountStores.set(store);
+
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		String oldSecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+		store.setPassword(ACCOUNT, oldSecret);
+
+		Obfuscater.INSTANCE.setObfuscaterImpl(new AesGcmObfuscater());
+		UserCredentialsSecret secret = (UserCredentialsSecret) AuthSchemeHandler.get(context, "password:").getSecret(context, ACCOUNT);
+		assertCredentials(secret);
+
+		String storedSecret = store.getPassword(ACCOUNT);
+		assertFalse(oldSecret.equals(storedSecret));
+		assertTrue(storedSecret.startsWith(SECRET_SCHEME + ":|" + AesGcmObfuscater.FORMAT_ID + "|"));
+	}
+
+
+	private static void assertCredentials(UserCredentialsSecret secret)
+	{
+		assertEquals("user", secret.getUsername());
+		assertEquals("password", secret.getPassword());
+		assertEquals("realm", secret.getRealm());
+	}
+}
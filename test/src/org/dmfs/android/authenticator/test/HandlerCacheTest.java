@@ -0,0 +1,95 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.Anonymous;
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.metrics.InMemoryMetrics;
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+/**
+ * Verifies that the handler cache keeps the handlers of the auth token types that are actually used.
+ */
+public class HandlerCacheTest extends AndroidTestCase
+{
+	/**
+	 * The number of distinct auth token types to flood the cache with. That's much more than the cache holds.
+	 */
+	private final static int FLOOD = 200;
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// the anonymous handler is immutable, so it's cached
+		AuthSchemeHandler.register(Anonymous.SCHEME, Anonymous.FACTORY);
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Metrics.setListener(null);
+		super.tearDown();
+	}
+
+
+	/**
+	 * Ensure a burst of distinct auth token types doesn't prevent the types that are used later from being cached.
+	 */
+	public void testCachingAfterFlood()
+	{
+		Context context = getContext();
+		String prefix = Anonymous.SCHEME + ":/" + System.nanoTime();
+		for (int i = 0; i < FLOOD; ++i)
+		{
+			assertNotNull(AuthSchemeHandler.get(context, prefix + "/junk" + i));
+		}
+
+		String used = prefix + "/used";
+		assertNotNull(AuthSchemeHandler.get(context, used));
+		assertHit(context, used);
+	}
+
+
+	/**
+	 * Ensure a handler that is used regularly is not evicted by a burst of auth token types that are used only once.
+	 */
+	public void testUsedHandlerSurvivesFlood()
+	{
+		Context context = getContext();
+		String prefix = Anonymous.SCHEME + ":/" + System.nanoTime();
+		String used = prefix + "/used";
+		assertNotNull(AuthSchemeHandler.get(context, used));
+
+		for (int i = 0; i < FLOOD; ++i)
+		{
+			assertNotNull(AuthSchemeHandler.get(context, prefix + "/junk" + i));
+			if (i % 8 == 0)
+			{
+				assertNotNull(AuthSchemeHandler.get(context, used));
+			}
+		}
+		assertHit(context, used);
+	}
+
+
+	private static void assertHit(Context context, String authTokenType)
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+		try
+		{
+			assertNotNull(AuthSchemeHandler.get(context, authTokenType));
+			assertEquals(1, metrics.snapshot().getHits(Cache.HANDLER));
+		}
+		finally
+		{
+			Metrics.setListener(null);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.AccountStores;
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.InMemoryAccountStore;
+import org.dmfs.android.authenticator.PasswordAuthenticationProvider;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
+import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+public class InMemoryAccountStoreTest extends AndroidTestCase
+{
+	private final static Account ACCOUNT = new Account("user", "org.dmfs.test");
+
+	private InMemoryAccountStore mStore;
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		mStore = new InMemoryAccountStore(getContext());
+		AccountStores.set(mStore);
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		AccountStores.set(null);
+		super.tearDown();
+	}
+
+
+	public void testAuthToken() throws Exception
+	{
+		Context context = getContext();
+		mStore.setPassword(ACCOUNT, new UserCredentialsSecret(context, "user", "password", "realm").toString());
+
+		String protectedAuthToken = mStore.blockingGetAuthToken(ACCOUNT, "password:", true);
+		assertNotNull(protectedAuthToken);
+
+		// the token is cached until it's invalidated
+		assertSame(protectedAuthToken, mStore.blockingGetAuthToken(ACCOUNT, "password:", true));
+		mStore.invalidateAuthToken(ACCOUNT.type, protectedAuthToken);
+		assertNotSame(protectedAuthToken, mStore.blockingGetAuthToken(ACCOUNT, "password:", true));
+
+		UserCredentialsAuthToken authToken = new UserCredentialsAuthToken(protectedAuthToken);
+		authToken.unprotect(context);
+		assertEquals("user", authToken.getUsername());
+		assertEquals("password", authToken.getPassword());
+		assertEquals("realm", authToken.getRealm());
+	}
+
+
+	public void testMissingSecret() throws Exception
+	{
+		assertNull(mStore.blockingGetAuthToken(ACCOUNT, "password:", true));
+	}
+
+
+	public void testAuthenticationProvider() throws Exception
+	{
+		Context context = getContext();
+		mStore.setPassword(ACCOUNT, new UserCredentialsSecret(context, "user", "password", "realm").toString());
+
+		assertTrue(AuthSchemeHandler.get(context, "password:").getAuthenticationProvider(context, ACCOUNT) instanceof PasswordAuthenticationProvider);
+	}
+}
@@ -0,0 +1,100 @@
+package org.dmfs.android.authenticator.test;
+
+import java.io.IOException;
+
+import org.dmfs.android.authenticator.AuthenticationException;
+import org.dmfs.android.authenticator.metrics.InMemoryMetrics;
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.metrics.Metrics.Stage;
+
+import android.test.AndroidTestCase;
+
+
+public class InMemoryMetricsTest extends AndroidTestCase
+{
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Metrics.setListener(null);
+		super.tearDown();
+	}
+
+
+	public void testNoListener()
+	{
+		Metrics.setListener(null);
+		assertEquals(0, Metrics.start());
+
+		// these must not fail without a listener
+		Metrics.stage(Stage.UNPROTECT, 0);
+		Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+		Metrics.cacheAccess(Cache.SECRET, true);
+		Metrics.failure(Stage.FETCH_AUTH_TOKEN, new IOException());
+	}
+
+
+	public void testCounters()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+
+		long start = Metrics.start();
+		assertTrue(start != 0);
+		Metrics.stage(Stage.SECRET_READ, start);
+		Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+		Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+		Metrics.cacheAccess(Cache.SECRET, true);
+		Metrics.cacheAccess(Cache.SECRET, false);
+		Metrics.cacheAccess(Cache.SECRET, true);
+		Metrics.failure(Stage.FETCH_AUTH_TOKEN, new IOException());
+		Metrics.failure(Stage.FETCH_AUTH_TOKEN, new IOException());
+		Metrics.failure(Stage.ISSUE_AUTH_TOKEN, new AuthenticationException("test"));
+
+		InMemoryMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(1, snapshot.getCount(Stage.SECRET_READ));
+		assertEquals(0, snapshot.getCount(Stage.UNPROTECT));
+		assertEquals(2, snapshot.getRetries(Stage.FETCH_AUTH_TOKEN));
+		assertEquals(2, snapshot.getHits(Cache.SECRET));
+		assertEquals(1, snapshot.getMisses(Cache.SECRET));
+		assertEquals(0, snapshot.getHits(Cache.HANDLER));
+		assertEquals(2, snapshot.getFailures(Stage.FETCH_AUTH_TOKEN));
+		assertEquals(1, snapshot.getFailures(Stage.ISSUE_AUTH_TOKEN));
+		assertEquals(Long.valueOf(2), snapshot.getFailuresByType().get(IOException.class.getName()));
+		assertEquals(Long.valueOf(1), snapshot.getFailuresByType().get(AuthenticationException.class.getName()));
+
+		// the snapshot doesn't change
+		Metrics.retry(Stage.FETCH_AUTH_TOKEN);
+		assertEquals(2, snapshot.getRetries(Stage.FETCH_AUTH_TOKEN));
+		assertEquals(3, metrics.snapshot().getRetries(Stage.FETCH_AUTH_TOKEN));
+	}
+
+
+	public void testHistogram()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		for (int i = 0; i < 90; ++i)
+		{
+			metrics.onStage(Stage.UNPROTECT, 1000);
+		}
+		for (int i = 0; i < 10; ++i)
+		{
+			metrics.onStage(Stage.UNPROTECT, 1000000);
+		}
+
+		InMemoryMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(100, snapshot.getCount(Stage.UNPROTECT));
+		assertEquals(90 * 1000 + 10 * 1000000, snapshot.getTotalNanos(Stage.UNPROTECT));
+
+		long[] histogram = snapshot.getHistogram(Stage.UNPROTECT);
+		assertEquals(90, histogram[10]); // 512 <= 1000 < 1024
+		assertEquals(10, histogram[20]); // 524288 <= 1000000 < 1048576
+
+		long p50 = snapshot.getPercentile(Stage.UNPROTECT, 0.5f);
+		assertTrue(p50 >= 1000 && p50 < 2000);
+		long p99 = snapshot.getPercentile(Stage.UNPROTECT, 0.99f);
+		assertTrue(p99 >= 1000000 && p99 < 2000000);
+		assertEquals(0, snapshot.getPercentile(Stage.OBFUSCATE, 0.5f));
+	}
+}
@@ -0,0 +1,86 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.AccountStores;
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.AuthSchemeHandlerFactory;
+import org.dmfs.android.authenticator.Authenticator;
+import org.dmfs.android.authenticator.InMemoryAccountStore;
+import org.dmfs.android.authenticator.Password;
+import org.dmfs.android.authenticator.metrics.InMemoryMetrics;
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+
+/**
+ * Verifies that requests that are known to fail are remembered and forgotten once they might succeed.
+ */
+public class NegativeCacheTest extends AndroidTestCase
+{
+	private final static String SCHEME = "negativecachetest";
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Metrics.setListener(null);
+		AccountStores.set(null);
+		super.tearDown();
+	}
+
+
+	public void testUnknownAuthTokenType()
+	{
+		Context context = getContext();
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+
+		// use a unique auth token type, so no other test can have looked it up
+		String authTokenType = SCHEME + ":" + System.nanoTime();
+		assertNull(AuthSchemeHandler.get(context, authTokenType));
+		assertEquals(0, metrics.snapshot().getHits(Cache.NEGATIVE));
+		assertNull(AuthSchemeHandler.get(context, authTokenType));
+		assertEquals(1, metrics.snapshot().getHits(Cache.NEGATIVE));
+
+		// registering a factory for the scheme invalidates the cache
+		AuthSchemeHandler.register(SCHEME, new AuthSchemeHandlerFactory()
+		{
+			@Override
+			public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+			{
+				return new Password(context, Uri.parse("password:"));
+			}
+		});
+		assertNotNull(AuthSchemeHandler.get(context, authTokenType));
+		assertEquals(1, metrics.snapshot().getHits(Cache.NEGATIVE));
+	}
+
+
+	public void testMissingSecret() throws Exception
+	{
+		Context context = getContext();
+		AccountStores.set(new InMemoryAccountStore(context));
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+
+		Authenticator authenticator = new Authenticator(context);
+		Account account = new Account("nosecret" + System.nanoTime(), "org.dmfs.test");
+
+		Bundle result = authenticator.getAuthToken(null, account, "password:", null);
+		assertNull(result.getString(AccountManager.KEY_AUTHTOKEN));
+		assertNotNull(result.getString(AccountManager.KEY_ERROR_MESSAGE));
+		long hits = metrics.snapshot().getHits(Cache.NEGATIVE);
+
+		// the second request is answered from the cache
+		result = authenticator.getAuthToken(null, account, "password:", null);
+		assertNull(result.getString(AccountManager.KEY_AUTHTOKEN));
+		assertNotNull(result.getString(AccountManager.KEY_ERROR_MESSAGE));
+		assertEquals(hits + 1, metrics.snapshot().getHits(Cache.NEGATIVE));
+	}
+}
@@ -1,6 +1,9 @@
 package org.dmfs.android.authenticator.test;
 
+import java.nio.CharBuffer;
+
 import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.AesGcmObfuscater;
 import org.dmfs.android.authenticator.obfuscater.Base64Obfuscater;
 import org.dmfs.android.authenticator.obfuscater.DummyObfuscater;
 import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
@@ -36,6 +39,58 @@ public class ObfuscaterTest extends AndroidTestCase
 	}
 
 
+	/**
+	 * Test the buffer based methods of the given obfuscater with all String as {@link #TEST_STRINGS} as key and plain text.
+	 * 
+	 * @param obfuscater
+	 *            The {@link AbstractObfuscater} to test.
+	 */
+	public void bufferObfuscaterTest(AbstractObfuscater obfuscater)
+	{
+		Context context = getContext();
+		CharBuffer reusableBuffer = CharBuffer.allocate(16);
+
+		for (String key : TEST_STRINGS)
+		{
+			for (String plainText : TEST_STRINGS)
+			{
+				if (plainText == null)
+				{
+					assertNull(obfuscater.deobfuscate(context, key, (CharSequence) null, reusableBuffer));
+					continue;
+				}
+
+				// embed the plain text in a larger array to ensure offset and length are respected
+				char[] chars = ("xx" + plainText + "yy").toCharArray();
+				String obfuscated = obfuscater.obfuscate(context, key, chars, 2, plainText.length());
+
+				// the result must be interchangeable with the String based result (which is not necessarily equal, the obfuscation may be randomized)
+				assertEquals(plainText, obfuscater.deobfuscate(context, key, obfuscated));
+				assertEquals(plainText, obfuscater.deobfuscate(context, key, obfuscater.obfuscate(context, key, plainText), null).toString());
+
+				// de-obfuscate into a new buffer and into the reusable buffer
+				assertEquals(plainText, obfuscater.deobfuscate(context, key, obfuscated, null).toString());
+
+				CharBuffer result = obfuscater.deobfuscate(context, key, CharBuffer.wrap("::" + obfuscated, 2, obfuscated.length() + 2), reusableBuffer);
+				assertEquals(plainText, result.toString());
+				if (result.capacity() <= reusableBuffer.capacity())
+				{
+					assertSame(reusableBuffer, result);
+				}
+
+				// wiping must leave nothing behind
+				AbstractObfuscater.wipe(result);
+				assertEquals(0, result.position());
+				assertEquals(result.capacity(), result.limit());
+				while (result.hasRemaining())
+				{
+					assertEquals('\0', result.get());
+				}
+			}
+		}
+	}
+
+
 	/**
 	 * Tests all {@link AbstractObfuscater} implementations in this library.
 	 */
@@ -44,5 +99,18 @@ public class ObfuscaterTest extends AndroidTestCase
 		obfuscaterTest(new XOrObfuscater());
 		obfuscaterTest(new DummyObfuscater());
 		obfuscaterTest(new Base64Obfuscater());
+		obfuscaterTest(new AesGcmObfuscater());
+	}
+
+
+	/**
+	 * Tests the buffer based methods of all {@link AbstractObfuscater} implementations in this library.
+	 */
+	public void testAllBufferObfuscaters()
+	{
+		bufferObfuscaterTest(new XOrObfuscater());
+		bufferObfuscaterTest(new DummyObfuscater());
+		bufferObfuscaterTest(new Base64Obfuscater());
+		bufferObfuscaterTest(new AesGcmObfuscater());
 	}
 }
@@ -0,0 +1,407 @@
+package org.dmfs.android.authenticator.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dmfs.android.authenticator.AccountStore;
+import org.dmfs.android.authenticator.AccountStores;
+import org.dmfs.android.authenticator.AuthenticationException;
+import org.dmfs.android.authenticator.AuthenticationProvider;
+import org.dmfs.android.authenticator.CircuitBreaker;
+import org.dmfs.android.authenticator.Password;
+import org.dmfs.android.authenticator.RetryPolicy;
+import org.dmfs.android.authenticator.ScheduledRetry;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.AuthToken;
+import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
+
+import android.accounts.Account;
+import android.accounts.AuthenticatorException;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+
+public class ScheduledRetryTest extends AndroidTestCase
+{
+	private final static String TAG = "ScheduledRetryTest";
+
+	private final static String EXECUTOR_THREAD = "executor";
+
+	private final static int THREADS = 2;
+
+	private final static int OPERATIONS = 8;
+
+	private final static int FAILURES = 2;
+
+	private final static long ATTEMPT_DURATION = 10;
+
+	private final static long RETRY_DELAY = 200;
+
+	/**
+	 * A policy with a constant delay and no jitter.
+	 */
+	private final static RetryPolicy RETRY_POLICY = new RetryPolicy(FAILURES + 1, RETRY_DELAY, RETRY_DELAY, 1f, 0f, 0);
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		AccountStores.set(null);
+		super.tearDown();
+	}
+
+
+	/**
+	 * Run operations that fail a few times on a small pool and measure how long the pool threads are occupied. Blocking retries would keep a thread busy
+	 * during each retry delay, so all operations would take at least <code>OPERATIONS * FAILURES * RETRY_DELAY / THREADS</code> milliseconds.
+	 */
+	public void testThreadOccupancy() throws Exception
+	{
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(THREADS);
+		final AtomicLong busyTime = new AtomicLong();
+
+		try
+		{
+			long start = SystemClock.elapsedRealtime();
+			List<ScheduledRetry<String>> operations = new ArrayList<ScheduledRetry<String>>(OPERATIONS);
+			for (int i = 0; i < OPERATIONS; ++i)
+			{
+				final AtomicInteger attempts = new AtomicInteger();
+				final String token = "token" + i;
+				operations.add(ScheduledRetry.start(new Callable<String>()
+				{
+					@Override
+					public String call() throws Exception
+					{
+						long attemptStart = SystemClock.elapsedRealtime();
+						try
+						{
+							// simulate a binder call
+							SystemClock.sleep(ATTEMPT_DURATION);
+							if (attempts.incrementAndGet() <= FAILURES)
+							{
+								throw new IOException("injected failure");
+							}
+							return token;
+						}
+						finally
+						{
+							busyTime.addAndGet(SystemClock.elapsedRealtime() - attemptStart);
+						}
+					}
+				}, RETRY_POLICY, scheduler, null));
+			}
+
+			for (int i = 0; i < OPERATIONS; ++i)
+			{
+				assertEquals("token" + i, operations.get(i).get());
+				assertEquals(FAILURES, operations.get(i).getFailedAttempts());
+			}
+
+			long wallTime = SystemClock.elapsedRealtime() - start;
+			Log.i(TAG, "wall time: " + wallTime + " ms, busy time: " + busyTime.get() + " ms, occupancy: " + (100 * busyTime.get() / (wallTime * THREADS))
+				+ "%");
+
+			assertTrue("threads were blocked between attempts", wallTime < OPERATIONS * FAILURES * RETRY_DELAY / THREADS);
+		}
+		finally
+		{
+			scheduler.shutdown();
+		}
+	}
+
+
+	/**
+	 * Ensure the error of the last attempt is returned when the policy gives up.
+	 */
+	public void testGiveUp() throws Exception
+	{
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+		try
+		{
+			ScheduledRetry<String> operation = ScheduledRetry.start(new Callable<String>()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					throw new IOException("injected failure");
+				}
+			}, new RetryPolicy(3, 10, 10, 1f, 0f, 0), scheduler, null);
+
+			try
+			{
+				operation.get();
+				fail("ExecutionException expected");
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			assertEquals(3, operation.getFailedAttempts());
+		}
+		finally
+		{
+			scheduler.shutdown();
+		}
+	}
+
+
+	/**
+	 * Ensure attempts run on the given executor and cancelling an operation interrupts its running attempt.
+	 */
+	public void testExecutor() throws Exception
+	{
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				return new Thread(runnable, EXECUTOR_THREAD);
+			}
+		});
+		try
+		{
+			final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+			ScheduledRetry<String> operation = ScheduledRetry.start(new Callable<String>()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					threads.add(Thread.currentThread().getName());
+					if (threads.size() <= FAILURES)
+					{
+						throw new IOException("injected failure");
+					}
+					return "token";
+				}
+			}, new RetryPolicy(FAILURES + 1, 10, 10, 1f, 0f, 0), scheduler, executor, null);
+
+			assertEquals("token", operation.get());
+			assertEquals(FAILURES + 1, threads.size());
+			for (String thread : threads)
+			{
+				assertEquals(EXECUTOR_THREAD, thread);
+			}
+
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch interrupted = new CountDownLatch(1);
+			ScheduledRetry<String> blocked = ScheduledRetry.start(new Callable<String>()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					started.countDown();
+					try
+					{
+						Thread.sleep(10000);
+					}
+					catch (InterruptedException e)
+					{
+						interrupted.countDown();
+						throw e;
+					}
+					return "token";
+				}
+			}, RETRY_POLICY, scheduler, executor, null);
+
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			assertTrue(blocked.cancel(true));
+			assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+			assertTrue(blocked.isCancelled());
+		}
+		finally
+		{
+			executor.shutdown();
+			scheduler.shutdown();
+		}
+	}
+
+
+	/**
+	 * Ensure every scheduled acquisition that joined a failed auth token fetch is retried, not only the one that ran the fetch.
+	 */
+	public void testCoalescedAttempts() throws Exception
+	{
+		Context context = getContext();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		CountDownLatch arrived = new CountDownLatch(THREADS);
+		AccountStores.set(new FlakyAccountStore(arrived));
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			CoalescingPassword handler = new CoalescingPassword(context, Uri.parse(Password.SCHEME + ":"), arrived);
+			Account account = new Account("coalesced" + System.nanoTime(), "org.dmfs.test");
+			List<Future<AuthenticationProvider<? extends AuthToken>>> providers = new ArrayList<Future<AuthenticationProvider<? extends AuthToken>>>(THREADS);
+			for (int i = 0; i < THREADS; ++i)
+			{
+				providers.add(handler.getAuthenticationProviderAsync(context, account, null, executor));
+			}
+
+			for (Future<AuthenticationProvider<? extends AuthToken>> provider : providers)
+			{
+				assertNotNull(provider.get(10, TimeUnit.SECONDS));
+			}
+			// all acquisitions shared the failed first fetch and each of them has been retried once
+			assertEquals(2 * THREADS, handler.getAttempts());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A {@link Password} handler that counts the attempts of the acquisitions and returns {@link CoalescingProvider}s.
+	 */
+	private final static class CoalescingPassword extends Password
+	{
+		private final CountDownLatch mArrived;
+
+		private final AtomicInteger mAttempts = new AtomicInteger();
+
+
+		public CoalescingPassword(Context context, Uri authTokenType, CountDownLatch arrived)
+		{
+			super(context, authTokenType);
+			mArrived = arrived;
+		}
+
+
+		@Override
+		public AuthenticationProvider<? extends AuthToken> getAuthenticationProvider(Context context, Account account) throws AuthenticatorException, IOException,
+			AuthenticationException
+		{
+			mAttempts.incrementAndGet();
+			mArrived.countDown();
+			return new CoalescingProvider(context, account, mAuthTokenType);
+		}
+
+
+		public int getAttempts()
+		{
+			return mAttempts.get();
+		}
+	}
+
+	/**
+	 * An {@link AuthenticationProvider} that gets its auth token from the {@link AccountStore} with a short constant retry delay.
+	 */
+	private final static class CoalescingProvider extends AuthenticationProvider<UserCredentialsAuthToken>
+	{
+		public CoalescingProvider(Context context, Account account, Uri authTokenType) throws AuthenticatorException, IOException, AuthenticationException
+		{
+			super(context, account, authTokenType);
+		}
+
+
+		@Override
+		public boolean canRefresh()
+		{
+			return false;
+		}
+
+
+		@Override
+		protected boolean needsRefresh(UserCredentialsAuthToken authToken)
+		{
+			return false;
+		}
+
+
+		@Override
+		protected UserCredentialsAuthToken getAuthToken(Context context, Account account) throws AuthenticatorException, IOException, AuthenticationException
+		{
+			getProtectedAuthToken(context, account);
+			return new UserCredentialsAuthToken(context, account.name, "password", null);
+		}
+
+
+		@Override
+		protected RetryPolicy getRetryPolicy()
+		{
+			return new RetryPolicy(3, 10, 10, 1f, 0f, 0);
+		}
+
+
+		@Override
+		protected CircuitBreaker getCircuitBreaker(Account account)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * An {@link AccountStore} that fails the first auth token fetch once all acquisitions had the chance to join it.
+	 */
+	private final static class FlakyAccountStore implements AccountStore
+	{
+		private final CountDownLatch mArrived;
+
+		private final AtomicInteger mAttempts = new AtomicInteger();
+
+
+		public FlakyAccountStore(CountDownLatch arrived)
+		{
+			mArrived = arrived;
+		}
+
+
+		@Override
+		public String getPassword(Account account)
+		{
+			return null;
+		}
+
+
+		@Override
+		public void setPassword(Account account, String password)
+		{
+		}
+
+
+		@Override
+		public String blockingGetAuthToken(Account account, String authTokenType, boolean notifyAuthFailure) throws IOException, AuthenticatorException
+		{
+			if (mAttempts.incrementAndGet() == 1)
+			{
+				// wait for all acquisitions to arrive and give them some time to join this fetch
+				try
+				{
+					mArrived.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					throw new IOException("interrupted");
+				}
+				SystemClock.sleep(200);
+				throw new IOException("injected failure");
+			}
+			return "token";
+		}
+
+
+		@Override
+		public void invalidateAuthToken(String accountType, String authToken)
+		{
+		}
+	}
+}
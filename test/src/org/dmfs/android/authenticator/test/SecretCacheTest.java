@@ -0,0 +1,236 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.obfuscater.AesGcmObfuscater;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.SecretCache;
+import org.dmfs.android.authenticator.secrets.StoredSecret;
+import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+
+public class SecretCacheTest extends AndroidTestCase
+{
+	private final static Account ACCOUNT1 = new Account("user1", "org.dmfs.test");
+
+	private final static Account ACCOUNT2 = new Account("user2", "org.dmfs.test");
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+	}
+
+
+	public void testNewInstances()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 60000);
+
+		UserCredentialsSecret secret = put(context, cache, ACCOUNT1, "user", "password");
+		assertEquals("password", secret.getPassword());
+
+		UserCredentialsSecret cached1 = (UserCredentialsSecret) cache.get(ACCOUNT1, secret.toString());
+		UserCredentialsSecret cached2 = (UserCredentialsSecret) cache.get(ACCOUNT1, secret.toString());
+		assertNotSame(secret, cached1);
+		assertNotSame(cached1, cached2);
+		assertEquals(secret.toString(), cached1.toString());
+		assertEquals("user", cached1.getUsername());
+		assertEquals("password", cached1.getPassword());
+
+		// wiping a returned secret doesn't affect the cache
+		cached1.wipe();
+		assertEquals("password", ((UserCredentialsSecret) cache.get(ACCOUNT1, secret.toString())).getPassword());
+	}
+
+
+	public void testChangedSecret()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 60000);
+
+		UserCredentialsSecret secret = put(context, cache, ACCOUNT1, "user", "password");
+		UserCredentialsSecret held = (UserCredentialsSecret) cache.get(ACCOUNT1, secret.toString());
+		assertNotNull(held);
+
+		// the stored secret has changed
+		UserCredentialsSecret newSecret = new UserCredentialsSecret(context, "user", "new password", null);
+		assertNull(cache.get(ACCOUNT1, newSecret.toString()));
+		assertNull(cache.get(ACCOUNT1, secret.toString()));
+
+		// secrets that have been handed out are never wiped
+		assertEquals("password", secret.getPassword());
+		assertEquals("password", held.getPassword());
+	}
+
+
+	public void testEviction()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(1, 60000);
+
+		UserCredentialsSecret secret1 = put(context, cache, ACCOUNT1, "user1", "password1");
+		UserCredentialsSecret held = (UserCredentialsSecret) cache.get(ACCOUNT1, secret1.toString());
+
+		// evicts the entry of ACCOUNT1 while the caller still holds its secret
+		UserCredentialsSecret secret2 = put(context, cache, ACCOUNT2, "user2", "password2");
+
+		assertNull(cache.get(ACCOUNT1, secret1.toString()));
+		assertEquals("user1", held.getUsername());
+		assertEquals("password1", held.getPassword());
+		assertEquals("password1", secret1.getPassword());
+		assertEquals("password2", ((UserCredentialsSecret) cache.get(ACCOUNT2, secret2.toString())).getPassword());
+	}
+
+
+	public void testExpiry()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 10);
+
+		UserCredentialsSecret secret = put(context, cache, ACCOUNT1, "user", "password");
+		UserCredentialsSecret held = (UserCredentialsSecret) cache.get(ACCOUNT1, secret.toString());
+		SystemClock.sleep(20);
+
+		// the entry expires while the caller still holds its secret
+		assertNull(cache.get(ACCOUNT1, secret.toString()));
+		assertEquals("user", held.getUsername());
+		assertEquals("password", held.getPassword());
+		assertEquals("password", secret.getPassword());
+	}
+
+
+	public void testInvalidateAndClear()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 60000);
+
+		UserCredentialsSecret secret1 = put(context, cache, ACCOUNT1, "user1", "password1");
+		UserCredentialsSecret secret2 = put(context, cache, ACCOUNT2, "user2", "password2");
+		UserCredentialsSecret held1 = (UserCredentialsSecret) cache.get(ACCOUNT1, secret1.toString());
+		UserCredentialsSecret held2 = (UserCredentialsSecret) cache.get(ACCOUNT2, secret2.toString());
+
+		cache.invalidate(ACCOUNT1);
+		assertNull(cache.get(ACCOUNT1, secret1.toString()));
+		assertEquals("password1", held1.getPassword());
+
+		cache.clear();
+		assertNull(cache.get(ACCOUNT2, secret2.toString()));
+		assertEquals("password2", held2.getPassword());
+	}
+
+
+	/**
+	 * Ensure a migrated secret is cached under the migrated protected secret.
+	 */
+	public void testMigratedSecret()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 60000);
+		String oldSecret = new UserCredentialsSecret(context, "user", "password", null).toString();
+
+		Obfuscater.INSTANCE.setObfuscaterImpl(new AesGcmObfuscater());
+		UserCredentialsSecret secret = new UserCredentialsSecret(oldSecret);
+		cache.unprotect(context, ACCOUNT1, secret, true);
+		String migratedSecret = secret.getMigratedSecret();
+		assertNotNull(migratedSecret);
+		assertEquals(migratedSecret, secret.toString());
+
+		UserCredentialsSecret cached = (UserCredentialsSecret) cache.get(ACCOUNT1, migratedSecret);
+		assertEquals(migratedSecret, cached.toString());
+		assertEquals("password", cached.getPassword());
+		assertNull(cache.get(ACCOUNT1, oldSecret));
+	}
+
+
+	/**
+	 * Ensure the plain secrets of the cache are overwritten when they are evicted.
+	 */
+	public void testWipe()
+	{
+		Context context = getContext();
+		SecretCache cache = new SecretCache(4, 60000);
+
+		RecordingSecret secret = new RecordingSecret(new RecordingSecret(context, "user", "password").toString());
+		cache.unprotect(context, ACCOUNT1, secret, false);
+
+		// the cache passes its plain secret to the new instance
+		RecordingSecret cached = (RecordingSecret) cache.get(ACCOUNT1, secret.toString());
+		assertTrue(cached.mPlainSecret.toString().contains("password"));
+
+		cache.invalidate(ACCOUNT1);
+		CharSequence plainSecret = cached.mPlainSecret;
+		for (int i = 0, len = plainSecret.length(); i < len; ++i)
+		{
+			assertEquals('\0', plainSecret.charAt(i));
+		}
+
+		// the values of the secret are not affected
+		assertEquals("password", cached.mPassword);
+	}
+
+
+	private static UserCredentialsSecret put(Context context, SecretCache cache, Account account, String username, String password)
+	{
+		UserCredentialsSecret secret = new UserCredentialsSecret(new UserCredentialsSecret(context, username, password, null).toString());
+		cache.unprotect(context, account, secret, false);
+		return secret;
+	}
+
+	/**
+	 * A secret that keeps a reference to the plain secret it has been parsed from.
+	 */
+	private final static class RecordingSecret extends StoredSecret
+	{
+		private CharSequence mPlainSecret;
+
+		private String mPassword;
+
+
+		public RecordingSecret(String protectedSecret)
+		{
+			super(protectedSecret);
+		}
+
+
+		public RecordingSecret(Context context, String username, String password)
+		{
+			super(context, username, password);
+		}
+
+
+		@Override
+		public String getScheme()
+		{
+			return "recording_secret";
+		}
+
+
+		@Override
+		protected void parse(String plainSecret)
+		{
+			parse((CharSequence) plainSecret);
+		}
+
+
+		@Override
+		protected void parse(CharSequence plainSecret)
+		{
+			mPlainSecret = plainSecret;
+			mPassword = split(plainSecret, 2)[1];
+		}
+
+
+		@Override
+		protected StoredSecret newInstance(String protectedSecret)
+		{
+			return new RecordingSecret(protectedSecret);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.dmfs.android.authenticator.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.AuthSchemeHandlerFactory;
+import org.dmfs.android.authenticator.Authenticator;
+import org.dmfs.android.authenticator.Password;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.UserCredentialsAuthToken;
+import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+
+/**
+ * Verifies that issuing an auth token reads the stored secret only once.
+ */
+public class SecretReadCountTest extends AndroidTestCase
+{
+	/**
+	 * The number of times the stored secret has been read.
+	 */
+	private final static AtomicInteger READ_COUNT = new AtomicInteger();
+
+	/**
+	 * A {@link Password} handler that counts the reads of the stored secret instead of accessing the account database.
+	 */
+	public static class CountingPassword extends Password
+	{
+		private final String mProtectedSecret;
+
+
+		public CountingPassword(Context context, Uri authTokenType)
+		{
+			super(context, authTokenType);
+			mProtectedSecret = new UserCredentialsSecret(context, "user", "password", "realm").toString();
+		}
+
+
+		@Override
+		protected String getProtectedSecret(Context context, Account account)
+		{
+			READ_COUNT.incrementAndGet();
+			return mProtectedSecret;
+		}
+	}
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+		AuthSchemeHandler.register(Password.SCHEME, new AuthSchemeHandlerFactory()
+		{
+			@Override
+			public AuthSchemeHandler newInstance(Context context, Uri authTokenType)
+			{
+				return new CountingPassword(context, authTokenType);
+			}
+		});
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		AuthSchemeHandler.register(Password.SCHEME, Password.FACTORY);
+		super.tearDown();
+	}
+
+
+	public void testSingleSecretRead() throws Exception
+	{
+		Context context = getContext();
+		READ_COUNT.set(0);
+
+		Bundle result = new Authenticator(context).getAuthToken(null, new Account("user", "org.dmfs.test"), "password:", null);
+
+		assertEquals(1, READ_COUNT.get());
+
+		UserCredentialsAuthToken authToken = new UserCredentialsAuthToken(result.getString(AccountManager.KEY_AUTHTOKEN));
+		authToken.unprotect(context);
+		assertEquals("user", authToken.getUsername());
+		assertEquals("password", authToken.getPassword());
+		assertEquals("realm", authToken.getRealm());
+	}
+}
@@ -0,0 +1,104 @@
+package org.dmfs.android.authenticator.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dmfs.android.authenticator.SingleFlight;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+
+public class SingleFlightTest extends AndroidTestCase
+{
+	private final static int CALLERS = 16;
+
+
+	/**
+	 * Ensure N concurrent callers with the same key cause exactly one execution of the operation and all receive its result.
+	 */
+	public void testCoalescing() throws Exception
+	{
+		final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		final AtomicInteger executions = new AtomicInteger();
+		final CountDownLatch arrived = new CountDownLatch(CALLERS);
+
+		final Callable<String> operation = new Callable<String>()
+		{
+			@Override
+			public String call() throws Exception
+			{
+				executions.incrementAndGet();
+				// wait for all callers to arrive and give them some time to join this operation
+				arrived.await(10, TimeUnit.SECONDS);
+				SystemClock.sleep(200);
+				return "token";
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+		try
+		{
+			List<Future<String>> results = new ArrayList<Future<String>>(CALLERS);
+			for (int i = 0; i < CALLERS; ++i)
+			{
+				results.add(executor.submit(new Callable<String>()
+				{
+					@Override
+					public String call() throws Exception
+					{
+						arrived.countDown();
+						return singleFlight.execute("account|password:", operation);
+					}
+				}));
+			}
+
+			for (Future<String> result : results)
+			{
+				assertEquals("token", result.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(1, executions.get());
+
+		// the operation has completed, so the next call runs it again
+		assertEquals("token", singleFlight.execute("account|password:", operation));
+		assertEquals(2, executions.get());
+	}
+
+
+	/**
+	 * Ensure an exception is passed to the caller.
+	 */
+	public void testException() throws Exception
+	{
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		try
+		{
+			singleFlight.execute("key", new Callable<String>()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e)
+		{
+			assertEquals("failed", e.getMessage());
+		}
+	}
+}
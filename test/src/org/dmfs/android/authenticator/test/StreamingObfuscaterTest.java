@@ -0,0 +1,221 @@
+package org.dmfs.android.authenticator.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.Base64Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.DummyObfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+public class StreamingObfuscaterTest extends AndroidTestCase
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static String[] TEST_STRINGS = { "", " ", ";:_,.-=!\"§$%&/()=?*\'", "äöü€😀",
+		"A string that needs to be obfuscated to ensure no one can read it easily." };
+
+	private final static String[] FRAGMENTS = { null, "", "a", "fragment", "äöü€" };
+
+	/**
+	 * The size of the large payload.
+	 */
+	private final static int LARGE_PAYLOAD_SIZE = 32 * 1024 * 1024;
+
+	private final static int CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * The number of bytes to read between two heap measurements.
+	 */
+	private final static int HEAP_SAMPLE_INTERVAL = 1024 * 1024;
+
+	/**
+	 * The maximum heap the streams may retain during a round trip of the large payload. Streams that buffer the entire content retain more than the payload
+	 * size, no matter how large the heap is.
+	 */
+	private final static long MAX_RETAINED_HEAP = LARGE_PAYLOAD_SIZE / 4;
+
+
+	/**
+	 * An obfuscater that uses the default stream implementations of {@link AbstractObfuscater}.
+	 */
+	private final static class BufferingObfuscater extends AbstractObfuscater
+	{
+		private final AbstractObfuscater mDelegate = new XOrObfuscater();
+
+
+		@Override
+		public String obfuscate(Context context, String keyFragment, String plainText)
+		{
+			return mDelegate.obfuscate(context, keyFragment, plainText);
+		}
+
+
+		@Override
+		public String deobfuscate(Context context, String keyFragment, String obfuscatedText)
+		{
+			return mDelegate.deobfuscate(context, keyFragment, obfuscatedText);
+		}
+	}
+
+
+	/**
+	 * Ensure the streams produce the same results as the String based methods.
+	 */
+	public void streamCompatibilityTest(AbstractObfuscater obfuscater) throws IOException
+	{
+		Context context = getContext();
+
+		for (String fragment : FRAGMENTS)
+		{
+			for (String plainText : TEST_STRINGS)
+			{
+				byte[] plainBytes = plainText.getBytes(UTF8);
+
+				// write in small pieces of different sizes
+				ByteArrayOutputStream obfuscated = new ByteArrayOutputStream();
+				OutputStream out = obfuscater.obfuscatingStream(context, fragment, obfuscated);
+				for (int pos = 0, step = 1; pos < plainBytes.length; pos += step, ++step)
+				{
+					out.write(plainBytes, pos, Math.min(step, plainBytes.length - pos));
+				}
+				out.close();
+
+				assertEquals(obfuscater.obfuscate(context, fragment, plainText), new String(obfuscated.toByteArray(), UTF8));
+
+				InputStream in = obfuscater.deobfuscatingStream(context, fragment, new ByteArrayInputStream(obfuscated.toByteArray()));
+				assertEquals(plainText, new String(readAll(in), UTF8));
+				in.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Pipe a large pseudo random payload through the obfuscating and de-obfuscating streams and ensure it arrives unmodified. The heap is measured every
+	 * {@link #HEAP_SAMPLE_INTERVAL} bytes to ensure the streams don't hold on to the content.
+	 */
+	public void largePayloadTest(final AbstractObfuscater obfuscater) throws Exception
+	{
+		final Context context = getContext();
+		final PipedOutputStream pipeOut = new PipedOutputStream();
+		PipedInputStream pipeIn = new PipedInputStream(pipeOut, 64 * 1024);
+		final AtomicReference<Throwable> writerError = new AtomicReference<Throwable>();
+
+		Thread writer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					OutputStream out = obfuscater.obfuscatingStream(context, "fragment", pipeOut);
+					Random random = new Random(42);
+					byte[] chunk = new byte[CHUNK_SIZE];
+					for (int written = 0; written < LARGE_PAYLOAD_SIZE; written += CHUNK_SIZE)
+					{
+						random.nextBytes(chunk);
+						out.write(chunk);
+					}
+					out.close();
+				}
+				catch (Throwable e)
+				{
+					writerError.set(e);
+				}
+			}
+		};
+		long baseline = usedHeap();
+		long peak = baseline;
+		writer.start();
+
+		InputStream in = obfuscater.deobfuscatingStream(context, "fragment", pipeIn);
+		Random random = new Random(42);
+		byte[] expected = new byte[CHUNK_SIZE];
+		byte[] actual = new byte[CHUNK_SIZE];
+		int total = 0;
+		while (total < LARGE_PAYLOAD_SIZE)
+		{
+			random.nextBytes(expected);
+			int pos = 0;
+			int count;
+			while (pos < CHUNK_SIZE && (count = in.read(actual, pos, CHUNK_SIZE - pos)) >= 0)
+			{
+				pos += count;
+			}
+			assertEquals(CHUNK_SIZE, pos);
+			for (int i = 0; i < CHUNK_SIZE; ++i)
+			{
+				assertEquals(expected[i], actual[i]);
+			}
+			total += pos;
+
+			if (total % HEAP_SAMPLE_INTERVAL == 0)
+			{
+				peak = Math.max(peak, usedHeap());
+			}
+		}
+		assertEquals(-1, in.read());
+		in.close();
+
+		writer.join();
+		assertNull(writerError.get());
+		assertTrue("streams retained " + (peak - baseline) + " bytes of heap", peak - baseline < MAX_RETAINED_HEAP);
+	}
+
+
+	public void testStreamCompatibility() throws IOException
+	{
+		streamCompatibilityTest(new XOrObfuscater());
+		streamCompatibilityTest(new Base64Obfuscater());
+		streamCompatibilityTest(new DummyObfuscater());
+		streamCompatibilityTest(new BufferingObfuscater());
+	}
+
+
+	public void testLargePayload() throws Exception
+	{
+		largePayloadTest(new XOrObfuscater());
+		largePayloadTest(new Base64Obfuscater());
+		largePayloadTest(new DummyObfuscater());
+	}
+
+
+	/**
+	 * Return the number of bytes on the heap that are still reachable. This collects the garbage first, so garbage that has not been collected yet doesn't
+	 * count.
+	 */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		runtime.gc();
+		runtime.runFinalization();
+		runtime.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[100];
+		int count;
+		while ((count = in.read(buffer)) >= 0)
+		{
+			result.write(buffer, 0, count);
+		}
+		return result.toByteArray();
+	}
+}
@@ -0,0 +1,75 @@
+package org.dmfs.android.authenticator.test;
+
+import org.dmfs.android.authenticator.AccountStores;
+import org.dmfs.android.authenticator.AuthSchemeHandler;
+import org.dmfs.android.authenticator.AuthenticationService;
+import org.dmfs.android.authenticator.InMemoryAccountStore;
+import org.dmfs.android.authenticator.metrics.InMemoryMetrics;
+import org.dmfs.android.authenticator.metrics.Metrics;
+import org.dmfs.android.authenticator.metrics.Metrics.Cache;
+import org.dmfs.android.authenticator.obfuscater.Obfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+import org.dmfs.android.authenticator.secrets.UserCredentialsSecret;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+
+public class WarmUpTest extends AndroidTestCase
+{
+	private final static Account ACCOUNT = new Account("warmup", "org.dmfs.test");
+
+	private final static Account ACCOUNT_WITHOUT_SECRET = new Account("nosecret", "org.dmfs.test");
+
+	private final static String AUTH_TOKEN_TYPE = "password:";
+
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		Obfuscater.INSTANCE.setObfuscaterImpl(new XOrObfuscater());
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Metrics.setListener(null);
+		AccountStores.set(null);
+		super.tearDown();
+	}
+
+
+	/**
+	 * Ensure the warm-up loads the secrets into the secret cache and prefetches the auth tokens, so the first request after the warm-up doesn't have to.
+	 */
+	public void testWarmUp() throws Exception
+	{
+		Context context = getContext();
+		InMemoryAccountStore store = new InMemoryAccountStore(context);
+		AccountStores.set(store);
+		// use a unique password, so no other test can have cached this secret
+		String password = "password" + System.nanoTime();
+		store.setPassword(ACCOUNT, new UserCredentialsSecret(context, "user", password, null).toString());
+
+		// unknown auth token types and accounts without a secret must not break the warm-up
+		AuthenticationService.warmUp(context, new String[] { "unknown:", AUTH_TOKEN_TYPE }, new Account[] { ACCOUNT_WITHOUT_SECRET, ACCOUNT });
+
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.setListener(metrics);
+
+		AuthSchemeHandler handler = AuthSchemeHandler.get(context, AUTH_TOKEN_TYPE);
+		UserCredentialsSecret secret = (UserCredentialsSecret) handler.getSecret(context, ACCOUNT);
+		assertEquals(password, secret.getPassword());
+		assertEquals(1, metrics.snapshot().getHits(Cache.SECRET));
+		assertEquals(0, metrics.snapshot().getMisses(Cache.SECRET));
+
+		// the auth token has been prefetched, so getting it doesn't need the secret again
+		String authToken = store.blockingGetAuthToken(ACCOUNT, AUTH_TOKEN_TYPE, false);
+		assertNotNull(authToken);
+		assertEquals(1, metrics.snapshot().getHits(Cache.SECRET));
+		assertEquals(0, metrics.snapshot().getMisses(Cache.SECRET));
+	}
+}
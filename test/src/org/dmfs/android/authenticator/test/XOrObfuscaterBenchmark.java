@@ -0,0 +1,164 @@
+package org.dmfs.android.authenticator.test;
+
+import java.util.Random;
+
+import org.dmfs.android.authenticator.obfuscater.AbstractObfuscater;
+import org.dmfs.android.authenticator.obfuscater.XOrObfuscater;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+
+public class XOrObfuscaterBenchmark extends AndroidTestCase
+{
+	private final static String TAG = "XOrObfuscaterBenchmark";
+
+	private final static int ITERATIONS = 2000;
+
+	private final static String[] FRAGMENTS = { null, "", "a", "fragment", "äöü€", "😀" };
+
+
+	/**
+	 * Ensure the new implementation produces exactly the same results as the legacy implementation, so existing secrets can still be read.
+	 */
+	public void testCompatibility()
+	{
+		AbstractObfuscater legacy = new LegacyXOrObfuscater();
+		AbstractObfuscater current = new XOrObfuscater();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 2000; ++i)
+		{
+			String plainText = randomString(random, random.nextInt(300));
+			String fragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+
+			String obfuscated = legacy.obfuscate(null, fragment, plainText);
+			assertEquals(obfuscated, current.obfuscate(null, fragment, plainText));
+			assertEquals(legacy.deobfuscate(null, fragment, obfuscated), current.deobfuscate(null, fragment, obfuscated));
+
+			// a wrong key fragment results in garbage, but it must be the same garbage
+			String wrongFragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+			assertEquals(legacy.deobfuscate(null, wrongFragment, obfuscated), current.deobfuscate(null, wrongFragment, obfuscated));
+		}
+	}
+
+
+	public void testBenchmark()
+	{
+		AbstractObfuscater legacy = new LegacyXOrObfuscater();
+		AbstractObfuscater current = new XOrObfuscater();
+		String plainText = "user@example.com:7rJ.8dk$Sj2+pw/realm";
+
+		// warm up
+		run(legacy, plainText, "fragment", ITERATIONS / 10);
+		run(current, plainText, "fragment", ITERATIONS / 10);
+
+		long legacyTime = run(legacy, plainText, "fragment", ITERATIONS);
+		long currentTime = run(current, plainText, "fragment", ITERATIONS);
+
+		Log.i(TAG, "legacy: " + legacyTime / ITERATIONS + " ns/round trip, current: " + currentTime / ITERATIONS + " ns/round trip");
+	}
+
+
+	private static long run(AbstractObfuscater obfuscater, String plainText, String fragment, int iterations)
+	{
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i)
+		{
+			assertEquals(plainText, obfuscater.deobfuscate(null, fragment, obfuscater.obfuscate(null, fragment, plainText)));
+		}
+		return System.nanoTime() - start;
+	}
+
+
+	private static String randomString(Random random, int length)
+	{
+		StringBuilder result = new StringBuilder(length);
+		for (int i = 0; i < length; ++i)
+		{
+			switch (random.nextInt(5))
+			{
+				case 0:
+					result.append((char) (0x80 + random.nextInt(0x780)));
+					break;
+				case 1:
+					result.append((char) (0x800 + random.nextInt(0xd000)));
+					break;
+				case 2:
+					result.appendCodePoint(0x10000 + random.nextInt(0x100000));
+					break;
+				case 3:
+					// an unpaired surrogate
+					result.append((char) (0xd800 + random.nextInt(0x800)));
+					break;
+				default:
+					result.append((char) random.nextInt(0x80));
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * A copy of the XOrObfuscater before it was optimized.
+	 */
+	private final static class LegacyXOrObfuscater extends AbstractObfuscater
+	{
+		private final static byte[] KEY1 = "uh9goBJKb97geüonbKJbb7hajds".getBytes();
+
+		private final static byte[] KEY2 = { -49, -113, 60, -45, 0, -24, 83, -58, -11, -91, -69, -36, -85, 34, 24, 53, 20, -44, 33, -81, 60, -23, 121, 55,
+			-81, -48, 70, -60, -7, 68, 28, -87, 53, -102, -77, -68, -41, 9, -31, 0, -30, 98, 0, -38, -119, 115, -115, 68, -102, -108, -20, -75, -92, -108, -99,
+			-70, 12, -35, -38, -12, 55, 60, -92, 82, 25, 24, 80, -30, 22, 126, -113, -35, 7, -90, 33, -99, 47, -97, 32, -112, -12, 64, -30, -90, 53, 115, 49,
+			-43, 3, 0, 33, -64, -79, -113, 103, -43, -77, -35, -10, -15 };
+
+
+		@Override
+		public String obfuscate(Context context, String keyFragment, String plainText)
+		{
+			if (plainText == null || plainText.length() == 0)
+			{
+				return plainText;
+			}
+
+			byte[] xored = xor(plainText.getBytes(), xor(KEY1, KEY2));
+			if (keyFragment != null && keyFragment.length() > 0)
+			{
+				xored = xor(xored, keyFragment.getBytes());
+			}
+
+			return Base64.encodeToString(xored, Base64.NO_WRAP);
+		}
+
+
+		@Override
+		public String deobfuscate(Context context, String keyFragment, String obfuscatedText)
+		{
+			if (obfuscatedText == null || obfuscatedText.length() == 0)
+			{
+				return obfuscatedText;
+			}
+
+			byte[] xored = Base64.decode(obfuscatedText, Base64.NO_WRAP);
+
+			if (keyFragment != null && keyFragment.length() > 0)
+			{
+				xored = xor(xored, keyFragment.getBytes());
+			}
+
+			return new String(xor(xored, xor(KEY1, KEY2)));
+		}
+
+
+		private static byte[] xor(byte[] first, byte[] second)
+		{
+			byte[] result = new byte[first.length];
+			final int secondLength = second.length;
+			for (int i = 0, len = first.length; i < len; i++)
+			{
+				result[i] = (byte) (first[i] ^ second[i % secondLength]);
+			}
+			return result;
+		}
+	}
+}